@@ -0,0 +1,62 @@
+package nl.basmens.wfc.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.basmens.wfc.OverlappingModel;
+
+/**
+ * Times extracting the patterns of the overlapping model from a sample image, which is paid every time a rule set is
+ * retrained. The sample is a brick wall with a few brick colours, square and {@code size} pixels wide.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OverlappingModelBenchmark {
+  private static final int MORTAR = 0xffdddddd;
+  private static final int[] BRICKS = { 0xffaa4422, 0xff993311, 0xffbb5533 };
+
+  @Param({ "256", "1024" })
+  public int size;
+
+  @Param({ "3" })
+  public int patternSize;
+
+  @Param({ "1", "8" })
+  public int symmetry;
+
+  private int[] sample;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    sample = new int[size * size];
+    for (int y = 0; y < size; y++) {
+      int course = y / 6;
+      int shift = (course % 2) * 6;
+      for (int x = 0; x < size; x++) {
+        boolean mortar = y % 6 == 0 || (x + shift) % 12 == 0;
+        sample[y * size + x] = mortar ? MORTAR : BRICKS[((x + shift) / 12 * 7 + course * 3) % BRICKS.length];
+      }
+    }
+  }
+
+  @Benchmark
+  public OverlappingModel extract() {
+    return new OverlappingModel(sample, size, size, patternSize, true, symmetry);
+  }
+}
@@ -0,0 +1,74 @@
+package nl.basmens.wfc.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.basmens.wfc.PossibilitySet;
+
+/**
+ * Times the set operations propagation is built on, for module counts from the shipped rule sets up to generated ones.
+ * Build with -P benchmarks,simd and add -jvmArgsAppend "--add-modules jdk.incubator.vector -Dwfc.simd=true" to time
+ * the SIMD kernels instead.
+ *
+ * <p>
+ * The operations change their target, so every call works on a fresh copy of it. Otherwise all calls after the first
+ * would find nothing left to change. Subtract {@link #copy()} from the other results for the cost of the operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PossibilitySetBenchmark {
+  @Param({ "7", "42", "300", "1000", "5000" })
+  public int moduleCount;
+
+  private PossibilitySet target;
+  private PossibilitySet other;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Random random = new Random(moduleCount);
+    target = randomSet(random);
+    other = randomSet(random);
+  }
+
+  private PossibilitySet randomSet(Random random) {
+    PossibilitySet set = new PossibilitySet(moduleCount, false);
+    for (int i = 0; i < moduleCount; i++) {
+      if (random.nextBoolean()) {
+        set.addPossibility(i);
+      }
+    }
+    return set;
+  }
+
+  @Benchmark
+  public PossibilitySet copy() {
+    return new PossibilitySet(target);
+  }
+
+  @Benchmark
+  public PossibilitySet union() {
+    return new PossibilitySet(target).unionWith(other);
+  }
+
+  @Benchmark
+  public PossibilitySet intersection() {
+    return new PossibilitySet(target).intersectionWith(other);
+  }
+}
@@ -0,0 +1,115 @@
+package nl.basmens.wfc.bench;
+
+import java.util.Random;
+
+import nl.basmens.wfc.KeyPairsMap;
+import nl.basmens.wfc.Module;
+import nl.basmens.wfc.WfcFeatures;
+
+/**
+ * The rule sets the benchmarks run on. The circuit and mondriaan sets mirror the ones in Main, with the image file name
+ * as child item so no Processing instance is needed.
+ */
+public record RuleSet(Module[] modules, KeyPairsMap keyPairsMap) {
+  public static final int SYNTHETIC_MODULE_COUNT = 300;
+  public static final int SYNTHETIC_KEY_COUNT = 24;
+
+  public static RuleSet byName(String name) {
+    return switch (name) {
+      case "circuit" -> circuit();
+      case "mondriaan" -> mondriaan();
+      case "synthetic" -> synthetic(SYNTHETIC_MODULE_COUNT, SYNTHETIC_KEY_COUNT, 0);
+      case "synthetic-weighted" -> weighted(synthetic(SYNTHETIC_MODULE_COUNT, SYNTHETIC_KEY_COUNT, 0), 0);
+      default -> throw new IllegalArgumentException("Unknown rule set: " + name);
+    };
+  }
+
+  public WfcFeatures createFeatures(boolean loopEdges) {
+    WfcFeatures features = new WfcFeatures(modules, keyPairsMap);
+    features.setLoopEdgesEnabledX(loopEdges);
+    features.setLoopEdgesEnabledY(loopEdges);
+    return features;
+  }
+
+  // ===================================================================================================================
+  // Rule sets
+  // ===================================================================================================================
+  public static RuleSet circuit() {
+    Module[] modules = new Module[] {
+        new Module("board", "board", "board", "board", new int[] { 0 }, "board.png"),
+        new Module("chip", "chip", "chip", "chip", new int[] { 0 }, "chip_centre.png"),
+        new Module("chip edge left", "board", "board", "chip edge right", new int[] { 0, 1, 2, 3 }, "chip_corner.png"),
+        new Module("chip edge left", "wire", "chip edge right", "chip", new int[] { 0, 1, 2, 3 }, "chip_edge.png"),
+        new Module("pin", "wire", "pin", "wire", new int[] { 0, 1 }, "crossover.png"),
+        new Module("board", "wire", "board", "board", new int[] { 0, 1, 2, 3 }, "hub1.png"),
+        new Module("board", "wire", "board", "wire", new int[] { 0, 1 }, "hub2.png"),
+        new Module("board", "pin", "board", "pin", new int[] { 0, 1 }, "pin.png"),
+        new Module("wire", "wire", "board", "board", new int[] { 0, 1, 2, 3 }, "wire_diagonal1.png"),
+        new Module("wire", "wire", "wire", "wire", new int[] { 0, 1 }, "wire_diagonal2.png"),
+        new Module("pin", "board", "wire", "board", new int[] { 0, 1, 2, 3 }, "wire_pin.png"),
+        new Module("board", "wire", "board", "wire", new int[] { 0, 1 }, "wire_straight.png"),
+        new Module("wire", "wire", "board", "wire", new int[] { 0, 1, 2, 3 }, "wire_t.png")
+    };
+
+    KeyPairsMap keyPairsMap = new KeyPairsMap();
+    keyPairsMap.addPair("board", "board");
+    keyPairsMap.addPair("chip", "chip");
+    keyPairsMap.addPair("chip edge left", "chip edge right");
+    keyPairsMap.addPair("wire", "wire");
+    keyPairsMap.addPair("pin", "pin");
+
+    return new RuleSet(modules, keyPairsMap);
+  }
+
+  public static RuleSet mondriaan() {
+    String[] colors = { "black", "red", "yellow", "blue", "purple", "green", "aqua" };
+    Module[] modules = new Module[colors.length];
+    KeyPairsMap keyPairsMap = new KeyPairsMap();
+    for (int i = 0; i < colors.length; i++) {
+      String c = colors[i];
+      modules[i] = new Module(c, c, c, c, new int[] { 0 }, c + ".png");
+      keyPairsMap.addPair("black", c);
+      keyPairsMap.addPair(c, c);
+    }
+
+    return new RuleSet(modules, keyPairsMap);
+  }
+
+  /**
+   * A generated rule set with many modules. Every key connects to itself and to the next key, so most random
+   * combinations of keys still have plenty of neighbours to choose from.
+   */
+  public static RuleSet synthetic(int moduleCount, int keyCount, long seed) {
+    Random random = new Random(seed);
+
+    KeyPairsMap keyPairsMap = new KeyPairsMap();
+    for (int i = 0; i < keyCount; i++) {
+      keyPairsMap.addPair("k" + i, "k" + i);
+      keyPairsMap.addPair("k" + i, "k" + (i + 1) % keyCount);
+    }
+
+    Module[] modules = new Module[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      modules[i] = new Module("k" + random.nextInt(keyCount), "k" + random.nextInt(keyCount),
+          "k" + random.nextInt(keyCount), "k" + random.nextInt(keyCount), new int[] { 0 }, "synthetic" + i);
+    }
+
+    return new RuleSet(modules, keyPairsMap);
+  }
+
+  /**
+   * The same rule set with skewed weights, from 1 up to 128, so a few modules make up most of the grid.
+   */
+  public static RuleSet weighted(RuleSet ruleSet, long seed) {
+    Random random = new Random(seed);
+
+    Module[] modules = new Module[ruleSet.modules.length];
+    for (int i = 0; i < modules.length; i++) {
+      Module m = ruleSet.modules[i];
+      modules[i] = new Module(m.keyUp, m.keyRight, m.keyDown, m.keyLeft, m.rotations, m.getChildItem(),
+          1 << random.nextInt(8));
+    }
+
+    return new RuleSet(modules, ruleSet.keyPairsMap);
+  }
+}
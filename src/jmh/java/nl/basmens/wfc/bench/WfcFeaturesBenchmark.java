@@ -0,0 +1,47 @@
+package nl.basmens.wfc.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.basmens.wfc.WfcFeatures;
+
+/**
+ * Times building a WfcFeatures from modules and key pairs, which is paid once per rule set.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WfcFeaturesBenchmark {
+  @Param({ "circuit", "mondriaan", "synthetic" })
+  public String ruleSet;
+
+  @Param({ "false", "true" })
+  public boolean loopEdges;
+
+  private RuleSet rules;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    rules = RuleSet.byName(ruleSet);
+  }
+
+  @Benchmark
+  public WfcFeatures construct() {
+    return rules.createFeatures(loopEdges);
+  }
+}
@@ -0,0 +1,62 @@
+package nl.basmens.wfc.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.basmens.wfc.Wfc;
+import nl.basmens.wfc.WfcFeatures;
+
+/**
+ * Times a complete Wfc run on the largest grids, the same way as {@link WfcRunBenchmark}. Only the classic engine runs
+ * here: the counters of SUPPORT_COUNTING for 2000x2000 tiles don't fit in one array for the larger rule sets, and take
+ * gigabytes for the smaller ones.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx12g" })
+@State(Scope.Benchmark)
+public class WfcLargeRunBenchmark {
+  @Param({ "circuit", "mondriaan", "synthetic", "synthetic-weighted" })
+  public String ruleSet;
+
+  @Param({ "2000" })
+  public int gridSize;
+
+  @Param({ "false", "true" })
+  public boolean loopEdges;
+
+  // Pass -p supportMaskCacheCapacity=0 to measure without the cache
+  @Param({ "4096" })
+  public int supportMaskCacheCapacity;
+
+  private WfcFeatures features;
+  private int seed;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    features = RuleSet.byName(ruleSet).createFeatures(loopEdges);
+    features.setSupportMaskCacheCapacity(supportMaskCacheCapacity);
+    seed = 0;
+  }
+
+  @Benchmark
+  public Wfc run() {
+    Wfc wfc = new Wfc(gridSize, gridSize, features, seed++);
+    wfc.run();
+    return wfc;
+  }
+}
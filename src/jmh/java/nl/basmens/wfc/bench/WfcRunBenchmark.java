@@ -0,0 +1,71 @@
+package nl.basmens.wfc.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.basmens.wfc.PropagationEngine;
+import nl.basmens.wfc.Wfc;
+import nl.basmens.wfc.WfcFeatures;
+
+/**
+ * Times a complete Wfc run with either engine. Every invocation uses the next seed, so the measured runs are the same
+ * between forks and between engine versions. The large grids take a while, narrow them down with -p gridSize=... when
+ * iterating. To compare against the SIMD kernels, build with -P benchmarks,simd and run again with
+ * -jvmArgsAppend "--add-modules jdk.incubator.vector -Dwfc.simd=true".
+ *
+ * <p>
+ * The 2000x2000 grids are in {@link WfcLargeRunBenchmark}, with the classic engine only.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx12g" })
+@State(Scope.Benchmark)
+public class WfcRunBenchmark {
+  @Param({ "circuit", "mondriaan", "synthetic", "synthetic-weighted" })
+  public String ruleSet;
+
+  @Param({ "50", "200", "1000" })
+  public int gridSize;
+
+  @Param({ "false", "true" })
+  public boolean loopEdges;
+
+  @Param({ "CLASSIC", "SUPPORT_COUNTING" })
+  public PropagationEngine engine;
+
+  // Pass -p supportMaskCacheCapacity=0 to measure without the cache
+  @Param({ "4096" })
+  public int supportMaskCacheCapacity;
+
+  private WfcFeatures features;
+  private int seed;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    features = RuleSet.byName(ruleSet).createFeatures(loopEdges);
+    features.setSupportMaskCacheCapacity(supportMaskCacheCapacity);
+    seed = 0;
+  }
+
+  @Benchmark
+  public Wfc run() {
+    Wfc wfc = new Wfc(gridSize, gridSize, features, seed++);
+    wfc.setPropagationEngine(engine);
+    wfc.run();
+    return wfc;
+  }
+}
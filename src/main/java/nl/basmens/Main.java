@@ -1,24 +1,31 @@
 package nl.basmens;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
 
+import nl.basmens.wfc.GridObserver;
 import nl.basmens.wfc.KeyPairsMap;
-import nl.basmens.wfc.PossibilitySet;
+import nl.basmens.wfc.PngExporter;
+import nl.basmens.wfc.RunStatus;
+import nl.basmens.wfc.TileAtlas;
 import nl.basmens.wfc.Wfc;
 import nl.basmens.wfc.WfcFeatures;
 import nl.benmens.processing.PApplet;
-import processing.core.PGraphics;
 import processing.core.PImage;
 import processing.opengl.PGraphicsOpenGL;
 
 public class Main extends PApplet {
   private WfcFeatures features;
   private Wfc wfc;
+  private GridObserver observer;
+  private boolean solving;
   private int tileResolution;
   
   private ArrayList<Double> times = new ArrayList<>();
@@ -34,6 +41,7 @@ public class Main extends PApplet {
   private int tileSet = 0; // 0 = circuit, 1 = mondriaan
 
   private boolean testPerformance = false; // Rough test, influenced by JIT
+  private Duration frameBudget = Duration.ofMillis(10); // Time the solver gets per frame
 
   // ===================================================================================================================
   // Native processing functions for lifecycle
@@ -66,8 +74,8 @@ public class Main extends PApplet {
 
   private void startWfc() {
     wfc = useSeed ? new Wfc(tileCountX, tileCountY, features, seed) : new Wfc(tileCountX, tileCountY, features);
-    Thread thread = new Thread(wfc);
-    thread.start();
+    observer = wfc.observe();
+    solving = true;
   }
 
   @Override
@@ -78,6 +86,8 @@ public class Main extends PApplet {
       try {
         long startTime = System.nanoTime();
         wfc = new Wfc(tileCountX, tileCountY, features, (int) random(10000));
+        observer = wfc.observe();
+        solving = false;
         wfc.run();
         double timeElapsed = (System.nanoTime() - startTime) / 1_000_000D;
         times.add(timeElapsed);
@@ -89,6 +99,11 @@ public class Main extends PApplet {
       }
     }
 
+    // Advance the solver by a frame's worth of work
+    if (solving) {
+      solving = wfc.runFor(frameBudget) == RunStatus.RUNNING;
+    }
+
     // Draw grid
     stroke(50);
     strokeWeight(4);
@@ -103,11 +118,12 @@ public class Main extends PApplet {
 
     // Draw tiles
     imageMode(CENTER);
-    PossibilitySet[][] grid = wfc.getGrid();
-    for (int x = 0; x < grid.length; x++) {
-      for (int y = 0; y < grid[0].length; y++) {
-        if (grid[x][y].isCollapsed()) {
-          nl.basmens.wfc.Module module = wfc.getModule(grid[x][y].getPossibilitiesAsArray()[0]);
+    observer.update();
+    for (int x = 0; x < observer.getWidth(); x++) {
+      for (int y = 0; y < observer.getHeight(); y++) {
+        int moduleIndex = observer.getModuleIndex(x, y);
+        if (moduleIndex >= 0) {
+          nl.basmens.wfc.Module module = wfc.getModule(moduleIndex);
           if (module.getChildItem() instanceof PImage img) {
             pushMatrix();
             translate((float) ((x + 0.5) * tileW), (float) ((y + 0.5) * tileH));
@@ -119,7 +135,7 @@ public class Main extends PApplet {
           // fill(180);
           // textSize(30);
           // textAlign(CENTER, CENTER);
-          // text(grid[x][y].getEntropy(), (float) ((x + 0.5) * tileW), (float) ((y + 0.5)
+          // text(grid.getEntropy(x, y), (float) ((x + 0.5) * tileW), (float) ((y + 0.5)
           // * tileH));
         }
       }
@@ -158,29 +174,21 @@ public class Main extends PApplet {
       return;
 
     println("Saving...");
-    PossibilitySet[][] grid = wfc.getGrid();
-    PGraphics p = createGraphics(tileResolution * wfc.getGridW(), tileResolution * wfc.getGridH());
-    p.beginDraw();
-    p.background(0);
-    p.imageMode(CENTER);
-
-    for (int x = 0; x < grid.length; x++) {
-      for (int y = 0; y < grid[0].length; y++) {
-        if (grid[x][y].isCollapsed()) {
-          nl.basmens.wfc.Module module = wfc.getModule(grid[x][y].getPossibilitiesAsArray()[0]);
-          if (module.getChildItem() instanceof PImage img) {
-            p.pushMatrix();
-            p.translate((float) ((x + 0.5) * tileResolution), (float) ((y + 0.5) * tileResolution));
-            p.rotate(HALF_PI * module.rotations[0]);
-            p.image(img, 0, 0);
-            p.popMatrix();
-          }
-        }
+    TileAtlas atlas = new TileAtlas(features, tileResolution, item -> {
+      if (item instanceof PImage img) {
+        img.loadPixels();
+        return img.pixels;
       }
+      return null;
+    });
+    PngExporter exporter = new PngExporter(atlas);
+    exporter.setExecutor(ForkJoinPool.commonPool());
+    try {
+      exporter.write(wfc.getGrid(), Paths.get(sketchPath("wfc result.png")));
+      println("Saved");
+    } catch (IOException e) {
+      e.printStackTrace();
     }
-    p.endDraw();
-    p.save("wfc result.png");
-    println("Saved");
   }
 
   private void generateCircuit() {
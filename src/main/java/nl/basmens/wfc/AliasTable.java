@@ -0,0 +1,77 @@
+package nl.basmens.wfc;
+
+import java.util.Random;
+
+/**
+ * Samples an index with a probability proportional to its weight in constant time, with Vose's alias method. Every
+ * index owns a column with the same total probability, which is split between the index itself and one alias.
+ */
+final class AliasTable {
+  private final double[] probability;
+  private final int[] alias;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  AliasTable(double[] weights) {
+    int n = weights.length;
+    probability = new double[n];
+    alias = new int[n];
+
+    double total = 0;
+    for (double weight : weights) {
+      total += weight;
+    }
+
+    // Scale the weights so that the average is 1, then pair every column below 1 with one above it
+    double[] scaled = new double[n];
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = weights[i] * n / total;
+      if (scaled[i] < 1) {
+        small[smallCount++] = i;
+      } else {
+        large[largeCount++] = i;
+      }
+    }
+
+    while (smallCount > 0 && largeCount > 0) {
+      int less = small[--smallCount];
+      int more = large[--largeCount];
+      probability[less] = scaled[less];
+      alias[less] = more;
+      scaled[more] += scaled[less] - 1;
+      if (scaled[more] < 1) {
+        small[smallCount++] = more;
+      } else {
+        large[largeCount++] = more;
+      }
+    }
+
+    // Whatever is left is 1 up to rounding errors
+    while (largeCount > 0) {
+      probability[large[--largeCount]] = 1;
+    }
+    while (smallCount > 0) {
+      probability[small[--smallCount]] = 1;
+    }
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  int sample(Random random) {
+    int column = random.nextInt(probability.length);
+    return sample(column, random.nextDouble());
+  }
+
+  /**
+   * Samples with a column drawn uniformly from [0, n) and a coin drawn uniformly from [0, 1).
+   */
+  int sample(int column, double coin) {
+    return coin < probability[column] ? column : alias[column];
+  }
+}
@@ -0,0 +1,95 @@
+package nl.basmens.wfc;
+
+/**
+ * The word loops that propagation spends its time in, on bitsets stored as runs of longs. They run as plain scalar
+ * loops, unless the JVM was started with {@code -Dwfc.simd=true} and {@code --add-modules jdk.incubator.vector}, in
+ * which case they use the explicit vector kernels of VectorBitKernels. Those are only there when the project was built
+ * with the simd profile. When they are missing, the module is missing, or the CPU has no vectors of two or more longs,
+ * the scalar loops are used as well.
+ */
+final class BitKernels {
+  // Null unless the vector kernels are used
+  private static final VectorKernels VECTOR = loadVectorKernels();
+  static final boolean SIMD = VECTOR != null;
+
+  private BitKernels() {
+  }
+
+  private static VectorKernels loadVectorKernels() {
+    if (!Boolean.getBoolean("wfc.simd") || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+      return null;
+    }
+    try {
+      VectorKernels kernels = (VectorKernels) Class.forName("nl.basmens.wfc.VectorBitKernels")
+          .getDeclaredConstructor().newInstance();
+      return kernels.isSupported() ? kernels : null;
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // Built without the simd profile
+      return null;
+    }
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * ANDs {@code length} words of the mask into the target, and returns the number of bits left set in them, in one
+   * pass. This one is scalar either way: the vector API has no bit count yet, and storing the vectors only to count
+   * them again measured slower than this loop.
+   */
+  static int andCount(long[] target, int targetOffset, long[] mask, int maskOffset, int length) {
+    int count = 0;
+    for (int i = 0; i < length; i++) {
+      long word = target[targetOffset + i] & mask[maskOffset + i];
+      target[targetOffset + i] = word;
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  /**
+   * ORs {@code length} words of the source into the target.
+   */
+  static void or(long[] target, int targetOffset, long[] source, int sourceOffset, int length) {
+    if (SIMD) {
+      VECTOR.or(target, targetOffset, source, sourceOffset, length);
+      return;
+    }
+
+    for (int i = 0; i < length; i++) {
+      target[targetOffset + i] |= source[sourceOffset + i];
+    }
+  }
+
+  /**
+   * Returns the number of bits set in {@code length} words. Scalar either way, like {@link #andCount}.
+   */
+  static int count(long[] words, int offset, int length) {
+    int count = 0;
+    for (int i = 0; i < length; i++) {
+      count += Long.bitCount(words[offset + i]);
+    }
+    return count;
+  }
+
+  /**
+   * Sets the first {@code length} words of the target to the union of the given rows of the table. The rows are given
+   * as offsets into the table, and each is {@code length} words long.
+   */
+  static void orRows(long[] target, long[] table, int[] rowOffsets, int rowCount, int length) {
+    if (SIMD) {
+      VECTOR.orRows(target, table, rowOffsets, rowCount, length);
+      return;
+    }
+
+    for (int i = 0; i < length; i++) {
+      target[i] = 0;
+    }
+    for (int r = 0; r < rowCount; r++) {
+      int rowOffset = rowOffsets[r];
+      for (int i = 0; i < length; i++) {
+        target[i] |= table[rowOffset + i];
+      }
+    }
+  }
+}
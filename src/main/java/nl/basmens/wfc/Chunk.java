@@ -0,0 +1,79 @@
+package nl.basmens.wfc;
+
+/**
+ * A square piece of a {@link ChunkedWorld}. Chunks never change once they are generated. A tile that could not be
+ * filled in has no possibilities left, and a module index of -1.
+ */
+public final class Chunk implements GridView {
+  private final int chunkX;
+  private final int chunkY;
+  private final int size;
+  private final int moduleCount;
+  // The module of every tile, indexed by x * size + y like the grid of a Wfc
+  private final int[] modules;
+  // Set once the chunk is in the spill directory of its cache, so it is not written there again
+  volatile boolean isSpilled;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  Chunk(int chunkX, int chunkY, int size, int moduleCount, int[] modules) {
+    this.chunkX = chunkX;
+    this.chunkY = chunkY;
+    this.size = size;
+    this.moduleCount = moduleCount;
+    this.modules = modules;
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  public int getChunkX() {
+    return chunkX;
+  }
+
+  public int getChunkY() {
+    return chunkY;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  @Override
+  public int getWidth() {
+    return size;
+  }
+
+  @Override
+  public int getHeight() {
+    return size;
+  }
+
+  @Override
+  public int getModuleCount() {
+    return moduleCount;
+  }
+
+  @Override
+  public int getEntropy(int x, int y) {
+    return modules[x * size + y] >= 0 ? 1 : 0;
+  }
+
+  @Override
+  public boolean hasPossibility(int x, int y, int module) {
+    return module >= 0 && modules[x * size + y] == module;
+  }
+
+  @Override
+  public int getModuleIndex(int x, int y) {
+    return modules[x * size + y];
+  }
+
+  /**
+   * The modules without a copy, for writing the chunk to disk.
+   */
+  int[] modules() {
+    return modules;
+  }
+}
@@ -0,0 +1,207 @@
+package nl.basmens.wfc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used chunks of a {@link ChunkedWorld} in memory. The least recently used chunk is evicted
+ * when the cache is full, and written to the spill directory first when there is one, so it can be read back instead
+ * of being generated again. Chunks don't change, so a chunk that is already on disk is not written again. Files are
+ * tagged with the world seed and sizes, but not with the rules, so every world needs a spill directory of its own.
+ *
+ * <p>
+ * The lock only guards the maps, disk I/O happens outside of it so a slow disk doesn't hold up the other threads. The
+ * spill directory is only a cache as well: a chunk that can't be written is dropped and one that can't be read is
+ * missing, and either way it is generated again when it is needed.
+ */
+final class ChunkCache {
+  // "WFCC", so a file that isn't a chunk is recognised
+  private static final int MAGIC = 0x57464343;
+
+  private final int capacity;
+  private final Path spillDirectory;
+  private final int chunkSize;
+  private final int moduleCount;
+  private final long worldSeed;
+
+  private final LinkedHashMap<Long, Chunk> chunks;
+  // Evicted chunks that are still being written, so they can be found until they are on disk
+  private final HashMap<Long, Chunk> spilling = new HashMap<>();
+  // Evicted by the last change to chunks, to be spilled once the lock is released
+  private final ArrayList<Chunk> evicted = new ArrayList<>();
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  /**
+   * Creates a cache that holds at most {@code capacity} chunks in memory. The spill directory may be null, in which
+   * case evicted chunks are dropped.
+   */
+  ChunkCache(int capacity, Path spillDirectory, int chunkSize, int moduleCount, long worldSeed) {
+    this.capacity = Math.max(1, capacity);
+    this.spillDirectory = spillDirectory;
+    this.chunkSize = chunkSize;
+    this.moduleCount = moduleCount;
+    this.worldSeed = worldSeed;
+
+    chunks = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Chunk> eldest) {
+        if (size() <= ChunkCache.this.capacity) {
+          return false;
+        }
+        Chunk chunk = eldest.getValue();
+        if (spillDirectory != null && !chunk.isSpilled && spilling.putIfAbsent(eldest.getKey(), chunk) == null) {
+          evicted.add(chunk);
+        }
+        return true;
+      }
+    };
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Returns the chunk from memory or from the spill directory, or null when it is in neither.
+   */
+  Chunk get(int chunkX, int chunkY) {
+    long key = key(chunkX, chunkY);
+    Chunk chunk;
+    synchronized (this) {
+      chunk = chunks.get(key);
+      if (chunk == null) {
+        chunk = spilling.get(key);
+        if (chunk != null) {
+          chunks.put(key, chunk);
+        }
+      }
+    }
+    if (chunk == null && spillDirectory != null) {
+      chunk = read(chunkX, chunkY);
+      if (chunk != null) {
+        chunk.isSpilled = true;
+        synchronized (this) {
+          // Another thread may have put it in while this one was reading
+          Chunk present = chunks.get(key);
+          if (present != null) {
+            chunk = present;
+          } else {
+            chunks.put(key, chunk);
+          }
+        }
+      }
+    }
+    spillEvicted();
+    return chunk;
+  }
+
+  void put(Chunk chunk) {
+    synchronized (this) {
+      chunks.put(key(chunk.getChunkX(), chunk.getChunkY()), chunk);
+    }
+    spillEvicted();
+  }
+
+  synchronized int size() {
+    return chunks.size();
+  }
+
+  static long key(int chunkX, int chunkY) {
+    return ((long) chunkX << 32) | (chunkY & 0xffff_ffffL);
+  }
+
+  private Path file(int chunkX, int chunkY) {
+    return spillDirectory.resolve("chunk_" + chunkX + "_" + chunkY + ".bin");
+  }
+
+  /**
+   * Writes the chunks that were evicted so far, outside the lock.
+   */
+  private void spillEvicted() {
+    List<Chunk> toSpill;
+    synchronized (this) {
+      if (evicted.isEmpty()) {
+        return;
+      }
+      toSpill = new ArrayList<>(evicted);
+      evicted.clear();
+    }
+
+    for (Chunk chunk : toSpill) {
+      spill(chunk);
+      synchronized (this) {
+        spilling.remove(key(chunk.getChunkX(), chunk.getChunkY()), chunk);
+      }
+    }
+  }
+
+  private void spill(Chunk chunk) {
+    Path file = file(chunk.getChunkX(), chunk.getChunkY());
+    Path temporary = null;
+    try {
+      // Write to a temporary file first, so a crash never leaves a half written chunk behind
+      Files.createDirectories(spillDirectory);
+      temporary = Files.createTempFile(spillDirectory, "chunk", ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(chunkSize);
+        out.writeInt(moduleCount);
+        out.writeLong(worldSeed);
+        for (int module : chunk.modules()) {
+          out.writeInt(module);
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      chunk.isSpilled = true;
+    } catch (IOException e) {
+      // The chunk is dropped, and generated again when it is needed
+      deleteQuietly(temporary);
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      // Left behind, it is never read since it doesn't have the name of a chunk
+    }
+  }
+
+  private Chunk read(int chunkX, int chunkY) {
+    Path file = file(chunkX, chunkY);
+    if (!Files.exists(file)) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != chunkSize || in.readInt() != moduleCount
+          || in.readLong() != worldSeed) {
+        // Left behind by another world, generate it again
+        return null;
+      }
+      int[] modules = new int[chunkSize * chunkSize];
+      for (int i = 0; i < modules.length; i++) {
+        modules[i] = in.readInt();
+      }
+      return new Chunk(chunkX, chunkY, chunkSize, moduleCount, modules);
+    } catch (IOException e) {
+      // Unreadable or cut short, generate it again
+      return null;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package nl.basmens.wfc;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * An endless plane of tiles, generated lazily in square chunks. A chunk is generated as a grid with a one tile wide
+ * ring around it, in which the bordering tiles of the chunks it depends on are fixed. That way the seams between
+ * chunks follow the rules just like the rest of the plane does.
+ *
+ * <p>
+ * Which neighbours a chunk depends on follows from its coordinates alone, in a 2 by 2 pattern:
+ * <ul>
+ * <li>chunks with an even x and y are generated on their own,</li>
+ * <li>chunks with an odd x and even y depend on their left and right neighbour,</li>
+ * <li>chunks with an even x and odd y depend on the neighbours above and below them,</li>
+ * <li>chunks with an odd x and y depend on all 8 neighbours, which are all one of the kinds above.</li>
+ * </ul>
+ * Together with a seed that only depends on the world seed and the coordinates, this makes every chunk the same no
+ * matter in which order chunks are asked for, or whether they were evicted and generated again in between. Chunks of
+ * the same kind never touch, so they can be generated at the same time.
+ *
+ * <p>
+ * The last kind has fixed tiles on all sides. When the rules can't connect those, a few tiles near the seam are left
+ * without a module, see {@link Chunk}.
+ */
+public final class ChunkedWorld {
+  public static final int DEFAULT_CACHE_CAPACITY = 256;
+
+  private final WfcFeatures wfcFeatures;
+  private final int chunkSize;
+  private final long worldSeed;
+  private final int moduleCount;
+
+  private final ChunkCache cache;
+  // Chunks that are being generated right now, so other threads wait for them instead of generating them as well
+  private final ConcurrentHashMap<Long, CompletableFuture<Chunk>> inProgress = new ConcurrentHashMap<>();
+
+  private volatile PropagationEngine propagationEngine = PropagationEngine.CLASSIC;
+
+  // ===================================================================================================================
+  // Constructor
+  // ===================================================================================================================
+  public ChunkedWorld(WfcFeatures wfcFeatures, int chunkSize, long worldSeed) {
+    this(wfcFeatures, chunkSize, worldSeed, DEFAULT_CACHE_CAPACITY, null);
+  }
+
+  /**
+   * Creates a world that keeps at most {@code cacheCapacity} chunks in memory. Evicted chunks are written to the spill
+   * directory, or dropped when it is null and generated again when they are needed. The features are frozen, and must
+   * not loop their edges.
+   */
+  public ChunkedWorld(WfcFeatures wfcFeatures, int chunkSize, long worldSeed, int cacheCapacity,
+      Path spillDirectory) {
+    if (wfcFeatures.isLoopEdgesEnabledX() || wfcFeatures.isLoopEdgesEnabledY()) {
+      throw new IllegalArgumentException("A chunked world can't loop its edges");
+    }
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size must be positive, got " + chunkSize);
+    }
+
+    this.wfcFeatures = wfcFeatures.freeze();
+    this.chunkSize = chunkSize;
+    this.worldSeed = worldSeed;
+    this.moduleCount = wfcFeatures.modules().length;
+    this.cache = new ChunkCache(cacheCapacity, spillDirectory, chunkSize, moduleCount, worldSeed);
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Returns the chunk at the given chunk coordinates, generating it and the chunks it depends on when needed. Safe to
+   * call from any number of threads.
+   */
+  public Chunk getChunk(int chunkX, int chunkY) {
+    Chunk chunk = cache.get(chunkX, chunkY);
+    if (chunk != null) {
+      return chunk;
+    }
+
+    long key = ChunkCache.key(chunkX, chunkY);
+    CompletableFuture<Chunk> future = new CompletableFuture<>();
+    CompletableFuture<Chunk> existing = inProgress.putIfAbsent(key, future);
+    if (existing != null) {
+      return existing.join();
+    }
+
+    try {
+      // Another thread may have finished it between the first lookup and claiming it
+      chunk = cache.get(chunkX, chunkY);
+      if (chunk == null) {
+        chunk = generate(chunkX, chunkY);
+        cache.put(chunk);
+      }
+      future.complete(chunk);
+      return chunk;
+    } catch (RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inProgress.remove(key, future);
+    }
+  }
+
+  /**
+   * Returns the module of a tile in world coordinates, or -1 when that tile could not be filled in.
+   */
+  public int getModuleIndex(int x, int y) {
+    Chunk chunk = getChunk(Math.floorDiv(x, chunkSize), Math.floorDiv(y, chunkSize));
+    return chunk.getModuleIndex(Math.floorMod(x, chunkSize), Math.floorMod(y, chunkSize));
+  }
+
+  /**
+   * Generates every chunk in the given range of chunk coordinates, both ends included, on the executor. Each kind of
+   * chunk is generated in a wave of its own, so that no chunk has to wait for another one to finish.
+   */
+  public CompletableFuture<Void> generateArea(int minChunkX, int minChunkY, int maxChunkX, int maxChunkY,
+      Executor executor) {
+    CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+    for (int kind = 0; kind < 4; kind++) {
+      int waveKind = kind;
+      result = result.thenCompose(v -> {
+        List<CompletableFuture<Void>> wave = new ArrayList<>();
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+          for (int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+            if (kind(chunkX, chunkY) == waveKind) {
+              int x = chunkX;
+              int y = chunkY;
+              wave.add(CompletableFuture.runAsync(() -> getChunk(x, y), executor));
+            }
+          }
+        }
+        return CompletableFuture.allOf(wave.toArray(CompletableFuture[]::new));
+      });
+    }
+    return result;
+  }
+
+  private Chunk generate(int chunkX, int chunkY) {
+    // The grid has a ring of one tile around the chunk, in which the tiles of the chunks it depends on are fixed
+    int gridSize = chunkSize + 2;
+    TileConstraints presetTiles = new TileConstraints();
+    int kind = kind(chunkX, chunkY);
+    Chunk[] neighbours = new Chunk[9];
+    for (int gridX = 0; gridX < gridSize; gridX++) {
+      for (int gridY = 0; gridY < gridSize; gridY++) {
+        int localX = gridX - 1;
+        int localY = gridY - 1;
+        int offsetX = Math.floorDiv(localX, chunkSize);
+        int offsetY = Math.floorDiv(localY, chunkSize);
+        if ((offsetX != 0 || offsetY != 0) && dependsOn(kind, offsetX, offsetY)) {
+          int index = (offsetX + 1) * 3 + offsetY + 1;
+          if (neighbours[index] == null) {
+            neighbours[index] = getChunk(chunkX + offsetX, chunkY + offsetY);
+          }
+          int module = neighbours[index].getModuleIndex(Math.floorMod(localX, chunkSize),
+              Math.floorMod(localY, chunkSize));
+          if (module >= 0) {
+            presetTiles.pin(gridX, gridY, module);
+          }
+        }
+      }
+    }
+
+    Wfc wfc = new Wfc(gridSize, gridSize, wfcFeatures, chunkSeed(chunkX, chunkY));
+    wfc.setPropagationEngine(propagationEngine);
+    wfc.constrain(presetTiles);
+    wfc.run();
+
+    GridView grid = wfc.getGrid();
+    int[] modules = new int[chunkSize * chunkSize];
+    for (int x = 0; x < chunkSize; x++) {
+      for (int y = 0; y < chunkSize; y++) {
+        modules[x * chunkSize + y] = grid.getModuleIndex(x + 1, y + 1);
+      }
+    }
+    return new Chunk(chunkX, chunkY, chunkSize, moduleCount, modules);
+  }
+
+  /**
+   * Returns 0 for chunks that depend on nothing, 1 and 2 for the ones that depend on two of those, and 3 for the ones
+   * that depend on all their neighbours.
+   */
+  private static int kind(int chunkX, int chunkY) {
+    return (chunkX & 1) | (chunkY & 1) << 1;
+  }
+
+  private static boolean dependsOn(int kind, int offsetX, int offsetY) {
+    return switch (kind) {
+      case 1 -> offsetY == 0;
+      case 2 -> offsetX == 0;
+      case 3 -> true;
+      default -> false;
+    };
+  }
+
+  private int chunkSeed(int chunkX, int chunkY) {
+    long hash = worldSeed ^ chunkX * 0x9E3779B97F4A7C15L ^ chunkY * 0xC2B2AE3D27D4EB4FL;
+    hash = (hash ^ hash >>> 30) * 0xBF58476D1CE4E5B9L;
+    hash = (hash ^ hash >>> 27) * 0x94D049BB133111EBL;
+    hash ^= hash >>> 31;
+    return (int) (hash ^ hash >>> 32);
+  }
+
+  // ===================================================================================================================
+  // Getters and Setters
+  // ===================================================================================================================
+  public WfcFeatures getWfcFeatures() {
+    return wfcFeatures;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public long getWorldSeed() {
+    return worldSeed;
+  }
+
+  /**
+   * Returns how many chunks are in memory right now.
+   */
+  public int getCachedChunkCount() {
+    return cache.size();
+  }
+
+  public PropagationEngine getPropagationEngine() {
+    return propagationEngine;
+  }
+
+  /**
+   * Selects the propagation engine for chunks that are generated from now on. Both engines give the same chunks.
+   */
+  public void setPropagationEngine(PropagationEngine propagationEngine) {
+    this.propagationEngine = propagationEngine;
+  }
+}
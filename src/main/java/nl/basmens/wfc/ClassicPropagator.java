@@ -0,0 +1,206 @@
+package nl.basmens.wfc;
+
+/**
+ * Constrains a tile by intersecting it with the union of everything its neighbour allows, and revisits the other
+ * neighbours whenever that removed something.
+ */
+final class ClassicPropagator implements Propagator {
+  private static final int DIRECTION_BITS = NeighbourTable.DIRECTION_BITS;
+  private static final int DIRECTION_MASK = (1 << DIRECTION_BITS) - 1;
+
+  private final Wfc wfc;
+  private final Grid grid;
+  private final SolverCounters counters;
+  private final int[] neighbours;
+  private final int directionCount;
+  private final int[] opposite;
+  private final int wordsPerTile;
+  // possibleModules[d] holds, per module, the words of the modules it allows at its side d
+  private final long[][] possibleModules;
+  private final SupportMaskCache cache;
+  private long cacheHits;
+  private long cacheMisses;
+
+  // Pending updates, merged per tile
+  private final PropagationWorklist worklist;
+  private final long[] scratchMask;
+  // The table offsets of the rows that make up a mask
+  private final int[] scratchRows;
+
+  /**
+   * @param cache shared cache of allowed-masks, or null to always compute them
+   */
+  ClassicPropagator(Wfc wfc, Grid grid, NeighbourTable neighbourTable, long[][] possibleModules, SupportMaskCache cache,
+      SolverCounters counters) {
+    this.wfc = wfc;
+    this.grid = grid;
+    this.counters = counters;
+    this.neighbours = neighbourTable.neighbours;
+    this.directionCount = neighbourTable.directionCount;
+    this.opposite = neighbourTable.opposite;
+    this.worklist = new PropagationWorklist(grid.tileCount, directionCount);
+    this.wordsPerTile = grid.wordsPerTile;
+    this.possibleModules = possibleModules;
+    this.cache = cache;
+
+    scratchMask = new long[wordsPerTile];
+    scratchRows = new int[grid.moduleCount];
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  @Override
+  public void initialise() {
+    for (int tile = 0; tile < grid.tileCount; tile++) {
+      for (int d = 0; d < directionCount; d++) {
+        updateTile(tile, d);
+      }
+    }
+  }
+
+  @Override
+  public void restoreInitialState(int[] state) {
+    // Nothing but the grid itself to restore
+  }
+
+  @Override
+  public int[] saveInitialState() {
+    return null;
+  }
+
+  @Override
+  public void collapse(int tile, int module) {
+    grid.collapse(tile, module);
+
+    // Every neighbour is constrained by this tile, which lies in the opposite direction of it
+    for (int d = 0; d < directionCount; d++) {
+      update(neighbours[tile * directionCount + opposite[d]], d);
+    }
+  }
+
+  @Override
+  public void removed(int tile) {
+    for (int d = 0; d < directionCount; d++) {
+      int neighbour = neighbours[tile * directionCount + d];
+      if (neighbour >= 0) {
+        push(neighbour, opposite[d]);
+      }
+    }
+  }
+
+  @Override
+  public void propagate() {
+    while (!worklist.isEmpty() && !grid.contradiction) {
+      int packed = worklist.pop();
+      updateTile(packed >>> DIRECTION_BITS, packed & DIRECTION_MASK);
+    }
+
+    if (cache != null) {
+      cache.record(cacheHits, cacheMisses);
+      cacheHits = 0;
+      cacheMisses = 0;
+    }
+  }
+
+  @Override
+  public void clear() {
+    worklist.clear();
+  }
+
+  @Override
+  public void restored(int[] tiles, int from, int to) {
+    // Nothing but the grid itself to restore
+  }
+
+  private void update(int tile, int direction) {
+    if (tile >= 0) {
+      updateTile(tile, direction);
+    }
+  }
+
+  /**
+   * Constrains a tile by its neighbour in the given direction.
+   */
+  private void updateTile(int tile, int direction) {
+    // Collapsed tiles are still checked, two of them can become incompatible when they collapse in the same wave
+    if (grid.entropy[tile] == 0) {
+      return;
+    }
+    constrain(tile, direction);
+  }
+
+  private void constrain(int tile, int direction) {
+    int startEntropy = grid.entropy[tile];
+    int neighbour = neighbours[tile * directionCount + direction];
+    if (neighbour < 0) {
+      return;
+    }
+    counters.tileUpdates++;
+
+    int side = opposite[direction];
+    int entropy;
+    if (grid.entropy[neighbour] == 1) {
+      // A collapsed neighbour allows exactly one row of the table
+      int row = grid.nextPossibility(neighbour, 0);
+      entropy = grid.intersect(tile, possibleModules[side], row * wordsPerTile);
+    } else {
+      entropy = grid.intersect(tile, allowedBy(neighbour, side), 0);
+    }
+
+    if (entropy < startEntropy) {
+      counters.reducingTileUpdates++;
+      wfc.tileChanged(tile, startEntropy);
+
+      // Revisit every other neighbour, it has to be constrained by this tile again
+      int offset = tile * directionCount;
+      for (int d = 0; d < directionCount; d++) {
+        if (d != direction) {
+          int other = neighbours[offset + d];
+          if (other >= 0) {
+            push(other, opposite[d]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the union of the table for the given side over every possibility of the neighbour. The returned mask must
+   * not be modified, and is only valid until the next call.
+   */
+  private long[] allowedBy(int neighbour, int side) {
+    long[] words = grid.words;
+    int offset = neighbour * wordsPerTile;
+
+    if (cache != null) {
+      long[] cached = cache.get(side, words, offset, wordsPerTile);
+      if (cached != null) {
+        cacheHits++;
+        return cached;
+      }
+      cacheMisses++;
+    }
+
+    int rowCount = 0;
+    for (int i = 0; i < wordsPerTile; i++) {
+      long word = words[offset + i];
+      while (word != 0) {
+        scratchRows[rowCount] = (i * 64 + Long.numberOfTrailingZeros(word)) * wordsPerTile;
+        rowCount++;
+        word &= word - 1; // Unset lsb
+      }
+    }
+    long[] mask = scratchMask;
+    BitKernels.orRows(mask, possibleModules[side], scratchRows, rowCount, wordsPerTile);
+
+    if (cache != null) {
+      cache.put(side, words, offset, wordsPerTile, mask);
+    }
+    return mask;
+  }
+
+  private void push(int tile, int direction) {
+    counters.pending(worklist.push(tile, direction));
+  }
+}
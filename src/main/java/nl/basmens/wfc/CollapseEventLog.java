@@ -0,0 +1,116 @@
+package nl.basmens.wfc;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A ring buffer of the tiles that collapsed, written by the thread that runs a {@link Wfc} and read by any number of
+ * {@link GridObserver}s. Next to the ring it keeps the module of every tile, so an observer that fell more than a ring
+ * behind can catch up from that instead.
+ *
+ * <p>
+ * The solver never waits for observers. Every event is written to its slot and then published by raising the
+ * sequence with release semantics, so an observer that reads the sequence sees everything written before it. Slots
+ * are reused once the ring wraps around, which an observer detects by reading the sequence again after reading the
+ * slots.
+ */
+final class CollapseEventLog {
+  /**
+   * The tile of the event that says every tile was reset, when the run restarts.
+   */
+  static final int RESET = -1;
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicLongArray events;
+  private final AtomicIntegerArray modules;
+  private final AtomicLong sequence = new AtomicLong();
+
+  // Only used by the solver thread, so it doesn't have to read the atomic back
+  private long nextSequence;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  /**
+   * Creates a log for the given number of tiles, with a ring of at least {@code capacity} events.
+   */
+  CollapseEventLog(int tileCount, int capacity) {
+    this.capacity = Math.max(2, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+    this.mask = this.capacity - 1;
+    this.events = new AtomicLongArray(this.capacity);
+    this.modules = new AtomicIntegerArray(tileCount);
+    for (int tile = 0; tile < tileCount; tile++) {
+      modules.setPlain(tile, -1);
+    }
+  }
+
+  // ===================================================================================================================
+  // Writing, by the solver thread
+  // ===================================================================================================================
+  /**
+   * Publishes that a tile collapsed to a module, or that it is no longer collapsed when the module is -1.
+   */
+  void publish(int tile, int module) {
+    modules.setOpaque(tile, module);
+    append(tile, module);
+  }
+
+  /**
+   * Publishes that no tile is collapsed anymore.
+   */
+  void reset() {
+    for (int tile = 0; tile < modules.length(); tile++) {
+      modules.setOpaque(tile, -1);
+    }
+    append(RESET, -1);
+  }
+
+  private void append(int tile, int module) {
+    events.setOpaque((int) nextSequence & mask, (long) tile << 32 | (module & 0xffff_ffffL));
+    nextSequence++;
+    sequence.setRelease(nextSequence);
+  }
+
+  // ===================================================================================================================
+  // Reading, by observers
+  // ===================================================================================================================
+  /**
+   * Returns the number of events published so far.
+   */
+  long getSequence() {
+    return sequence.getAcquire();
+  }
+
+  /**
+   * Returns the event with the given sequence number. It is only valid when the ring did not wrap past it in the
+   * meantime, so check {@link #getSequence()} again after reading.
+   */
+  long getEvent(long sequenceNumber) {
+    return events.getOpaque((int) sequenceNumber & mask);
+  }
+
+  static int tileOf(long event) {
+    return (int) (event >> 32);
+  }
+
+  static int moduleOf(long event) {
+    return (int) event;
+  }
+
+  /**
+   * Returns the module the tile collapsed to as of some recent event, or -1.
+   */
+  int getModule(int tile) {
+    return modules.getOpaque(tile);
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  int getTileCount() {
+    return modules.length();
+  }
+}
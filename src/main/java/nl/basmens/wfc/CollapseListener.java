@@ -0,0 +1,13 @@
+package nl.basmens.wfc;
+
+/**
+ * Receives the tiles that changed since the last {@link GridObserver#update(CollapseListener)}.
+ */
+@FunctionalInterface
+public interface CollapseListener {
+  /**
+   * Called when a tile collapsed to a module, or with a module of -1 when the tile is no longer collapsed because the
+   * run backtracked or restarted.
+   */
+  void tileChanged(int x, int y, int module);
+}
@@ -0,0 +1,77 @@
+package nl.basmens.wfc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The keys of a {@link KeyPairsMap} interned to dense ids, with the pairs stored as a bit matrix. Row {@code a} has a
+ * bit set for every key that may connect to key {@code a}, so the keys a side accepts can be walked word by word
+ * instead of looked up one string at a time.
+ */
+final class CompiledKeys {
+  private final HashMap<String, Integer> ids;
+  private final int keyCount;
+  private final int wordsPerKey;
+  private final long[] matrix;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  CompiledKeys(Map<String, ? extends Set<String>> pairs) {
+    keyCount = pairs.size();
+    ids = new HashMap<>(keyCount * 2);
+    for (String key : pairs.keySet()) {
+      ids.put(key, ids.size());
+    }
+
+    wordsPerKey = Grid.wordsFor(keyCount);
+    matrix = new long[keyCount * wordsPerKey];
+    for (Map.Entry<String, ? extends Set<String>> entry : pairs.entrySet()) {
+      int row = ids.get(entry.getKey()) * wordsPerKey;
+      for (String other : entry.getValue()) {
+        int b = ids.get(other);
+        matrix[row + (b >>> 6)] |= 1L << b;
+      }
+    }
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Returns the id of a key, or -1 when the key has no pairs.
+   */
+  int id(String key) {
+    Integer id = ids.get(key);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Returns the first key from {@code from} on that may connect to key {@code a}, or -1 when there is none.
+   */
+  int nextCompatible(int a, int from) {
+    if (from >= keyCount) {
+      return -1;
+    }
+
+    int offset = a * wordsPerKey;
+    int wordIndex = from / 64;
+    long word = matrix[offset + wordIndex] & (-1L << (from % 64));
+    while (word == 0) {
+      wordIndex++;
+      if (wordIndex == wordsPerKey) {
+        return -1;
+      }
+      word = matrix[offset + wordIndex];
+    }
+    return wordIndex * 64 + Long.numberOfTrailingZeros(word);
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  int getKeyCount() {
+    return keyCount;
+  }
+}
@@ -0,0 +1,35 @@
+package nl.basmens.wfc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event for a tile that ran out of possibilities, recorded before the {@link Wfc} backtracks or
+ * restarts.
+ */
+@Name("nl.basmens.wfc.Contradiction")
+@Label("WFC Contradiction")
+@Category("Wave Function Collapse")
+@Description("A tile ran out of possibilities")
+final class ContradictionEvent extends Event {
+  @Label("X")
+  int x;
+
+  @Label("Y")
+  int y;
+
+  @Label("Decisions")
+  @Description("How many decisions could still be undone")
+  int decisions;
+
+  @Label("Backtracks")
+  @Description("How many decisions were undone since the last restart")
+  int backtracks;
+
+  @Label("Restart")
+  @Description("Whether the run starts over instead of backtracking")
+  boolean restart;
+}
@@ -0,0 +1,199 @@
+package nl.basmens.wfc;
+
+import java.util.Arrays;
+
+/**
+ * The decisions of a {@link Wfc} run, in a compact binary form that can be stored or sent instead of the grid. The
+ * grid follows from the log by propagation alone, see {@link Wfc#replay(DecisionLog)}.
+ *
+ * <p>
+ * The log holds the collapses that the finished run still depends on, and the modules that backtracking banned from a
+ * tile, in the order they happened. Decisions that were undone and attempts that ended in a restart are left out. Each
+ * entry is a varint of the zigzag encoded distance to the tile of the entry before it, shifted left by one with a ban
+ * flag, followed by a varint of the module. Decisions mostly follow each other closely, so the distances stay small.
+ *
+ * <p>
+ * When modules share a class, the log also holds the seed that picked the module of every collapsed tile from its
+ * class. A banned module stands for its whole class.
+ */
+public final class DecisionLog {
+  private final byte[] bytes;
+  private final int tileCount;
+  private final int moduleCount;
+  private final long expansionSeed;
+  private final int decisionCount;
+  // Tile << 1 | ban, and module, for every entry
+  private final int[] entries;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  private DecisionLog(byte[] bytes, int tileCount, int moduleCount, long expansionSeed, int[] entries) {
+    this.bytes = bytes;
+    this.tileCount = tileCount;
+    this.moduleCount = moduleCount;
+    this.expansionSeed = expansionSeed;
+    this.entries = entries;
+
+    int decisions = 0;
+    for (int i = 0; i < entries.length; i += 2) {
+      if ((entries[i] & 1) == 0) {
+        decisions++;
+      }
+    }
+    this.decisionCount = decisions;
+  }
+
+  /**
+   * Encodes the entries of a recorder, given as tile << 1 | ban and module.
+   */
+  static DecisionLog encode(int tileCount, int moduleCount, long expansionSeed, int[] entries, int size) {
+    byte[] out = new byte[10 + 5 * (3 + size)];
+    int position = writeVarint(out, 0, tileCount);
+    position = writeVarint(out, position, moduleCount);
+    position = writeVarlong(out, position, expansionSeed);
+    position = writeVarint(out, position, size / 2);
+
+    int previousTile = 0;
+    for (int i = 0; i < size; i += 2) {
+      int tile = entries[i] >>> 1;
+      int delta = tile - previousTile;
+      int zigzag = (delta << 1) ^ (delta >> 31);
+      position = writeVarint(out, position, zigzag << 1 | (entries[i] & 1));
+      position = writeVarint(out, position, entries[i + 1]);
+      previousTile = tile;
+    }
+    return new DecisionLog(Arrays.copyOf(out, position), tileCount, moduleCount, expansionSeed,
+        Arrays.copyOf(entries, size));
+  }
+
+  /**
+   * Reads a log from what {@link #toByteArray()} returned.
+   *
+   * @throws IllegalArgumentException when the bytes are not a valid log
+   */
+  public static DecisionLog fromByteArray(byte[] bytes) {
+    int[] cursor = new int[1];
+    int tileCount = readVarint(bytes, cursor);
+    int moduleCount = readVarint(bytes, cursor);
+    long expansionSeed = readVarlong(bytes, cursor);
+    int entryCount = readVarint(bytes, cursor);
+    // Every entry takes at least two bytes, which also keeps a corrupt count from allocating too much
+    if (entryCount > (bytes.length - cursor[0]) / 2) {
+      throw new IllegalArgumentException("Decision log is truncated");
+    }
+
+    int[] entries = new int[2 * entryCount];
+    int tile = 0;
+    for (int i = 0; i < entries.length; i += 2) {
+      int packed = readVarint(bytes, cursor);
+      int zigzag = packed >>> 1;
+      tile += (zigzag >>> 1) ^ -(zigzag & 1);
+      int module = readVarint(bytes, cursor);
+      if (tile < 0 || tile >= tileCount || module >= moduleCount) {
+        throw new IllegalArgumentException("Decision log entry " + i / 2 + " is out of bounds");
+      }
+      entries[i] = tile << 1 | (packed & 1);
+      entries[i + 1] = module;
+    }
+    if (cursor[0] != bytes.length) {
+      throw new IllegalArgumentException("Decision log has " + (bytes.length - cursor[0]) + " bytes too many");
+    }
+    return new DecisionLog(bytes.clone(), tileCount, moduleCount, expansionSeed, entries);
+  }
+
+  private static int writeVarint(byte[] out, int position, int value) {
+    while ((value & ~0x7f) != 0) {
+      out[position++] = (byte) (value & 0x7f | 0x80);
+      value >>>= 7;
+    }
+    out[position++] = (byte) value;
+    return position;
+  }
+
+  private static int writeVarlong(byte[] out, int position, long value) {
+    while ((value & ~0x7fL) != 0) {
+      out[position++] = (byte) (value & 0x7f | 0x80);
+      value >>>= 7;
+    }
+    out[position++] = (byte) value;
+    return position;
+  }
+
+  private static long readVarlong(byte[] bytes, int[] cursor) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (cursor[0] == bytes.length) {
+        throw new IllegalArgumentException("Decision log is truncated");
+      }
+      byte b = bytes[cursor[0]++];
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Decision log holds a number that is too long");
+  }
+
+  private static int readVarint(byte[] bytes, int[] cursor) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (cursor[0] == bytes.length) {
+        throw new IllegalArgumentException("Decision log is truncated");
+      }
+      byte b = bytes[cursor[0]++];
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        if (value < 0) {
+          throw new IllegalArgumentException("Decision log holds a negative number");
+        }
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Decision log holds a number that is too long");
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  public byte[] toByteArray() {
+    return bytes.clone();
+  }
+
+  /**
+   * Returns how many bytes {@link #toByteArray()} returns.
+   */
+  public int getSize() {
+    return bytes.length;
+  }
+
+  public int getTileCount() {
+    return tileCount;
+  }
+
+  public int getModuleCount() {
+    return moduleCount;
+  }
+
+  /**
+   * Returns the seed that picked the module of every collapsed tile from its class, or 0 when every module is a class
+   * of its own.
+   */
+  public long getExpansionSeed() {
+    return expansionSeed;
+  }
+
+  /**
+   * Returns how many collapses the log holds, not counting the banned modules.
+   */
+  public int getDecisionCount() {
+    return decisionCount;
+  }
+
+  /**
+   * The entries as tile << 1 | ban, and module. They must not be modified.
+   */
+  int[] entries() {
+    return entries;
+  }
+}
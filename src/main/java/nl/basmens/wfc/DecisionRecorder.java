@@ -0,0 +1,58 @@
+package nl.basmens.wfc;
+
+import java.util.Arrays;
+
+/**
+ * Collects the entries of a {@link DecisionLog} while a run goes. Backtracking takes back everything from the last
+ * decision on, which mirrors what the trail restores.
+ */
+final class DecisionRecorder {
+  // Tile << 1 | ban, and module, for every entry
+  private int[] entries = new int[1024];
+  private int size;
+  // Where every decision that can still be taken back starts in entries
+  private int[] marks = new int[64];
+  private int markCount;
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  void reset() {
+    size = 0;
+    markCount = 0;
+  }
+
+  void decision(int tile, int module) {
+    if (markCount == marks.length) {
+      marks = Arrays.copyOf(marks, markCount * 2);
+    }
+    marks[markCount] = size;
+    markCount++;
+    add(tile << 1, module);
+  }
+
+  /**
+   * Takes back the last decision, and everything recorded after it.
+   */
+  void undoDecision() {
+    markCount--;
+    size = marks[markCount];
+  }
+
+  void ban(int tile, int module) {
+    add(tile << 1 | 1, module);
+  }
+
+  private void add(int packedTile, int module) {
+    if (size == entries.length) {
+      entries = Arrays.copyOf(entries, size * 2);
+    }
+    entries[size] = packedTile;
+    entries[size + 1] = module;
+    size += 2;
+  }
+
+  DecisionLog toLog(int tileCount, int moduleCount, long expansionSeed) {
+    return DecisionLog.encode(tileCount, moduleCount, expansionSeed, entries, size);
+  }
+}
@@ -0,0 +1,14 @@
+package nl.basmens.wfc;
+
+enum Direction {
+  UP,
+  RIGHT,
+  DOWN,
+  LEFT;
+
+  static final Direction[] VALUES = values();
+
+  Direction opposite() {
+    return VALUES[(ordinal() + 2) % 4];
+  }
+}
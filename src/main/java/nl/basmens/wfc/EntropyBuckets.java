@@ -0,0 +1,116 @@
+package nl.basmens.wfc;
+
+import java.util.Random;
+
+import cern.colt.list.IntArrayList;
+
+/**
+ * Keeps the tiles in one bucket per number of possibilities, and picks a random tile from the lowest bucket. A bitmap
+ * of the buckets that are not empty finds that bucket without walking past the empty ones.
+ */
+final class EntropyBuckets implements TileSelector {
+  // Bucket i holds the tiles with i + 2 possibilities
+  private final IntArrayList[] buckets;
+  private final long[] nonEmpty;
+  private final int[] locationInBucket;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  /**
+   * Creates the buckets with every tile in the one for all modules. With fewer than 2 modules every tile is collapsed
+   * already, and the buckets stay empty.
+   */
+  EntropyBuckets(int tileCount, int moduleCount) {
+    buckets = new IntArrayList[Math.max(0, moduleCount - 1)];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new IntArrayList();
+    }
+    nonEmpty = new long[Grid.wordsFor(buckets.length)];
+    locationInBucket = new int[tileCount];
+    if (moduleCount < 2) {
+      return;
+    }
+
+    IntArrayList fullBucket = buckets[moduleCount - 2];
+    fullBucket.setSize(tileCount);
+    for (int tile = 0; tile < tileCount; tile++) {
+      locationInBucket[tile] = tile;
+      fullBucket.setQuick(tile, tile);
+    }
+    if (tileCount > 0) {
+      markNonEmpty(moduleCount - 2);
+    }
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  @Override
+  public void move(int tile, int oldEntropy, int newEntropy) {
+    int oldBucket = oldEntropy - 2;
+    IntArrayList oldList = buckets[oldBucket];
+    int lastValue = oldList.get(oldList.size() - 1);
+    locationInBucket[lastValue] = locationInBucket[tile];
+
+    oldList.set(locationInBucket[tile], lastValue);
+    oldList.remove(oldList.size() - 1);
+    if (oldList.isEmpty()) {
+      markEmpty(oldBucket);
+    }
+
+    int newBucket = newEntropy - 2;
+    if (newBucket >= 0) {
+      locationInBucket[tile] = buckets[newBucket].size();
+      buckets[newBucket].add(tile);
+      markNonEmpty(newBucket);
+    }
+  }
+
+  @Override
+  public void undoMove(int tile, int oldEntropy, int oldLocation, int newEntropy) {
+    if (newEntropy >= 2) {
+      IntArrayList newList = buckets[newEntropy - 2];
+      newList.remove(newList.size() - 1);
+      if (newList.isEmpty()) {
+        markEmpty(newEntropy - 2);
+      }
+    }
+
+    IntArrayList oldList = buckets[oldEntropy - 2];
+    if (oldLocation == oldList.size()) {
+      oldList.add(tile);
+    } else {
+      int movedValue = oldList.get(oldLocation);
+      locationInBucket[movedValue] = oldList.size();
+      oldList.add(movedValue);
+      oldList.set(oldLocation, tile);
+    }
+    locationInBucket[tile] = oldLocation;
+    markNonEmpty(oldEntropy - 2);
+  }
+
+  @Override
+  public int location(int tile) {
+    return locationInBucket[tile];
+  }
+
+  @Override
+  public int select(Random random) {
+    for (int w = 0; w < nonEmpty.length; w++) {
+      if (nonEmpty[w] != 0) {
+        IntArrayList bucket = buckets[w * 64 + Long.numberOfTrailingZeros(nonEmpty[w])];
+        return bucket.get(random.nextInt(bucket.size()));
+      }
+    }
+    return -1;
+  }
+
+  private void markNonEmpty(int bucket) {
+    nonEmpty[bucket >>> 6] |= 1L << bucket;
+  }
+
+  private void markEmpty(int bucket) {
+    nonEmpty[bucket >>> 6] &= ~(1L << bucket);
+  }
+}
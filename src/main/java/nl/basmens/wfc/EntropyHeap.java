@@ -0,0 +1,193 @@
+package nl.basmens.wfc;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Keeps the tiles in an indexed binary min-heap, ordered by the Shannon entropy of the weights of their possibilities.
+ * Every tile knows its place in the heap, so a changed tile is moved up or down in O(log n) instead of searched for.
+ *
+ * <p>
+ * Every tile gets a small fixed amount of noise on top of its entropy, so equal tiles are picked in a random order.
+ * Left over ties are broken by tile index, which makes the minimum the same no matter how the heap is laid out. That
+ * way undoing a move only has to put the key back, not the exact place in the heap.
+ *
+ * <p>
+ * With weights, the grid keeps the sums the entropy follows from for every tile, taking off the terms of each module
+ * it removes and restoring them when it backtracks. An update then costs the same no matter how many modules there
+ * are.
+ */
+final class EntropyHeap implements TileSelector {
+  // Far below the entropy difference one possibility makes, log(n + 1) - log(n), unless there are a million modules
+  private static final double NOISE = 1e-6;
+
+  private final Grid grid;
+  private final boolean isWeighted;
+
+  private final int[] heap;
+  private final int[] position;
+  private final double[] key;
+  private final double[] noise;
+  private int size;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  /**
+   * Creates a heap with every tile, keyed as if it still had all modules possible. The weights may be null when every
+   * module weighs the same, otherwise the grid starts tracking them. The noise is drawn from the given random. With
+   * fewer than 2 modules every tile is collapsed already, and the heap starts out empty.
+   */
+  EntropyHeap(Grid grid, int moduleCount, double[] weights, Random random) {
+    this.grid = grid;
+    this.isWeighted = weights != null;
+    if (isWeighted) {
+      grid.trackWeights(weights);
+    }
+
+    int tileCount = grid.tileCount;
+    heap = new int[tileCount];
+    position = new int[tileCount];
+    key = new double[tileCount];
+    noise = new double[tileCount];
+
+    double fullEntropy = weights == null ? Math.log(moduleCount) : entropyOf(weights);
+    for (int tile = 0; tile < tileCount; tile++) {
+      noise[tile] = random.nextDouble() * NOISE;
+      key[tile] = fullEntropy + noise[tile];
+      heap[tile] = tile;
+      position[tile] = tile;
+    }
+    size = tileCount;
+    if (moduleCount < 2) {
+      Arrays.fill(position, -1);
+      size = 0;
+    }
+    for (int i = size / 2 - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+  }
+
+  private static double entropyOf(double[] weights) {
+    double sum = 0;
+    double sumWeightLogWeight = 0;
+    for (double weight : weights) {
+      sum += weight;
+      sumWeightLogWeight += weight * Math.log(weight);
+    }
+    return Math.log(sum) - sumWeightLogWeight / sum;
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  @Override
+  public void move(int tile, int oldEntropy, int newEntropy) {
+    if (newEntropy < 2) {
+      remove(tile);
+    } else {
+      update(tile, newEntropy);
+    }
+  }
+
+  @Override
+  public void undoMove(int tile, int oldEntropy, int oldLocation, int newEntropy) {
+    if (position[tile] < 0) {
+      position[tile] = size;
+      heap[size] = tile;
+      size++;
+    }
+    update(tile, oldEntropy);
+  }
+
+  @Override
+  public int location(int tile) {
+    return position[tile];
+  }
+
+  @Override
+  public int select(Random random) {
+    return size == 0 ? -1 : heap[0];
+  }
+
+  /**
+   * Sets the key of a tile in the heap to the entropy of its current possibilities, and restores the heap order.
+   */
+  private void update(int tile, int entropy) {
+    key[tile] = entropyOf(tile, entropy) + noise[tile];
+    int i = position[tile];
+    siftUp(i);
+    if (heap[i] == tile) {
+      siftDown(i);
+    }
+  }
+
+  /**
+   * Returns the Shannon entropy of a tile with the given number of possibilities.
+   */
+  private double entropyOf(int tile, int entropy) {
+    if (!isWeighted) {
+      return Math.log(entropy);
+    }
+    double sum = grid.weightSums[tile];
+    return Math.log(sum) - grid.weightLogWeightSums[tile] / sum;
+  }
+
+  private void remove(int tile) {
+    int i = position[tile];
+    size--;
+    position[tile] = -1;
+    if (i == size) {
+      return;
+    }
+
+    int last = heap[size];
+    heap[i] = last;
+    position[last] = i;
+    siftUp(i);
+    if (heap[i] == last) {
+      siftDown(i);
+    }
+  }
+
+  private void siftUp(int i) {
+    int tile = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!less(tile, heap[parent])) {
+        break;
+      }
+      place(heap[parent], i);
+      i = parent;
+    }
+    place(tile, i);
+  }
+
+  private void siftDown(int i) {
+    int tile = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && less(heap[child + 1], heap[child])) {
+        child++;
+      }
+      if (!less(heap[child], tile)) {
+        break;
+      }
+      place(heap[child], i);
+      i = child;
+    }
+    place(tile, i);
+  }
+
+  private void place(int tile, int i) {
+    heap[i] = tile;
+    position[tile] = i;
+  }
+
+  private boolean less(int a, int b) {
+    return key[a] < key[b] || key[a] == key[b] && a < b;
+  }
+}
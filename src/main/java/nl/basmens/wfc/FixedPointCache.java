@@ -0,0 +1,66 @@
+package nl.basmens.wfc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers, per topology, the neighbour table and the state a fresh grid propagates to before anything is collapsed.
+ * That state only depends on the features, the topology and the propagation engine, so every later run on the same
+ * topology copies it instead of propagating the whole grid again. Only the most recently used topologies are kept.
+ */
+final class FixedPointCache {
+  // Bigger grids take far longer to solve than to propagate once, and a copy would only add to their memory
+  static final int MAX_CACHED_TILES = 1 << 20;
+
+  private final Map<Topology, Entry> entries;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  FixedPointCache(int capacity) {
+    entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Topology, Entry> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Returns the entry for a topology, and creates it with the neighbour table of the topology if there was none.
+   * Topologies are told apart with their equals method.
+   */
+  synchronized Entry entry(Topology topology) {
+    return entries.computeIfAbsent(topology, t -> new Entry(new NeighbourTable(t)));
+  }
+
+  /**
+   * The grid state after the initial propagation, with whatever the propagator keeps besides the grid, or null for an
+   * engine that keeps nothing.
+   */
+  record FixedPoint(long[] words, int[] entropy, int[] propagatorState) {
+  }
+
+  static final class Entry {
+    final NeighbourTable neighbourTable;
+    private final FixedPoint[] fixedPoints = new FixedPoint[PropagationEngine.values().length];
+
+    private Entry(NeighbourTable neighbourTable) {
+      this.neighbourTable = neighbourTable;
+    }
+
+    /**
+     * Returns the fixed point for the engine, or null when no run has reached it yet.
+     */
+    synchronized FixedPoint get(PropagationEngine engine) {
+      return fixedPoints[engine.ordinal()];
+    }
+
+    synchronized void put(PropagationEngine engine, FixedPoint fixedPoint) {
+      fixedPoints[engine.ordinal()] = fixedPoint;
+    }
+  }
+}
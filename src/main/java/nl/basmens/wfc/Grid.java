@@ -0,0 +1,401 @@
+package nl.basmens.wfc;
+
+import java.util.Arrays;
+
+/**
+ * The possibilities of every tile, stored in one contiguous array of words. Tile {@code x * height + y} owns the
+ * {@code wordsPerTile} words starting at {@code tile * wordsPerTile}, and its entropy is kept in a parallel array.
+ *
+ * <p>
+ * When modules share a {@link ModuleClasses class}, the possibilities are classes and {@code moduleCount} counts those.
+ * The {@link GridView} methods still speak of modules: a collapsed tile shows the module its class expands to, which
+ * follows from the expansion seed and the tile alone, unless a constraint pinned the tile to a module.
+ */
+final class Grid implements GridView {
+  private static final long ALL_ONE = 0xffff_ffff_ffff_ffffL;
+
+  final int width;
+  final int height;
+  final int tileCount;
+  final int moduleCount;
+  final int wordsPerTile;
+
+  final long[] words;
+  final int[] entropy;
+  // The summed weight, and weight times log weight, of the possibilities of every tile. Null unless the weights are
+  // tracked, in which case every change below keeps them up to date.
+  double[] weightSums;
+  double[] weightLogWeightSums;
+  private double[] weights;
+  private double[] weightLogWeights;
+
+  // Set while backtracking is possible, every change is recorded on it first
+  Trail trail;
+  // Set when a tile runs out of possibilities while there is a trail to undo it with
+  boolean contradiction;
+  // The tile that ran out of possibilities first, valid while contradiction is set
+  int contradictionTile;
+
+  // Null when every module is a class of its own
+  ModuleClasses classes;
+  long expansionSeed;
+  // The module every tile was pinned to, or -1. Null until a tile is pinned to a module that shares its class.
+  private int[] pinnedModules;
+  // The words of the modules constraints left a tile, or null when they left whole classes
+  private long[][] allowedModules;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  Grid(int width, int height, int moduleCount) {
+    this.width = width;
+    this.height = height;
+    this.tileCount = width * height;
+    this.moduleCount = moduleCount;
+    this.wordsPerTile = wordsFor(moduleCount);
+
+    long wordCount = (long) tileCount * wordsPerTile;
+    if (wordCount > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Grid of " + width + "x" + height + " with " + moduleCount
+          + " modules is too large");
+    }
+    words = new long[(int) wordCount];
+    entropy = new int[tileCount];
+  }
+
+  static int wordsFor(int moduleCount) {
+    return (moduleCount + 63) / 64;
+  }
+
+  /**
+   * Makes every module possible for every tile.
+   */
+  void fill() {
+    if (tileCount == 0) {
+      return;
+    }
+
+    long lastWord = moduleCount % 64 == 0 ? ALL_ONE : ALL_ONE >>> (64 - moduleCount % 64);
+    for (int i = 0; i < wordsPerTile - 1; i++) {
+      words[i] = ALL_ONE;
+    }
+    words[wordsPerTile - 1] = lastWord;
+
+    // Double the filled part with each copy
+    for (int filled = wordsPerTile; filled < words.length; filled *= 2) {
+      System.arraycopy(words, 0, words, filled, Math.min(filled, words.length - filled));
+    }
+    Arrays.fill(entropy, moduleCount);
+  }
+
+  /**
+   * Sets every tile to a state saved from another grid of the same size.
+   */
+  void copyFrom(long[] savedWords, int[] savedEntropy) {
+    System.arraycopy(savedWords, 0, words, 0, words.length);
+    System.arraycopy(savedEntropy, 0, entropy, 0, entropy.length);
+  }
+
+  /**
+   * Starts keeping the weight sums of every tile, from the possibilities it has now. From then on a removed module
+   * takes its own terms off, so the sums never have to be added up again.
+   */
+  void trackWeights(double[] moduleWeights) {
+    weights = moduleWeights;
+    weightLogWeights = new double[moduleCount];
+    double fullSum = 0;
+    double fullLogSum = 0;
+    for (int m = 0; m < moduleCount; m++) {
+      weightLogWeights[m] = weights[m] * Math.log(weights[m]);
+      fullSum += weights[m];
+      fullLogSum += weightLogWeights[m];
+    }
+
+    weightSums = new double[tileCount];
+    weightLogWeightSums = new double[tileCount];
+    for (int tile = 0; tile < tileCount; tile++) {
+      if (entropy[tile] == moduleCount) {
+        weightSums[tile] = fullSum;
+        weightLogWeightSums[tile] = fullLogSum;
+      } else {
+        for (int m = nextPossibility(tile, 0); m >= 0; m = nextPossibility(tile, m + 1)) {
+          weightSums[tile] += weights[m];
+          weightLogWeightSums[tile] += weightLogWeights[m];
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes the terms of the modules in a word of removed possibilities off the weight sums of a tile.
+   */
+  private void removeWeights(int tile, int firstModule, long removed) {
+    while (removed != 0) {
+      int m = firstModule + Long.numberOfTrailingZeros(removed);
+      weightSums[tile] -= weights[m];
+      weightLogWeightSums[tile] -= weightLogWeights[m];
+      removed &= removed - 1;
+    }
+  }
+
+  // ===================================================================================================================
+  // Operations
+  // ===================================================================================================================
+  /**
+   * Intersects a tile with {@code wordsPerTile} words of the mask, and returns its new entropy.
+   */
+  int intersect(int tile, long[] mask, int maskOffset) {
+    int offset = tile * wordsPerTile;
+    int i = 0;
+    while (i < wordsPerTile && (words[offset + i] & ~mask[maskOffset + i]) == 0) {
+      i++;
+    }
+    if (i == wordsPerTile) {
+      return entropy[tile];
+    }
+
+    if (trail != null) {
+      trail.save(tile);
+    }
+    if (weightSums != null) {
+      for (int j = i; j < wordsPerTile; j++) {
+        removeWeights(tile, j * 64, words[offset + j] & ~mask[maskOffset + j]);
+      }
+    }
+    int count = BitKernels.andCount(words, offset, mask, maskOffset, wordsPerTile);
+    entropy[tile] = count;
+    if (count == 0 && trail != null) {
+      contradict(tile);
+    }
+    return count;
+  }
+
+  /**
+   * The same as {@link #intersect(int, long[], int)}, for a grid with a single word per tile.
+   */
+  int intersectWord(int tile, long mask) {
+    long word = words[tile];
+    if ((word & ~mask) == 0) {
+      return entropy[tile];
+    }
+
+    if (trail != null) {
+      trail.save(tile);
+    }
+    if (weightSums != null) {
+      removeWeights(tile, 0, word & ~mask);
+    }
+    word &= mask;
+    words[tile] = word;
+    int count = Long.bitCount(word);
+    entropy[tile] = count;
+    if (count == 0 && trail != null) {
+      contradict(tile);
+    }
+    return count;
+  }
+
+  void remove(int tile, int module) {
+    int index = tile * wordsPerTile + module / 64;
+    long bit = 1L << (module % 64);
+    if ((words[index] & bit) != 0) {
+      if (trail != null) {
+        trail.save(tile);
+      }
+      if (weightSums != null) {
+        removeWeights(tile, module & ~63, bit);
+      }
+      words[index] &= ~bit;
+      entropy[tile]--;
+      if (entropy[tile] == 0 && trail != null) {
+        contradict(tile);
+      }
+    }
+  }
+
+  private void contradict(int tile) {
+    if (!contradiction) {
+      contradiction = true;
+      contradictionTile = tile;
+    }
+  }
+
+  void collapse(int tile, int module) {
+    if (trail != null) {
+      trail.save(tile);
+    }
+    int offset = tile * wordsPerTile;
+    Arrays.fill(words, offset, offset + wordsPerTile, 0L);
+    words[offset + module / 64] = 1L << (module % 64);
+    entropy[tile] = 1;
+    if (weightSums != null) {
+      weightSums[tile] = weights[module];
+      weightLogWeightSums[tile] = weightLogWeights[module];
+    }
+  }
+
+  /**
+   * Remembers the module a tile was pinned to, for when its class has other modules as well.
+   */
+  void pin(int tile, int module) {
+    if (classes.size(classes.classOf[module]) == 1) {
+      return;
+    }
+    if (pinnedModules == null) {
+      pinnedModules = new int[tileCount];
+      Arrays.fill(pinnedModules, -1);
+    }
+    pinnedModules[tile] = module;
+  }
+
+  /**
+   * Remembers which modules a constraint left a tile, given as the words of a set of modules, for when it leaves part
+   * of a class. Returns the modules that all constraints on the tile together leave it, including the module it was
+   * pinned to. The caller removes the classes without any of these from the tile.
+   */
+  long[] allow(int tile, long[] moduleWords) {
+    if (allowedModules == null) {
+      allowedModules = new long[tileCount][];
+    }
+    long[] allowed = allowedModules[tile];
+    if (allowed == null) {
+      allowed = moduleWords.clone();
+      allowedModules[tile] = allowed;
+    } else {
+      BitKernels.andCount(allowed, 0, moduleWords, 0, allowed.length);
+    }
+
+    int pinned = pinnedModules != null ? pinnedModules[tile] : -1;
+    if (pinned >= 0) {
+      long pinnedBit = allowed[pinned / 64] & (1L << (pinned % 64));
+      Arrays.fill(allowed, 0L);
+      allowed[pinned / 64] = pinnedBit;
+    }
+    return allowed;
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  /**
+   * Returns the module a tile that collapsed to the given class becomes.
+   */
+  int moduleOf(int tile, int moduleClass) {
+    if (classes == null) {
+      return moduleClass;
+    }
+    if (pinnedModules != null && pinnedModules[tile] >= 0 && classes.classOf[pinnedModules[tile]] == moduleClass) {
+      return pinnedModules[tile];
+    }
+
+    // SplitMix64 of the seed and the tile, so every tile expands on its own, whatever order the tiles collapse in
+    long bits = expansionSeed + (tile + 1) * 0x9e37_79b9_7f4a_7c15L;
+    bits = (bits ^ (bits >>> 30)) * 0xbf58_476d_1ce4_e5b9L;
+    bits = (bits ^ (bits >>> 27)) * 0x94d0_49bb_1331_11ebL;
+    bits ^= bits >>> 31;
+    long[] allowed = allowedModules != null ? allowedModules[tile] : null;
+    return allowed == null ? classes.pick(moduleClass, bits) : classes.pick(moduleClass, bits, allowed);
+  }
+
+  /**
+   * Returns whether the constraints on a tile leave it the given module, as far as its class doesn't tell.
+   */
+  boolean allowsModule(int tile, int module) {
+    long[] allowed = allowedModules != null ? allowedModules[tile] : null;
+    return allowed == null || (allowed[module / 64] & (1L << (module % 64))) != 0;
+  }
+
+  boolean hasPossibility(int tile, int module) {
+    return (words[tile * wordsPerTile + module / 64] & (1L << (module % 64))) != 0;
+  }
+
+  /**
+   * Returns the lowest possibility of the tile that is at least {@code fromIndex}, or -1 if there is none.
+   */
+  int nextPossibility(int tile, int fromIndex) {
+    if (fromIndex >= moduleCount) {
+      return -1;
+    }
+
+    int offset = tile * wordsPerTile;
+    int wordIndex = fromIndex / 64;
+    long word = words[offset + wordIndex] & (ALL_ONE << (fromIndex % 64));
+    while (word == 0) {
+      wordIndex++;
+      if (wordIndex == wordsPerTile) {
+        return -1;
+      }
+      word = words[offset + wordIndex];
+    }
+    return wordIndex * 64 + Long.numberOfTrailingZeros(word);
+  }
+
+  /**
+   * Returns the n-th possibility of the tile in ascending order.
+   */
+  int nthPossibility(int tile, int n) {
+    int offset = tile * wordsPerTile;
+    int remaining = n;
+    for (int i = 0; i < wordsPerTile; i++) {
+      long word = words[offset + i];
+      int count = Long.bitCount(word);
+      if (remaining < count) {
+        for (int j = 0; j < remaining; j++) {
+          word &= word - 1; // Unset lsb
+        }
+        return i * 64 + Long.numberOfTrailingZeros(word);
+      }
+      remaining -= count;
+    }
+    throw new IndexOutOfBoundsException("Possibility " + n + " out of bounds for entropy " + entropy[tile]);
+  }
+
+  // ===================================================================================================================
+  // GridView
+  // ===================================================================================================================
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getModuleCount() {
+    return classes == null ? moduleCount : classes.classOf.length;
+  }
+
+  @Override
+  public int getEntropy(int x, int y) {
+    int tile = x * height + y;
+    if (classes == null || entropy[tile] <= 1) {
+      return entropy[tile];
+    }
+    int modules = 0;
+    for (int c = nextPossibility(tile, 0); c >= 0; c = nextPossibility(tile, c + 1)) {
+      modules += classes.size(c);
+    }
+    return modules;
+  }
+
+  @Override
+  public boolean hasPossibility(int x, int y, int module) {
+    int tile = x * height + y;
+    if (classes == null) {
+      return hasPossibility(tile, module);
+    }
+    if (entropy[tile] == 1) {
+      return getModuleIndex(x, y) == module;
+    }
+    return hasPossibility(tile, classes.classOf[module]);
+  }
+
+  @Override
+  public int getModuleIndex(int x, int y) {
+    int tile = x * height + y;
+    return entropy[tile] == 1 ? moduleOf(tile, nextPossibility(tile, 0)) : -1;
+  }
+}
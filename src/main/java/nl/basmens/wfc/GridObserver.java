@@ -0,0 +1,159 @@
+package nl.basmens.wfc;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Follows the collapses of a {@link Wfc} from another thread, without slowing the solver down. The observer keeps its
+ * own copy of which module every tile collapsed to, and brings it up to date when {@link #update()} is called. In
+ * between updates the copy doesn't change, so it can be drawn or recorded without any locking.
+ *
+ * <p>
+ * The epoch counts the events the observer has caught up with. When the observer falls so far behind that the events
+ * it missed were overwritten, it copies the current state instead, and only reports the tiles that differ. An
+ * observer is meant to be used by one thread.
+ */
+public final class GridObserver {
+  // How many events are read before checking that the ring didn't wrap past them
+  private static final int BATCH_SIZE = 1024;
+
+  private final CollapseEventLog log;
+  private final int gridW;
+  private final int gridH;
+  private final int[] modules;
+  private final long[] batch = new long[BATCH_SIZE];
+  private long epoch;
+  private int collapsedCount;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  GridObserver(CollapseEventLog log, int gridW, int gridH) {
+    this.log = log;
+    this.gridW = gridW;
+    this.gridH = gridH;
+    this.modules = new int[log.getTileCount()];
+    Arrays.fill(modules, -1);
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Catches up with the solver. Returns whether any tile changed.
+   */
+  public boolean update() {
+    return update(null);
+  }
+
+  /**
+   * Catches up with the solver, and reports every tile that changed to the listener, which may be null.
+   */
+  public boolean update(CollapseListener listener) {
+    boolean changed = false;
+    while (true) {
+      long published = log.getSequence();
+      if (published == epoch) {
+        return changed;
+      }
+
+      if (published - epoch > log.getCapacity()) {
+        changed |= copyCurrentState(published, listener);
+        continue;
+      }
+
+      int count = (int) Math.min(BATCH_SIZE, published - epoch);
+      for (int i = 0; i < count; i++) {
+        batch[i] = log.getEvent(epoch + i);
+      }
+      // The slots must be read before the sequence is read again
+      VarHandle.acquireFence();
+      if (log.getSequence() - log.getCapacity() >= epoch) {
+        // The solver may have been writing over them while they were read, start over from the current state
+        changed |= copyCurrentState(log.getSequence(), listener);
+        continue;
+      }
+
+      for (int i = 0; i < count; i++) {
+        changed |= apply(batch[i], listener);
+      }
+      epoch += count;
+    }
+  }
+
+  /**
+   * Copies the module of every tile from the log, and continues with the events from the given sequence number. Events
+   * after it may already be visible in the copy, but applying them again ends in the same state, because every event
+   * sets a tile to a module instead of changing it.
+   */
+  private boolean copyCurrentState(long fromSequence, CollapseListener listener) {
+    boolean changed = false;
+    for (int tile = 0; tile < modules.length; tile++) {
+      changed |= set(tile, log.getModule(tile), listener);
+    }
+    epoch = fromSequence;
+    return changed;
+  }
+
+  private boolean apply(long event, CollapseListener listener) {
+    int tile = CollapseEventLog.tileOf(event);
+    if (tile != CollapseEventLog.RESET) {
+      return set(tile, CollapseEventLog.moduleOf(event), listener);
+    }
+
+    boolean changed = false;
+    for (int t = 0; t < modules.length; t++) {
+      changed |= set(t, -1, listener);
+    }
+    return changed;
+  }
+
+  private boolean set(int tile, int module, CollapseListener listener) {
+    int previous = modules[tile];
+    if (previous == module) {
+      return false;
+    }
+    modules[tile] = module;
+    collapsedCount += (module >= 0 ? 1 : 0) - (previous >= 0 ? 1 : 0);
+    if (listener != null) {
+      listener.tileChanged(tile / gridH, tile % gridH, module);
+    }
+    return true;
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  /**
+   * Returns how many events this observer has caught up with. It only grows, also across restarts.
+   */
+  public long getEpoch() {
+    return epoch;
+  }
+
+  public int getWidth() {
+    return gridW;
+  }
+
+  public int getHeight() {
+    return gridH;
+  }
+
+  /**
+   * Returns the module the tile had collapsed to at the last update, or -1.
+   */
+  public int getModuleIndex(int x, int y) {
+    return modules[x * gridH + y];
+  }
+
+  public boolean isCollapsed(int x, int y) {
+    return modules[x * gridH + y] >= 0;
+  }
+
+  /**
+   * Returns how many tiles had collapsed at the last update.
+   */
+  public int getCollapsedCount() {
+    return collapsedCount;
+  }
+}
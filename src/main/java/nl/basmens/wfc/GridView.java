@@ -0,0 +1,28 @@
+package nl.basmens.wfc;
+
+/**
+ * Read-only access to the tiles of a {@link Wfc} grid. Tiles are addressed by their x and y coordinate.
+ */
+public interface GridView {
+  int getWidth();
+
+  int getHeight();
+
+  int getModuleCount();
+
+  /**
+   * Returns the number of modules that are still possible for the tile.
+   */
+  int getEntropy(int x, int y);
+
+  boolean hasPossibility(int x, int y, int module);
+
+  default boolean isCollapsed(int x, int y) {
+    return getEntropy(x, y) == 1;
+  }
+
+  /**
+   * Returns the module the tile collapsed to, or -1 when it has not collapsed.
+   */
+  int getModuleIndex(int x, int y);
+}
@@ -0,0 +1,133 @@
+package nl.basmens.wfc;
+
+/**
+ * A grid of flat topped hexagons in columns, where every odd column is shifted down by half a hexagon. The directions
+ * are up, up right, down right, down, down left and up left, where up is towards y - 1.
+ */
+public final class HexTopology implements Topology {
+  public static final int UP = 0;
+  public static final int UP_RIGHT = 1;
+  public static final int DOWN_RIGHT = 2;
+  public static final int DOWN = 3;
+  public static final int DOWN_LEFT = 4;
+  public static final int UP_LEFT = 5;
+
+  private final int width;
+  private final int height;
+  private final boolean loopEdgesX;
+  private final boolean loopEdgesY;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  /**
+   * Creates the topology. When the edges loop in x the width must be even, or the columns at the seam wouldn't fit.
+   */
+  public HexTopology(int width, int height, boolean loopEdgesX, boolean loopEdgesY) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Grid size must be positive, got " + width + " by " + height);
+    }
+    if (loopEdgesX && width % 2 != 0) {
+      throw new IllegalArgumentException("A hex grid that loops in x needs an even width, got " + width);
+    }
+    this.width = width;
+    this.height = height;
+    this.loopEdgesX = loopEdgesX;
+    this.loopEdgesY = loopEdgesY;
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  @Override
+  public int neighbour(int tile, int direction) {
+    int x = tile / height;
+    int y = tile % height;
+    // The columns on either side of an odd column are higher up, those of an even column lower down
+    int shift = x % 2;
+
+    int nx;
+    int ny;
+    switch (direction) {
+      case UP -> {
+        nx = x;
+        ny = y - 1;
+      }
+      case UP_RIGHT -> {
+        nx = x + 1;
+        ny = y - 1 + shift;
+      }
+      case DOWN_RIGHT -> {
+        nx = x + 1;
+        ny = y + shift;
+      }
+      case DOWN -> {
+        nx = x;
+        ny = y + 1;
+      }
+      case DOWN_LEFT -> {
+        nx = x - 1;
+        ny = y + shift;
+      }
+      case UP_LEFT -> {
+        nx = x - 1;
+        ny = y - 1 + shift;
+      }
+      default -> throw new IllegalArgumentException("A hex grid has 6 directions, got " + direction);
+    }
+
+    if (nx < 0 || nx >= width) {
+      if (!loopEdgesX) {
+        return -1;
+      }
+      nx = Math.floorMod(nx, width);
+    }
+    if (ny < 0 || ny >= height) {
+      if (!loopEdgesY) {
+        return -1;
+      }
+      ny = Math.floorMod(ny, height);
+    }
+    return nx * height + ny;
+  }
+
+  // Equal topologies have the same neighbours, so they can share what was computed for one of them
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof HexTopology other && width == other.width && height == other.height
+        && loopEdgesX == other.loopEdgesX && loopEdgesY == other.loopEdgesY;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = width;
+    hash = 31 * hash + height;
+    return 31 * hash + ((loopEdgesX ? 1 : 0) | (loopEdgesY ? 2 : 0));
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getDirectionCount() {
+    return 6;
+  }
+
+  public boolean isLoopEdgesX() {
+    return loopEdgesX;
+  }
+
+  public boolean isLoopEdgesY() {
+    return loopEdgesY;
+  }
+}
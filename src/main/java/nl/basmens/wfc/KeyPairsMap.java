@@ -37,6 +37,14 @@ public class KeyPairsMap {
     return (Set<String>) pairs.get(key).clone();
   }
 
+  /**
+   * Interns the keys to dense ids and packs the pairs into a bit matrix, so rule tables can be built without looking up
+   * strings.
+   */
+  CompiledKeys compile() {
+    return new CompiledKeys(pairs);
+  }
+
   @SuppressWarnings("unchecked")
   public Map<String, HashSet<String>> getPairMap() {
     HashMap<String, HashSet<String>> result = new HashMap<>();
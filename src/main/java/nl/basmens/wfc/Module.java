@@ -1,26 +1,71 @@
 package nl.basmens.wfc;
 
+import java.util.Arrays;
+
 public class Module {
+  // The keys of a module for a square grid, null for a module with another number of sides
   public final String keyUp;
   public final String keyRight;
   public final String keyDown;
   public final String keyLeft;
 
+  // The key of every side, in the direction order of the topology
+  private final String[] keys;
+
   public final int[] rotations;
 
+  /**
+   * How likely this module is to be picked, relative to the other modules. Every rotation gets the full weight.
+   */
+  public final double weight;
+
   private Object childItem;
 
   public Module(String keyUp, String keyRight, String keyDown, String keyLeft, int[] rotations, Object childItem) {
-    this.keyUp = keyUp;
-    this.keyRight = keyRight;
-    this.keyDown = keyDown;
-    this.keyLeft = keyLeft;
+    this(keyUp, keyRight, keyDown, keyLeft, rotations, childItem, 1);
+  }
+
+  public Module(String keyUp, String keyRight, String keyDown, String keyLeft, int[] rotations, Object childItem,
+      double weight) {
+    this(new String[] { keyUp, keyRight, keyDown, keyLeft }, rotations, childItem, weight);
+  }
+
+  /**
+   * Creates a module for any {@link Topology}, with a key for every direction of it. Rotations are quarter turns, so
+   * only a module with 4 keys can have rotations other than 0.
+   */
+  public Module(String[] keys, int[] rotations, Object childItem, double weight) {
+    if (!(weight > 0) || Double.isInfinite(weight)) {
+      throw new IllegalArgumentException("Module weight must be positive and finite, got " + weight);
+    }
+    if (keys.length != 4 && Arrays.stream(rotations).anyMatch(rotation -> rotation % 4 != 0)) {
+      throw new IllegalArgumentException("Only modules with 4 keys can be rotated, got " + keys.length + " keys");
+    }
+
+    this.keys = keys.clone();
+    boolean isSquare = keys.length == 4;
+    this.keyUp = isSquare ? keys[0] : null;
+    this.keyRight = isSquare ? keys[1] : null;
+    this.keyDown = isSquare ? keys[2] : null;
+    this.keyLeft = isSquare ? keys[3] : null;
 
     this.rotations = rotations;
+    this.weight = weight;
 
     this.childItem = childItem;
   }
 
+  /**
+   * Returns the number of sides, which is the direction count of the topology the module is meant for.
+   */
+  public int getKeyCount() {
+    return keys.length;
+  }
+
+  public String getKey(int direction) {
+    return keys[direction];
+  }
+
   public Object getChildItem() {
     return childItem;
   }
@@ -0,0 +1,204 @@
+package nl.basmens.wfc;
+
+import java.util.Arrays;
+
+/**
+ * Groups the modules that have the same key on every side, such as the rotations of a symmetric module. Those get the
+ * same rows and columns in every possibleModules* table, so the solver can't tell them apart and only works on the
+ * classes. A tile that collapses to a class becomes one of its modules, picked by weight.
+ *
+ * <p>
+ * Classes are numbered in the order of their first module, so modules that are all different keep their own index.
+ */
+final class ModuleClasses {
+  final int count;
+  // The class of every module
+  final int[] classOf;
+  // The modules of every class, in ascending order
+  private final int[][] members;
+  // The sum of the weights of the modules of every class
+  private final double[] weights;
+  // Over the modules of every class, null for a class with one module or with modules of the same weight
+  private final AliasTable[] aliasTables;
+  private final double[][] memberWeights;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  ModuleClasses(Module[] modules) {
+    int moduleCount = modules.length;
+    classOf = new int[moduleCount];
+
+    // Sort the modules by their keys, so every class is one run of equal modules
+    Integer[] order = new Integer[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> compareKeys(modules[a], modules[b]));
+
+    int[] runOf = new int[moduleCount];
+    int runCount = 0;
+    for (int i = 0; i < moduleCount; i++) {
+      if (i > 0 && compareKeys(modules[order[i - 1]], modules[order[i]]) != 0) {
+        runCount++;
+      }
+      runOf[order[i]] = runCount;
+    }
+
+    int[] classOfRun = new int[runCount + 1];
+    Arrays.fill(classOfRun, -1);
+    int[] sizes = new int[moduleCount];
+    int classes = 0;
+    for (int i = 0; i < moduleCount; i++) {
+      int run = runOf[i];
+      if (classOfRun[run] < 0) {
+        classOfRun[run] = classes;
+        classes++;
+      }
+      classOf[i] = classOfRun[run];
+      sizes[classOf[i]]++;
+    }
+    count = classes;
+
+    members = new int[count][];
+    weights = new double[count];
+    aliasTables = new AliasTable[count];
+    memberWeights = new double[count][];
+    for (int c = 0; c < count; c++) {
+      members[c] = new int[sizes[c]];
+      memberWeights[c] = new double[sizes[c]];
+      sizes[c] = 0;
+    }
+    for (int i = 0; i < moduleCount; i++) {
+      int c = classOf[i];
+      members[c][sizes[c]] = i;
+      memberWeights[c][sizes[c]] = modules[i].weight;
+      sizes[c]++;
+      weights[c] += modules[i].weight;
+    }
+    for (int c = 0; c < count; c++) {
+      double[] w = memberWeights[c];
+      if (Arrays.stream(w).anyMatch(weight -> weight != w[0])) {
+        aliasTables[c] = new AliasTable(w);
+      }
+    }
+  }
+
+  private static int compareKeys(Module a, Module b) {
+    for (int side = 0; side < a.getKeyCount(); side++) {
+      int order = a.getKey(side).compareTo(b.getKey(side));
+      if (order != 0) {
+        return order;
+      }
+    }
+    return 0;
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Returns whether every module is a class of its own.
+   */
+  boolean isTrivial() {
+    return count == classOf.length;
+  }
+
+  /**
+   * Picks a module of the class by weight, from 64 random bits.
+   */
+  int pick(int moduleClass, long bits) {
+    int[] modules = members[moduleClass];
+    if (modules.length == 1) {
+      return modules[0];
+    }
+    int column = (int) (((bits >>> 32) * modules.length) >>> 32);
+    AliasTable aliasTable = aliasTables[moduleClass];
+    if (aliasTable == null) {
+      return modules[column];
+    }
+    return modules[aliasTable.sample(column, (bits & 0xffff_ffffL) * 0x1.0p-32)];
+  }
+
+  /**
+   * Picks a module of the class by weight, from 64 random bits, among the modules in the words of a set.
+   *
+   * @throws IllegalArgumentException when the set has none of the modules of the class
+   */
+  int pick(int moduleClass, long bits, long[] allowed) {
+    int[] modules = members[moduleClass];
+    double[] w = memberWeights[moduleClass];
+    double total = 0;
+    for (int i = 0; i < modules.length; i++) {
+      if (isSet(allowed, modules[i])) {
+        total += w[i];
+      }
+    }
+    if (total == 0) {
+      throw new IllegalArgumentException("None of the modules of class " + moduleClass + " is allowed");
+    }
+
+    double target = (bits >>> 11) * 0x1.0p-53 * total;
+    int module = -1;
+    for (int i = 0; i < modules.length; i++) {
+      if (isSet(allowed, modules[i])) {
+        module = modules[i];
+        target -= w[i];
+        if (target < 0) {
+          break;
+        }
+      }
+    }
+    return module;
+  }
+
+  /**
+   * Turns the words of a set of modules into the words of the classes that have at least one module in it.
+   */
+  long[] classesOf(long[] moduleWords) {
+    long[] classWords = new long[Grid.wordsFor(count)];
+    for (int i = 0; i < classOf.length; i++) {
+      if (isSet(moduleWords, i)) {
+        classWords[classOf[i] / 64] |= 1L << (classOf[i] % 64);
+      }
+    }
+    return classWords;
+  }
+
+  /**
+   * Returns whether the words of a set of modules hold either all or none of the modules of every class.
+   */
+  boolean isWhole(long[] moduleWords) {
+    for (int[] modules : members) {
+      boolean first = isSet(moduleWords, modules[0]);
+      for (int i = 1; i < modules.length; i++) {
+        if (isSet(moduleWords, modules[i]) != first) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSet(long[] words, int module) {
+    return (words[module / 64] & (1L << (module % 64))) != 0;
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  int first(int moduleClass) {
+    return members[moduleClass][0];
+  }
+
+  int size(int moduleClass) {
+    return members[moduleClass].length;
+  }
+
+  /**
+   * The summed weight of the modules of every class. Shared, so it must not be modified.
+   */
+  double[] weights() {
+    return weights;
+  }
+}
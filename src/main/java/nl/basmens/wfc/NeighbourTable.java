@@ -0,0 +1,64 @@
+package nl.basmens.wfc;
+
+/**
+ * Every neighbour of every tile of a {@link Topology}, looked up once so propagation only reads an array. The
+ * neighbour of a tile in direction d is at {@code tile * directionCount + d}, and -1 where an edge doesn't loop.
+ */
+final class NeighbourTable {
+  // The bits propagators pack a direction into, next to its tile
+  static final int DIRECTION_BITS = 3;
+  static final int MAX_DIRECTIONS = 1 << DIRECTION_BITS;
+
+  final int tileCount;
+  final int directionCount;
+  final int[] neighbours;
+  // The opposite of every direction
+  final int[] opposite;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  NeighbourTable(Topology topology) {
+    tileCount = topology.getTileCount();
+    directionCount = topology.getDirectionCount();
+    if (directionCount < 2 || directionCount > MAX_DIRECTIONS || directionCount % 2 != 0) {
+      throw new IllegalArgumentException("A topology needs an even number of directions up to " + MAX_DIRECTIONS
+          + ", got " + directionCount);
+    }
+    if (tileCount > Integer.MAX_VALUE >>> DIRECTION_BITS) {
+      throw new IllegalArgumentException("A grid can have at most " + (Integer.MAX_VALUE >>> DIRECTION_BITS)
+          + " tiles, got " + tileCount);
+    }
+
+    opposite = new int[directionCount];
+    for (int d = 0; d < directionCount; d++) {
+      opposite[d] = (d + directionCount / 2) % directionCount;
+    }
+
+    neighbours = new int[tileCount * directionCount];
+    for (int tile = 0; tile < tileCount; tile++) {
+      for (int d = 0; d < directionCount; d++) {
+        neighbours[tile * directionCount + d] = topology.neighbour(tile, d);
+      }
+    }
+
+    // Propagation relies on every link going both ways
+    for (int tile = 0; tile < tileCount; tile++) {
+      for (int d = 0; d < directionCount; d++) {
+        int neighbour = neighbours[tile * directionCount + d];
+        if (neighbour < -1 || neighbour >= tileCount
+            || (neighbour >= 0 && neighbours[neighbour * directionCount + opposite[d]] != tile)) {
+          throw new IllegalArgumentException("Tile " + neighbour + " in direction " + d + " of tile " + tile
+              + " doesn't have it as its neighbour in the opposite direction");
+        }
+      }
+    }
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  int neighbour(int tile, int direction) {
+    return neighbours[tile * directionCount + direction];
+  }
+}
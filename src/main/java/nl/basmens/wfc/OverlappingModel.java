@@ -0,0 +1,383 @@
+package nl.basmens.wfc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The overlapping model, which learns its modules from a sample image instead of taking hand made ones. Every N by N
+ * window of the sample is a pattern, weighted by how often it occurs, and two patterns may be neighbours when they
+ * overlap everywhere but in their outer row or column. Each pattern becomes a module whose keys name those overlaps, so
+ * {@link WfcFeatures} and {@link Wfc} solve the model like any other rule set. A tile shows the top left pixel of its
+ * pattern, which is the 1 by 1 image every module carries as its child item.
+ *
+ * <p>
+ * Extraction is a single scan per rotation or reflection of the sample. A rolling hash over the rows, and one over
+ * those row hashes down the columns, gives the hash of every window in constant time, and the windows are deduplicated
+ * in an open addressing table. A window is only compared pixel by pixel with the pattern that has the same hash.
+ */
+public final class OverlappingModel {
+  /**
+   * The number of variants of the sample: the four rotations, each also mirrored.
+   */
+  public static final int MAX_SYMMETRY = 8;
+
+  private static final long ROW_BASE = 0x9E3779B97F4A7C15L;
+  private static final long COLUMN_BASE = 0xC2B2AE3D27D4EB4FL;
+  private static final int INITIAL_TABLE_BITS = 10;
+
+  private final int patternSize;
+  // The pixels of every pattern, row by row, patternSize * patternSize of them per pattern
+  private int[] patterns;
+  private int[] frequencies;
+  private int patternCount;
+
+  // The open addressing table, a pattern index per slot or -1, with the hash of that pattern
+  private long[] slotHashes;
+  private int[] slotPatterns;
+  private int tableBits;
+  // The bits of the window hashes that are kept, so tests can make different windows collide
+  private final long hashMask;
+
+  // The keys of every pattern, indexed by direction
+  private final String[][] patternKeys;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  /**
+   * Extracts the patterns from a sample image.
+   *
+   * @param pixels        the ARGB pixels of the sample, row by row
+   * @param patternSize   the width and height of the patterns, N
+   * @param periodicInput whether windows wrap around the edges of the sample
+   * @param symmetry      how many variants of the sample are scanned, 1 for just the sample itself, 2 to add its
+   *                      mirror image and up to {@link #MAX_SYMMETRY} to add the rotations and their mirror images
+   */
+  public OverlappingModel(int[] pixels, int width, int height, int patternSize, boolean periodicInput, int symmetry) {
+    this(pixels, width, height, patternSize, periodicInput, symmetry, -1L);
+  }
+
+  /**
+   * Extracts the patterns with only the bits of the window hashes in the mask, where a mask of 0 gives every window
+   * the same hash.
+   */
+  OverlappingModel(int[] pixels, int width, int height, int patternSize, boolean periodicInput, int symmetry,
+      long hashMask) {
+    if (width < 1 || height < 1 || pixels.length != width * height) {
+      throw new IllegalArgumentException("Expected " + width + " by " + height + " pixels, got " + pixels.length);
+    }
+    if (patternSize < 1 || patternSize > width || patternSize > height) {
+      throw new IllegalArgumentException("Pattern size must be between 1 and the size of the sample, got "
+          + patternSize);
+    }
+    if (symmetry < 1 || symmetry > MAX_SYMMETRY) {
+      throw new IllegalArgumentException("Symmetry must be between 1 and " + MAX_SYMMETRY + ", got " + symmetry);
+    }
+
+    this.patternSize = patternSize;
+    this.hashMask = hashMask;
+    patterns = new int[64 * patternSize * patternSize];
+    frequencies = new int[64];
+    tableBits = INITIAL_TABLE_BITS;
+    slotHashes = new long[1 << tableBits];
+    slotPatterns = new int[1 << tableBits];
+    Arrays.fill(slotPatterns, -1);
+
+    // Variant s is the sample rotated s / 2 times, and mirrored when s is odd
+    int[] rotated = pixels;
+    int rotatedW = width;
+    int rotatedH = height;
+    for (int s = 0; s < symmetry; s++) {
+      if (s % 2 == 0) {
+        if (s > 0) {
+          rotated = rotate(rotated, rotatedW, rotatedH);
+          int swap = rotatedW;
+          rotatedW = rotatedH;
+          rotatedH = swap;
+        }
+        addWindows(rotated, rotatedW, rotatedH, periodicInput);
+      } else {
+        addWindows(mirror(rotated, rotatedW, rotatedH), rotatedW, rotatedH, periodicInput);
+      }
+    }
+
+    patterns = Arrays.copyOf(patterns, patternCount * patternSize * patternSize);
+    frequencies = Arrays.copyOf(frequencies, patternCount);
+    slotHashes = null;
+    slotPatterns = null;
+    patternKeys = createKeys();
+  }
+
+  /**
+   * Returns the image rotated a quarter turn clockwise.
+   */
+  private static int[] rotate(int[] image, int w, int h) {
+    int[] result = new int[image.length];
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        result[x * h + (h - 1 - y)] = image[y * w + x];
+      }
+    }
+    return result;
+  }
+
+  private static int[] mirror(int[] image, int w, int h) {
+    int[] result = new int[image.length];
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        result[y * w + (w - 1 - x)] = image[y * w + x];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds every window of the image to the patterns.
+   */
+  private void addWindows(int[] image, int w, int h, boolean periodicInput) {
+    int n = patternSize;
+    int countX = periodicInput ? w : w - n + 1;
+    int countY = periodicInput ? h : h - n + 1;
+
+    // The hash of the n pixels to the right of every window position, on every row
+    long rowPower = power(ROW_BASE, n - 1);
+    long[] rowHashes = new long[h * countX];
+    for (int y = 0; y < h; y++) {
+      int row = y * w;
+      long hash = 0;
+      for (int i = 0; i < n; i++) {
+        hash = hash * ROW_BASE + mix(image[row + i]);
+      }
+      rowHashes[y * countX] = hash;
+      for (int x = 1; x < countX; x++) {
+        int entering = x + n - 1;
+        if (entering >= w) {
+          entering -= w;
+        }
+        hash = (hash - mix(image[row + x - 1]) * rowPower) * ROW_BASE + mix(image[row + entering]);
+        rowHashes[y * countX + x] = hash;
+      }
+    }
+
+    // Roll the row hashes down every column, a row of windows at a time
+    long columnPower = power(COLUMN_BASE, n - 1);
+    long[] windowHashes = new long[countX];
+    for (int j = 0; j < n; j++) {
+      for (int x = 0; x < countX; x++) {
+        windowHashes[x] = windowHashes[x] * COLUMN_BASE + rowHashes[j * countX + x];
+      }
+    }
+    for (int y = 0; y < countY; y++) {
+      if (y > 0) {
+        int entering = y + n - 1;
+        if (entering >= h) {
+          entering -= h;
+        }
+        for (int x = 0; x < countX; x++) {
+          windowHashes[x] = (windowHashes[x] - rowHashes[(y - 1) * countX + x] * columnPower) * COLUMN_BASE
+              + rowHashes[entering * countX + x];
+        }
+      }
+      for (int x = 0; x < countX; x++) {
+        addWindow(windowHashes[x] & hashMask, image, w, h, x, y);
+      }
+    }
+  }
+
+  private void addWindow(long hash, int[] image, int w, int h, int x, int y) {
+    int mask = (1 << tableBits) - 1;
+    int slot = slotOf(hash);
+    while (slotPatterns[slot] >= 0) {
+      int pattern = slotPatterns[slot];
+      if (slotHashes[slot] == hash && matches(pattern, image, w, h, x, y)) {
+        frequencies[pattern]++;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    // A new pattern
+    int area = patternSize * patternSize;
+    if (patternCount == frequencies.length) {
+      patterns = Arrays.copyOf(patterns, patternCount * 2 * area);
+      frequencies = Arrays.copyOf(frequencies, patternCount * 2);
+    }
+    int offset = patternCount * area;
+    for (int j = 0; j < patternSize; j++) {
+      int row = wrap(y + j, h) * w;
+      for (int i = 0; i < patternSize; i++) {
+        patterns[offset + j * patternSize + i] = image[row + wrap(x + i, w)];
+      }
+    }
+    frequencies[patternCount] = 1;
+    slotHashes[slot] = hash;
+    slotPatterns[slot] = patternCount;
+    patternCount++;
+
+    // Keep the table at most half full
+    if (patternCount * 2 > mask) {
+      growTable();
+    }
+  }
+
+  private boolean matches(int pattern, int[] image, int w, int h, int x, int y) {
+    int offset = pattern * patternSize * patternSize;
+    for (int j = 0; j < patternSize; j++) {
+      int row = wrap(y + j, h) * w;
+      for (int i = 0; i < patternSize; i++) {
+        if (patterns[offset + j * patternSize + i] != image[row + wrap(x + i, w)]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private void growTable() {
+    long[] oldHashes = slotHashes;
+    int[] oldPatterns = slotPatterns;
+    tableBits++;
+    slotHashes = new long[1 << tableBits];
+    slotPatterns = new int[1 << tableBits];
+    Arrays.fill(slotPatterns, -1);
+
+    int mask = (1 << tableBits) - 1;
+    for (int i = 0; i < oldPatterns.length; i++) {
+      if (oldPatterns[i] >= 0) {
+        int slot = slotOf(oldHashes[i]);
+        while (slotPatterns[slot] >= 0) {
+          slot = (slot + 1) & mask;
+        }
+        slotHashes[slot] = oldHashes[i];
+        slotPatterns[slot] = oldPatterns[i];
+      }
+    }
+  }
+
+  private int slotOf(long hash) {
+    return (int) ((hash * 0x9E3779B97F4A7C15L) >>> (64 - tableBits));
+  }
+
+  private static int wrap(int coordinate, int size) {
+    return coordinate < size ? coordinate : coordinate - size;
+  }
+
+  private static long mix(int pixel) {
+    long z = ((pixel & 0xffff_ffffL) + 1) * 0xBF58476D1CE4E5B9L;
+    return z ^ (z >>> 31);
+  }
+
+  private static long power(long base, int exponent) {
+    long result = 1;
+    for (int i = 0; i < exponent; i++) {
+      result *= base;
+    }
+    return result;
+  }
+
+  /**
+   * Names the overlap on every side of every pattern. Patterns whose overlaps have the same pixels get the same key,
+   * and every key only pairs with itself.
+   */
+  private String[][] createKeys() {
+    int n = patternSize;
+    HashMap<String, String> horizontal = new HashMap<>();
+    HashMap<String, String> vertical = new HashMap<>();
+    String[][] keys = new String[4][patternCount];
+    for (int p = 0; p < patternCount; p++) {
+      keys[Direction.UP.ordinal()][p] = intern(vertical, "v", overlap(p, 0, 0, n, n - 1));
+      keys[Direction.RIGHT.ordinal()][p] = intern(horizontal, "h", overlap(p, 1, 0, n - 1, n));
+      keys[Direction.DOWN.ordinal()][p] = intern(vertical, "v", overlap(p, 0, 1, n, n - 1));
+      keys[Direction.LEFT.ordinal()][p] = intern(horizontal, "h", overlap(p, 0, 0, n - 1, n));
+    }
+    return keys;
+  }
+
+  private String overlap(int pattern, int x, int y, int w, int h) {
+    StringBuilder builder = new StringBuilder(w * h * 9);
+    int offset = pattern * patternSize * patternSize;
+    for (int j = y; j < y + h; j++) {
+      for (int i = x; i < x + w; i++) {
+        builder.append(Integer.toHexString(patterns[offset + j * patternSize + i])).append(',');
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String intern(HashMap<String, String> keys, String prefix, String overlap) {
+    return keys.computeIfAbsent(overlap, o -> prefix + keys.size());
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Returns a module per pattern, in the order of the patterns. Every module is weighted by how often its pattern
+   * occurs, and carries the top left pixel of its pattern as a 1 by 1 image.
+   */
+  public Module[] createModules() {
+    Module[] modules = new Module[patternCount];
+    for (int p = 0; p < patternCount; p++) {
+      modules[p] = new Module(patternKeys[0][p], patternKeys[1][p], patternKeys[2][p], patternKeys[3][p],
+          new int[] { 0 }, new int[] { getColor(p) }, frequencies[p]);
+    }
+    return modules;
+  }
+
+  /**
+   * Returns the key pairs that let two patterns neighbour each other when their overlaps match.
+   */
+  public KeyPairsMap createKeyPairs() {
+    KeyPairsMap keyPairsMap = new KeyPairsMap();
+    for (String[] keys : patternKeys) {
+      for (String key : keys) {
+        keyPairsMap.addPair(key, key);
+      }
+    }
+    return keyPairsMap;
+  }
+
+  /**
+   * Builds the features for the patterns. Module i is pattern i, and a {@link TileAtlas} with a tile size of 1 and
+   * {@code item -> (int[]) item} as its pixel function draws a grid at one pixel per tile.
+   */
+  public WfcFeatures createFeatures(boolean loopEdgesX, boolean loopEdgesY) {
+    WfcFeatures wfcFeatures = new WfcFeatures(createModules(), createKeyPairs());
+    wfcFeatures.setLoopEdgesEnabledX(loopEdgesX);
+    wfcFeatures.setLoopEdgesEnabledY(loopEdgesY);
+    return wfcFeatures;
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  public int getPatternSize() {
+    return patternSize;
+  }
+
+  public int getPatternCount() {
+    return patternCount;
+  }
+
+  /**
+   * Returns a copy of the pixels of a pattern, row by row.
+   */
+  public int[] getPattern(int pattern) {
+    int area = patternSize * patternSize;
+    return Arrays.copyOfRange(patterns, pattern * area, (pattern + 1) * area);
+  }
+
+  /**
+   * Returns how many windows of the sample, over all its variants, are this pattern.
+   */
+  public int getFrequency(int pattern) {
+    return frequencies[pattern];
+  }
+
+  /**
+   * Returns the top left pixel of a pattern, the colour of a tile that collapsed to it.
+   */
+  public int getColor(int pattern) {
+    return patterns[pattern * patternSize * patternSize];
+  }
+}
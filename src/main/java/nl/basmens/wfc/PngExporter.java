@@ -0,0 +1,356 @@
+package nl.basmens.wfc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a grid to a PNG image, one tile per module image from a {@link TileAtlas}, without needing a window or
+ * Processing. Tiles without a module, or without an image, are left in the background colour.
+ *
+ * <p>
+ * The image is produced in bands of a few rows of tiles, and each band is compressed on its own and written as soon
+ * as the bands before it are written. Only a few bands are in memory at any time, so the size of the image is not
+ * limited by the heap. With an executor, the bands are filled in and compressed in parallel.
+ */
+public final class PngExporter {
+  private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+  // Scanline filter that stores every byte as the difference with the byte of the pixel to its left
+  private static final int FILTER_SUB = 1;
+  private static final int BYTES_PER_PIXEL = 3;
+
+  private final TileAtlas atlas;
+
+  private int bandHeight = 4;
+  private int background = 0xff000000;
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private Executor executor;
+  private int maxBandsInFlight = Runtime.getRuntime().availableProcessors() * 2;
+
+  /**
+   * A compressed band, together with what is needed to combine its checksum with that of the other bands.
+   */
+  private record Band(byte[] deflated, long adler, long length) {
+  }
+
+  // ===================================================================================================================
+  // Constructor
+  // ===================================================================================================================
+  public PngExporter(TileAtlas atlas) {
+    this.atlas = atlas;
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  public void write(GridView grid, Path path) throws IOException {
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+      write(grid, out);
+    }
+  }
+
+  /**
+   * Writes the grid as a PNG image to the stream, and leaves the stream open.
+   */
+  public void write(GridView grid, OutputStream out) throws IOException {
+    int tileSize = atlas.getTileSize();
+    long width = (long) grid.getWidth() * tileSize;
+    long height = (long) grid.getHeight() * tileSize;
+    if (width > Integer.MAX_VALUE || height > Integer.MAX_VALUE || width * BYTES_PER_PIXEL + 1 > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("A grid of " + grid.getWidth() + "x" + grid.getHeight() + " tiles of "
+          + tileSize + " pixels is too large for a PNG image");
+    }
+
+    DataOutputStream data = new DataOutputStream(out);
+    data.write(SIGNATURE);
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream headerData = new DataOutputStream(header);
+    headerData.writeInt((int) width);
+    headerData.writeInt((int) height);
+    headerData.writeByte(8); // Bit depth
+    headerData.writeByte(2); // Colour type, RGB
+    headerData.writeByte(0); // Compression method
+    headerData.writeByte(0); // Filter method
+    headerData.writeByte(0); // No interlace
+    writeChunk(data, "IHDR", header.toByteArray(), 0, header.size());
+
+    byte[][] tiles = flattenTiles();
+    int bandCount = (grid.getHeight() + bandHeight - 1) / bandHeight;
+    ArrayDeque<Future<Band>> inFlight = new ArrayDeque<>();
+    long adler = 1;
+    int nextBand = 0;
+    // Without an executor the bands are encoded on this thread anyway, so there is no point in encoding ahead
+    int limit = executor == null ? 1 : Math.max(1, maxBandsInFlight);
+    try {
+      for (int band = 0; band < bandCount; band++) {
+        // Keep a few bands ahead of the one that is written next
+        while (nextBand < bandCount && inFlight.size() < limit) {
+          int firstTileY = nextBand * bandHeight;
+          int lastTileY = Math.min(grid.getHeight(), firstTileY + bandHeight);
+          boolean isLast = nextBand == bandCount - 1;
+          if (executor == null) {
+            inFlight.add(CompletableFuture.completedFuture(encodeBand(grid, tiles, firstTileY, lastTileY, isLast)));
+          } else {
+            inFlight.add(CompletableFuture.supplyAsync(
+                () -> encodeBand(grid, tiles, firstTileY, lastTileY, isLast), executor));
+          }
+          nextBand++;
+        }
+
+        Band encoded = await(inFlight.poll());
+        adler = combineAdler(adler, encoded.adler, encoded.length);
+
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(encoded.deflated.length + 6);
+        if (band == 0) {
+          // zlib header: deflate with a 32K window, default compression
+          idat.write(0x78);
+          idat.write(0x9c);
+        }
+        idat.write(encoded.deflated);
+        if (band == bandCount - 1) {
+          new DataOutputStream(idat).writeInt((int) adler);
+        }
+        writeChunk(data, "IDAT", idat.toByteArray(), 0, idat.size());
+      }
+    } finally {
+      for (Future<Band> future : inFlight) {
+        future.cancel(false);
+      }
+    }
+
+    writeChunk(data, "IEND", new byte[0], 0, 0);
+    data.flush();
+  }
+
+  /**
+   * Composes the tiles over the background once, as RGB rows, so filling in a band is a series of copies.
+   */
+  private byte[][] flattenTiles() {
+    int tileSize = atlas.getTileSize();
+    byte[][] flattened = new byte[atlas.getModuleCount()][];
+    for (int module = 0; module < flattened.length; module++) {
+      int[] argb = atlas.getTile(module);
+      if (argb == null) {
+        continue;
+      }
+      byte[] rgb = new byte[tileSize * tileSize * BYTES_PER_PIXEL];
+      for (int i = 0; i < argb.length; i++) {
+        int pixel = blend(argb[i], background);
+        rgb[i * 3] = (byte) (pixel >>> 16);
+        rgb[i * 3 + 1] = (byte) (pixel >>> 8);
+        rgb[i * 3 + 2] = (byte) pixel;
+      }
+      flattened[module] = rgb;
+    }
+    return flattened;
+  }
+
+  private static int blend(int argb, int background) {
+    int alpha = argb >>> 24;
+    if (alpha == 255) {
+      return argb;
+    }
+    int result = 0;
+    for (int shift = 0; shift <= 16; shift += 8) {
+      int channel = (argb >>> shift & 0xff) * alpha + (background >>> shift & 0xff) * (255 - alpha);
+      result |= (channel + 127) / 255 << shift;
+    }
+    return result;
+  }
+
+  /**
+   * Fills in the pixel rows of the tile rows from {@code firstTileY} up to {@code lastTileY}, filters and compresses
+   * them. Every band but the last ends with a sync flush, so the compressed bands can simply be written one after the
+   * other.
+   */
+  private Band encodeBand(GridView grid, byte[][] tiles, int firstTileY, int lastTileY, boolean isLast) {
+    int tileSize = atlas.getTileSize();
+    int gridW = grid.getWidth();
+    int rowLength = gridW * tileSize * BYTES_PER_PIXEL;
+    int tileRowLength = tileSize * BYTES_PER_PIXEL;
+
+    byte[] backgroundRow = new byte[tileRowLength];
+    for (int i = 0; i < tileSize; i++) {
+      backgroundRow[i * 3] = (byte) (background >>> 16);
+      backgroundRow[i * 3 + 1] = (byte) (background >>> 8);
+      backgroundRow[i * 3 + 2] = (byte) background;
+    }
+
+    byte[] row = new byte[rowLength];
+    byte[] filtered = new byte[rowLength + 1];
+    byte[] buffer = new byte[Math.max(1024, rowLength / 2)];
+    ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+    Adler32 adler = new Adler32();
+    Deflater deflater = new Deflater(compressionLevel, true);
+    try {
+      for (int tileY = firstTileY; tileY < lastTileY; tileY++) {
+        for (int pixelY = 0; pixelY < tileSize; pixelY++) {
+          for (int tileX = 0; tileX < gridW; tileX++) {
+            int module = grid.getModuleIndex(tileX, tileY);
+            byte[] tile = module >= 0 ? tiles[module] : null;
+            if (tile == null) {
+              System.arraycopy(backgroundRow, 0, row, tileX * tileRowLength, tileRowLength);
+            } else {
+              System.arraycopy(tile, pixelY * tileRowLength, row, tileX * tileRowLength, tileRowLength);
+            }
+          }
+
+          filtered[0] = FILTER_SUB;
+          System.arraycopy(row, 0, filtered, 1, BYTES_PER_PIXEL);
+          for (int i = BYTES_PER_PIXEL; i < rowLength; i++) {
+            filtered[i + 1] = (byte) (row[i] - row[i - BYTES_PER_PIXEL]);
+          }
+          adler.update(filtered);
+
+          deflater.setInput(filtered);
+          while (!deflater.needsInput()) {
+            int count = deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH);
+            deflated.write(buffer, 0, count);
+          }
+        }
+      }
+
+      if (isLast) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          int count = deflater.deflate(buffer);
+          deflated.write(buffer, 0, count);
+        }
+      } else {
+        int count;
+        do {
+          count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          deflated.write(buffer, 0, count);
+        } while (count == buffer.length);
+      }
+    } finally {
+      deflater.end();
+    }
+
+    long length = (long) (lastTileY - firstTileY) * tileSize * (rowLength + 1);
+    return new Band(deflated.toByteArray(), adler.getValue(), length);
+  }
+
+  /**
+   * Returns the Adler-32 checksum of two pieces of data after each other, from the checksums of both pieces and the
+   * length of the second one, like zlib's adler32_combine.
+   */
+  private static long combineAdler(long adler1, long adler2, long length2) {
+    final long base = 65521;
+    long remainder = length2 % base;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = remainder * sum1 % base;
+    sum1 += (adler2 & 0xffff) + base - 1;
+    sum2 += (adler1 >>> 16 & 0xffff) + (adler2 >>> 16 & 0xffff) + base - remainder;
+    sum1 %= base;
+    sum2 %= base;
+    return sum2 << 16 | sum1;
+  }
+
+  private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length)
+      throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, offset, length);
+
+    out.writeInt(length);
+    out.write(typeBytes);
+    out.write(data, offset, length);
+    out.writeInt((int) crc.getValue());
+  }
+
+  private static Band await(Future<Band> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IOException("Could not encode a band of the image", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while encoding the image");
+    }
+  }
+
+  // ===================================================================================================================
+  // Getters and Setters
+  // ===================================================================================================================
+  public TileAtlas getAtlas() {
+    return atlas;
+  }
+
+  public int getBandHeight() {
+    return bandHeight;
+  }
+
+  /**
+   * Sets how many rows of tiles go in one band. Bigger bands compress a bit better, but take more memory.
+   */
+  public void setBandHeight(int bandHeight) {
+    if (bandHeight < 1) {
+      throw new IllegalArgumentException("Band height must be positive, got " + bandHeight);
+    }
+    this.bandHeight = bandHeight;
+  }
+
+  public int getBackground() {
+    return background;
+  }
+
+  /**
+   * Sets the colour of empty tiles, and behind transparent pixels, as ARGB. Its alpha is ignored.
+   */
+  public void setBackground(int background) {
+    this.background = background | 0xff000000;
+  }
+
+  public int getCompressionLevel() {
+    return compressionLevel;
+  }
+
+  /**
+   * Sets the compression level from 0 to 9, see {@link Deflater}.
+   */
+  public void setCompressionLevel(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Sets the executor that encodes bands in parallel, or null to encode them on the calling thread.
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  public int getMaxBandsInFlight() {
+    return maxBandsInFlight;
+  }
+
+  /**
+   * Sets how many bands may be encoded ahead of the one that is written next, which bounds the memory that is used.
+   */
+  public void setMaxBandsInFlight(int maxBandsInFlight) {
+    this.maxBandsInFlight = maxBandsInFlight;
+  }
+}
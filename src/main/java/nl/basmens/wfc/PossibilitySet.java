@@ -14,60 +14,74 @@ public final class PossibilitySet {
   private boolean isPossibilitiesAsArrayUpdated;
   private int[] possibilitiesAsArray;
 
+  private boolean isFrozen;
+
   // ===================================================================================================================
   // Construction
   // ===================================================================================================================
   public PossibilitySet(int possibilitiesCount, boolean value) {
     this.possibilitiesCount = possibilitiesCount;
-    this.possibilitiesArray = new long[possibilitiesCount / 64 + 1];
+    this.possibilitiesArray = new long[Math.max(1, Grid.wordsFor(possibilitiesCount))];
 
     for (int i = 0; i < possibilitiesArray.length; i++) {
       possibilitiesArray[i] = value ? ALL_ONE : 0;
     }
 
-    removeTrailingOnesLong = ALL_ONE >>> (64 - possibilitiesCount % 64);
+    removeTrailingOnesLong = lastWordMask(possibilitiesCount);
     int index = possibilitiesArray.length - 1;
     possibilitiesArray[index] = possibilitiesArray[index] & removeTrailingOnesLong;
   }
   
+  /**
+   * Copies a set from {@link Grid#wordsFor(int)} words of a packed table, starting at the given offset.
+   */
+  PossibilitySet(int possibilitiesCount, long[] words, int offset) {
+    this(possibilitiesCount, false);
+    System.arraycopy(words, offset, possibilitiesArray, 0, Grid.wordsFor(possibilitiesCount));
+  }
+
   public PossibilitySet(PossibilitySet toClone) {
     this.possibilitiesCount = toClone.getPossibilitiesCount();
     this.possibilitiesArray = toClone.getPossibilitiesAsBinary();
     
-    removeTrailingOnesLong = ALL_ONE >>> (64 - possibilitiesCount % 64);
+    removeTrailingOnesLong = lastWordMask(possibilitiesCount);
+  }
+
+  /**
+   * Returns the bits of the last word that are possibilities. A shift by 64 is a shift by 0 in Java, so a count that
+   * is a multiple of 64 needs its own case.
+   */
+  private static long lastWordMask(int possibilitiesCount) {
+    if (possibilitiesCount == 0) {
+      return 0;
+    }
+    return possibilitiesCount % 64 == 0 ? ALL_ONE : ALL_ONE >>> (64 - possibilitiesCount % 64);
   }
 
   // ===================================================================================================================
   // Functionality
   // ===================================================================================================================
   private void calculateEntropy() {
-    entropy = 0;
-    for (int i = 0; i < possibilitiesArray.length; i++) {
-      long value = possibilitiesArray[i];
-      while (value != 0) {
-        value &= value - 1; // Unset lsb
-        entropy++;
-      }
-    }
+    entropy = BitKernels.count(possibilitiesArray, 0, possibilitiesArray.length);
     isEntropyUpdated = true;
   }
 
   public void calculatePossibilitiesAsArray() {
-    possibilitiesAsArray = new int[getEntropy()];
-    int index = 0;
+    if (isFrozen) {
+      // Already calculated by freeze(), and shared sets must not be written to
+      return;
+    }
 
-    if (possibilitiesAsArray.length > 0) {
-      for (int i = 0; i < possibilitiesArray.length; i++) {
-        long value = possibilitiesArray[i];
-  
-        for (int j = 0; j < 64 && value != 0; j++) {
-          if ((value & 1L) == 1) {
-            possibilitiesAsArray[index] = i * 64 + j;
-            index++;
-          }
-          value >>>= 1;
-        }
-      }
+    // Reuse the previous array when the size still fits, the cache is refreshed often for tiles that are being drawn
+    int size = getEntropy();
+    if (possibilitiesAsArray == null || possibilitiesAsArray.length != size) {
+      possibilitiesAsArray = new int[size];
+    }
+
+    int index = 0;
+    for (int i = nextPossibility(0); i >= 0; i = nextPossibility(i + 1)) {
+      possibilitiesAsArray[index] = i;
+      index++;
     }
 
     isPossibilitiesAsArrayUpdated = true;
@@ -77,6 +91,7 @@ public final class PossibilitySet {
   // Operations
   // ===================================================================================================================
   public void addPossibility(int index) {
+    checkNotFrozen();
     if (index >= possibilitiesCount || hasPossibility(index)) {
       return;
     }
@@ -88,6 +103,7 @@ public final class PossibilitySet {
   }
 
   public void removePossibility(int index) {
+    checkNotFrozen();
     if (index >= possibilitiesCount  || !hasPossibility(index)) {
       return;
     }
@@ -99,11 +115,11 @@ public final class PossibilitySet {
   }
 
   public PossibilitySet unionWith(PossibilitySet set) {
-    long[] values = set.getPossibilitiesAsBinary();
+    checkNotFrozen();
+    long[] values = set.possibilitiesArray;
 
-    for (int i = 0; i <= Math.max(possibilitiesCount, set.getPossibilitiesCount()) / 64; i++) {
-      possibilitiesArray[i] = possibilitiesArray[i] | values[i];
-    }
+    int length = Math.min(possibilitiesArray.length, values.length);
+    BitKernels.or(possibilitiesArray, 0, values, 0, length);
 
     int index = possibilitiesArray.length - 1;
     possibilitiesArray[index] = possibilitiesArray[index] & removeTrailingOnesLong;
@@ -114,31 +130,66 @@ public final class PossibilitySet {
   }
 
   public PossibilitySet intersectionWith(PossibilitySet set) {
-    long[] values = set.getPossibilitiesAsBinary();
+    checkNotFrozen();
+    long[] values = set.possibilitiesArray;
 
-    for (int i = 0; i <= Math.max(possibilitiesCount, set.getPossibilitiesCount()) / 64; i++) {
-      possibilitiesArray[i] = possibilitiesArray[i] & values[i];
+    int length = Math.min(possibilitiesArray.length, values.length);
+    entropy = BitKernels.andCount(possibilitiesArray, 0, values, 0, length);
+    for (int i = length; i < possibilitiesArray.length; i++) {
+      possibilitiesArray[i] = 0L;
     }
 
-    isEntropyUpdated = false;
+    isEntropyUpdated = true;
     isPossibilitiesAsArrayUpdated = false;
     return this;
   }
 
+  public void clear() {
+    checkNotFrozen();
+    for (int i = 0; i < possibilitiesArray.length; i++) {
+      possibilitiesArray[i] = 0L;
+    }
+    entropy = 0;
+    isEntropyUpdated = true;
+    isPossibilitiesAsArrayUpdated = false;
+  }
+
   public void collapse(int index) {
+    checkNotFrozen();
     for (int i = 0; i < possibilitiesArray.length; i++) {
       possibilitiesArray[i] = 0L;
     }
-    addPossibility(index);
+    possibilitiesArray[index / 64] = 1L << (index % 64);
     entropy = 1;
     isEntropyUpdated = true;
-    possibilitiesAsArray = new int[]{index};
-    isPossibilitiesAsArrayUpdated = true;
+    isPossibilitiesAsArrayUpdated = false;
+  }
+
+  /**
+   * Makes this set read-only, so it can be shared between threads. Everything that is calculated lazily is calculated
+   * now, after which every operation that would change the set throws an {@link UnsupportedOperationException}.
+   */
+  void freeze() {
+    getEntropy();
+    if (!isPossibilitiesAsArrayUpdated) {
+      calculatePossibilitiesAsArray();
+    }
+    isFrozen = true;
+  }
+
+  private void checkNotFrozen() {
+    if (isFrozen) {
+      throw new UnsupportedOperationException("This PossibilitySet is frozen");
+    }
   }
 
   // ===================================================================================================================
   // Getters
   // ===================================================================================================================
+  public boolean isFrozen() {
+    return isFrozen;
+  }
+
   public boolean hasPossibility(int index) {
     if (index >= possibilitiesCount) {
       return false;
@@ -149,6 +200,47 @@ public final class PossibilitySet {
     return ((possibilities >>> index) & 1L) == 1L;
   }
 
+  /**
+   * Returns the lowest possibility that is at least {@code fromIndex}, or -1 if there is none. Iterate over all
+   * possibilities without allocating with {@code for (int i = set.nextPossibility(0); i >= 0; i =
+   * set.nextPossibility(i + 1))}.
+   */
+  public int nextPossibility(int fromIndex) {
+    if (fromIndex >= possibilitiesCount) {
+      return -1;
+    }
+
+    int wordIndex = fromIndex / 64;
+    long word = possibilitiesArray[wordIndex] & (ALL_ONE << (fromIndex % 64));
+    while (word == 0) {
+      wordIndex++;
+      if (wordIndex == possibilitiesArray.length) {
+        return -1;
+      }
+      word = possibilitiesArray[wordIndex];
+    }
+    return wordIndex * 64 + Long.numberOfTrailingZeros(word);
+  }
+
+  /**
+   * Returns the n-th possibility in ascending order, the same as {@code getPossibilitiesAsArray()[n]}.
+   */
+  public int getNthPossibility(int n) {
+    int remaining = n;
+    for (int i = 0; i < possibilitiesArray.length; i++) {
+      long word = possibilitiesArray[i];
+      int count = Long.bitCount(word);
+      if (remaining < count) {
+        for (int j = 0; j < remaining; j++) {
+          word &= word - 1; // Unset lsb
+        }
+        return i * 64 + Long.numberOfTrailingZeros(word);
+      }
+      remaining -= count;
+    }
+    throw new IndexOutOfBoundsException("Possibility " + n + " out of bounds for entropy " + getEntropy());
+  }
+
   public int[] getPossibilitiesAsArray() {
     if (!isPossibilitiesAsArrayUpdated) {
       calculatePossibilitiesAsArray();
@@ -160,6 +252,13 @@ public final class PossibilitySet {
     return possibilitiesArray.clone();
   }
 
+  /**
+   * The backing words without a copy, for the propagators. They must not be modified through this.
+   */
+  long[] words() {
+    return possibilitiesArray;
+  }
+
   public int getPossibilitiesCount() {
     return possibilitiesCount;
   }
@@ -0,0 +1,20 @@
+package nl.basmens.wfc;
+
+/**
+ * The ways a {@link Wfc} can propagate constraints. Both engines produce the same grid for a given seed, they only
+ * differ in speed.
+ */
+public enum PropagationEngine {
+  /**
+   * Recomputes the union of allowed modules over the whole neighbour every time a tile is revisited. Cheap to set up
+   * and fastest for rule sets with few modules. Rule sets of at most 64 modules automatically get a version that keeps
+   * every tile in a single word and looks the union up per byte.
+   */
+  CLASSIC,
+
+  /**
+   * AC-4 style: keeps a support counter per tile, direction and module, so removing a module only touches the modules
+   * it supported. Pays off for rule sets with many modules, at the cost of 16 bytes per tile per module.
+   */
+  SUPPORT_COUNTING
+}
@@ -0,0 +1,75 @@
+package nl.basmens.wfc;
+
+/**
+ * The pending updates of the classic propagators. Every tile is listed at most once, with a bit for each direction it
+ * still has to be constrained by, so an update that is asked for again before it ran is merged into the one that is
+ * already waiting. That also bounds the list to the number of tiles.
+ *
+ * <p>
+ * Updates come out as {@code tile << DIRECTION_BITS | direction}. The tile on top is taken one direction at a time and
+ * leaves the list with its last one, so a contradiction never drops the directions that were not taken yet.
+ */
+final class PropagationWorklist {
+  private static final int DIRECTION_BITS = NeighbourTable.DIRECTION_BITS;
+  // The directions of a tile are a bit each in a byte
+  static final int MAX_DIRECTIONS = Byte.SIZE;
+
+  private final int[] tiles;
+  private int size;
+  // The directions every tile is waiting for, 0 for a tile that isn't listed
+  private final byte[] directions;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  PropagationWorklist(int tileCount, int directionCount) {
+    if (directionCount > MAX_DIRECTIONS || directionCount > 1 << DIRECTION_BITS) {
+      throw new IllegalArgumentException("The worklist holds at most " + Math.min(MAX_DIRECTIONS, 1 << DIRECTION_BITS)
+          + " directions per tile, got " + directionCount);
+    }
+    tiles = new int[tileCount];
+    directions = new byte[tileCount];
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Schedules the update of a tile by its neighbour in the given direction, and returns how many tiles are waiting.
+   */
+  int push(int tile, int direction) {
+    int waiting = directions[tile] & 0xff;
+    if (waiting == 0) {
+      tiles[size] = tile;
+      size++;
+    }
+    directions[tile] = (byte) (waiting | 1 << direction);
+    return size;
+  }
+
+  /**
+   * Takes the next update. The list must not be empty.
+   */
+  int pop() {
+    int tile = tiles[size - 1];
+    int waiting = directions[tile] & 0xff;
+    int direction = Integer.numberOfTrailingZeros(waiting);
+    waiting &= waiting - 1;
+    directions[tile] = (byte) waiting;
+    if (waiting == 0) {
+      size--;
+    }
+    return tile << DIRECTION_BITS | direction;
+  }
+
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      directions[tiles[i]] = 0;
+    }
+    size = 0;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+}
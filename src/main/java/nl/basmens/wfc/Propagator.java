@@ -0,0 +1,51 @@
+package nl.basmens.wfc;
+
+/**
+ * Removes the possibilities that are no longer supported by their neighbours. Entropy changes are reported back to the
+ * {@link Wfc} through {@link Wfc#tileChanged(int, int)}, which applies them to the tile selector once propagation is
+ * done.
+ */
+interface Propagator {
+  /**
+   * Schedules the propagation of a freshly created, fully open grid.
+   */
+  void initialise();
+
+  /**
+   * Takes over a grid that was restored to the state {@link #initialise()} propagates to, instead of initialising. The
+   * argument is what {@link #saveInitialState()} returned on a grid in that state.
+   */
+  void restoreInitialState(int[] state);
+
+  /**
+   * Returns what this propagator keeps besides the grid, right after {@link #initialise()} was propagated, or null when
+   * it keeps nothing.
+   */
+  int[] saveInitialState();
+
+  /**
+   * Collapses a tile to the given module and schedules the propagation of everything that removed. The tile has already
+   * been taken out of the tile selector.
+   */
+  void collapse(int tile, int module);
+
+  /**
+   * Schedules the propagation of possibilities that were removed from a tile by something other than the propagator.
+   */
+  void removed(int tile);
+
+  /**
+   * Propagates until nothing changes anymore, or until the grid reports a contradiction.
+   */
+  void propagate();
+
+  /**
+   * Drops all pending work, after a contradiction.
+   */
+  void clear();
+
+  /**
+   * Called after backtracking restored the tiles listed in {@code tiles[from]} up to {@code tiles[to]}.
+   */
+  void restored(int[] tiles, int from, int to);
+}
@@ -0,0 +1,47 @@
+package nl.basmens.wfc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event that spans a whole run of a {@link Wfc}, from when it begins until it finishes, is
+ * cancelled or times out. The pauses of a run that is stepped are part of it.
+ */
+@Name("nl.basmens.wfc.Run")
+@Label("WFC Run")
+@Category("Wave Function Collapse")
+@Description("A complete run of the wave function collapse solver")
+final class RunEvent extends Event {
+  @Label("Width")
+  int width;
+
+  @Label("Height")
+  int height;
+
+  @Label("Modules")
+  int modules;
+
+  @Label("Propagation Engine")
+  String engine;
+
+  @Label("Status")
+  String status;
+
+  @Label("Collapses")
+  long collapses;
+
+  @Label("Contradictions")
+  long contradictions;
+
+  @Label("Backtracks")
+  long backtracks;
+
+  @Label("Restarts")
+  int restarts;
+
+  @Label("Tile Updates")
+  long tileUpdates;
+}
@@ -0,0 +1,27 @@
+package nl.basmens.wfc;
+
+/**
+ * Where a run of a {@link Wfc} stands when {@link Wfc#step(int)} or {@link Wfc#runFor(java.time.Duration)} returns.
+ */
+public enum RunStatus {
+  /**
+   * There are tiles left to collapse. The next call carries on where this one stopped.
+   */
+  RUNNING,
+
+  /**
+   * Every tile is collapsed, or left without possibilities when backtracking gave up.
+   */
+  FINISHED,
+
+  /**
+   * The run was stopped by {@link Wfc#cancel()}. The tiles it didn't get to are left as they were.
+   */
+  CANCELLED,
+
+  /**
+   * The run took longer than the time limit set with {@link Wfc#setTimeLimit(java.time.Duration)}. The tiles it didn't
+   * get to are left as they were.
+   */
+  TIMED_OUT
+}
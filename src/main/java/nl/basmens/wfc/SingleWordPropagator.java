@@ -0,0 +1,171 @@
+package nl.basmens.wfc;
+
+/**
+ * The {@link ClassicPropagator} for rule sets of at most 64 modules, where every tile is a single word. It visits the
+ * tiles in exactly the same order, so it produces the same grids, but it never loops over words or rows: the union of
+ * everything a neighbour allows is put together from one precomputed mask per byte of the neighbour.
+ */
+final class SingleWordPropagator implements Propagator {
+  static final int MAX_MODULES = 64;
+  private static final int DIRECTION_BITS = NeighbourTable.DIRECTION_BITS;
+  private static final int DIRECTION_MASK = (1 << DIRECTION_BITS) - 1;
+
+  private final Wfc wfc;
+  private final Grid grid;
+  private final SolverCounters counters;
+  private final int[] neighbours;
+  private final int directionCount;
+  private final int[] opposite;
+  private final long[] words;
+  private final int[] entropy;
+  // byteMasks[d][b * 256 + v] is the union of the rows of table d for the modules set in v, shifted to byte b
+  private final long[][] byteMasks;
+  private final int bytesPerTile;
+
+  // Pending updates, merged per tile
+  private final PropagationWorklist worklist;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  SingleWordPropagator(Wfc wfc, Grid grid, NeighbourTable neighbourTable, long[][] possibleModules,
+      SolverCounters counters) {
+    if (grid.moduleCount > MAX_MODULES) {
+      throw new IllegalArgumentException("At most " + MAX_MODULES + " modules fit in a word, got " + grid.moduleCount);
+    }
+    this.wfc = wfc;
+    this.grid = grid;
+    this.counters = counters;
+    this.neighbours = neighbourTable.neighbours;
+    this.directionCount = neighbourTable.directionCount;
+    this.opposite = neighbourTable.opposite;
+    this.worklist = new PropagationWorklist(grid.tileCount, directionCount);
+    this.words = grid.words;
+    this.entropy = grid.entropy;
+    this.bytesPerTile = (grid.moduleCount + 7) / 8;
+
+    byteMasks = new long[directionCount][];
+    for (int side = 0; side < directionCount; side++) {
+      long[] table = possibleModules[side];
+      long[] masks = new long[bytesPerTile * 256];
+      for (int b = 0; b < bytesPerTile; b++) {
+        for (int v = 1; v < 256; v++) {
+          // Every value is a smaller one plus its lowest bit
+          int module = b * 8 + Integer.numberOfTrailingZeros(v);
+          long row = module < grid.moduleCount ? table[module] : 0;
+          masks[b * 256 + v] = masks[b * 256 + (v & (v - 1))] | row;
+        }
+      }
+      byteMasks[side] = masks;
+    }
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  @Override
+  public void initialise() {
+    for (int tile = 0; tile < grid.tileCount; tile++) {
+      for (int d = 0; d < directionCount; d++) {
+        updateTile(tile, d);
+      }
+    }
+  }
+
+  @Override
+  public void restoreInitialState(int[] state) {
+    // Nothing but the grid itself to restore
+  }
+
+  @Override
+  public int[] saveInitialState() {
+    return null;
+  }
+
+  @Override
+  public void collapse(int tile, int module) {
+    grid.collapse(tile, module);
+
+    // Every neighbour is constrained by this tile, which lies in the opposite direction of it
+    for (int d = 0; d < directionCount; d++) {
+      update(neighbours[tile * directionCount + opposite[d]], d);
+    }
+  }
+
+  @Override
+  public void removed(int tile) {
+    for (int d = 0; d < directionCount; d++) {
+      int neighbour = neighbours[tile * directionCount + d];
+      if (neighbour >= 0) {
+        push(neighbour, opposite[d]);
+      }
+    }
+  }
+
+  @Override
+  public void propagate() {
+    while (!worklist.isEmpty() && !grid.contradiction) {
+      int packed = worklist.pop();
+      updateTile(packed >>> DIRECTION_BITS, packed & DIRECTION_MASK);
+    }
+  }
+
+  @Override
+  public void clear() {
+    worklist.clear();
+  }
+
+  @Override
+  public void restored(int[] tiles, int from, int to) {
+    // Nothing but the grid itself to restore
+  }
+
+  private void update(int tile, int direction) {
+    if (tile >= 0) {
+      updateTile(tile, direction);
+    }
+  }
+
+  /**
+   * Constrains a tile by its neighbour in the given direction.
+   */
+  private void updateTile(int tile, int direction) {
+    // Collapsed tiles are still checked, two of them can become incompatible when they collapse in the same wave
+    int startEntropy = entropy[tile];
+    if (startEntropy == 0) {
+      return;
+    }
+    int neighbour = neighbours[tile * directionCount + direction];
+    if (neighbour < 0) {
+      return;
+    }
+    counters.tileUpdates++;
+
+    long[] masks = byteMasks[opposite[direction]];
+    long word = words[neighbour];
+    long allowed = 0;
+    for (int b = 0; b < bytesPerTile; b++) {
+      allowed |= masks[b * 256 + (int) (word >>> (b * 8) & 0xff)];
+    }
+
+    if (grid.intersectWord(tile, allowed) < startEntropy) {
+      counters.reducingTileUpdates++;
+      wfc.tileChanged(tile, startEntropy);
+
+      // Revisit every other neighbour, it has to be constrained by this tile again
+      int offset = tile * directionCount;
+      for (int d = 0; d < directionCount; d++) {
+        if (d != direction) {
+          int other = neighbours[offset + d];
+          if (other >= 0) {
+            push(other, opposite[d]);
+          }
+        }
+      }
+    }
+  }
+
+  private void push(int tile, int direction) {
+    counters.pending(worklist.push(tile, direction));
+  }
+}
@@ -0,0 +1,121 @@
+package nl.basmens.wfc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The counters behind {@link WfcMetrics}. The solver thread counts in plain fields, which costs next to nothing, and
+ * copies them to an atomic array with {@link #publish()} once per step. Other threads only read that copy, so they see
+ * the counts as of the last step.
+ */
+final class SolverCounters {
+  private static final int TILE_UPDATES = 0;
+  private static final int REDUCING_TILE_UPDATES = 1;
+  private static final int MAX_PENDING_UPDATES = 2;
+  private static final int COLLAPSES = 3;
+  private static final int CONTRADICTIONS = 4;
+  private static final int BACKTRACKS = 5;
+  private static final int RESTARTS = 6;
+  private static final int INITIAL_PROPAGATION_NANOS = 7;
+  private static final int RUN_START_NANOS = 8;
+  private static final int RUN_END_NANOS = 9;
+  private static final int PAUSED_NANOS = 10;
+  private static final int PAUSE_START_NANOS = 11;
+  private static final int COUNT = 12;
+
+  // Written by the solver thread only
+  long tileUpdates;
+  long reducingTileUpdates;
+  int maxPendingUpdates;
+  long collapses;
+  long contradictions;
+  long backtracks;
+  int restarts;
+  long initialPropagationNanos;
+  long runStartNanos;
+  // 0 while the run is going
+  long runEndNanos;
+  // The time the run spent paused between steps, not counting a pause that is still going
+  long pausedNanos;
+  // 0 unless the run is paused
+  long pauseStartNanos;
+
+  private final AtomicLongArray published = new AtomicLongArray(COUNT);
+
+  // ===================================================================================================================
+  // Writing, by the solver thread
+  // ===================================================================================================================
+  void startRun() {
+    tileUpdates = 0;
+    reducingTileUpdates = 0;
+    maxPendingUpdates = 0;
+    collapses = 0;
+    contradictions = 0;
+    backtracks = 0;
+    restarts = 0;
+    initialPropagationNanos = 0;
+    runStartNanos = System.nanoTime();
+    runEndNanos = 0;
+    pausedNanos = 0;
+    pauseStartNanos = 0;
+    publish();
+  }
+
+  void pause() {
+    pauseStartNanos = System.nanoTime();
+    publish();
+  }
+
+  void resume() {
+    pausedNanos += System.nanoTime() - pauseStartNanos;
+    pauseStartNanos = 0;
+  }
+
+  void endRun() {
+    runEndNanos = System.nanoTime();
+    publish();
+  }
+
+  /**
+   * Records that a propagator has the given number of updates waiting.
+   */
+  void pending(int pendingUpdates) {
+    if (pendingUpdates > maxPendingUpdates) {
+      maxPendingUpdates = pendingUpdates;
+    }
+  }
+
+  void publish() {
+    published.setOpaque(TILE_UPDATES, tileUpdates);
+    published.setOpaque(REDUCING_TILE_UPDATES, reducingTileUpdates);
+    published.setOpaque(MAX_PENDING_UPDATES, maxPendingUpdates);
+    published.setOpaque(COLLAPSES, collapses);
+    published.setOpaque(CONTRADICTIONS, contradictions);
+    published.setOpaque(BACKTRACKS, backtracks);
+    published.setOpaque(RESTARTS, restarts);
+    published.setOpaque(INITIAL_PROPAGATION_NANOS, initialPropagationNanos);
+    published.setOpaque(RUN_START_NANOS, runStartNanos);
+    published.setOpaque(PAUSED_NANOS, pausedNanos);
+    published.setOpaque(PAUSE_START_NANOS, pauseStartNanos);
+    published.setRelease(RUN_END_NANOS, runEndNanos);
+  }
+
+  // ===================================================================================================================
+  // Reading, by any thread
+  // ===================================================================================================================
+  WfcMetrics snapshot() {
+    long runEnd = published.getAcquire(RUN_END_NANOS);
+    long runStart = published.getOpaque(RUN_START_NANOS);
+    long initial = published.getOpaque(INITIAL_PROPAGATION_NANOS);
+    long paused = published.getOpaque(PAUSED_NANOS);
+    long pauseStart = published.getOpaque(PAUSE_START_NANOS);
+    boolean running = runStart != 0 && runEnd == 0;
+    // The clock stops while the run is paused
+    long now = !running ? runEnd : pauseStart != 0 ? pauseStart : System.nanoTime();
+    long mainLoop = runStart == 0 ? 0 : Math.max(0, now - runStart - initial - paused);
+
+    return new WfcMetrics(published.getOpaque(TILE_UPDATES), published.getOpaque(REDUCING_TILE_UPDATES),
+        (int) published.getOpaque(MAX_PENDING_UPDATES), published.getOpaque(COLLAPSES),
+        published.getOpaque(CONTRADICTIONS), published.getOpaque(BACKTRACKS), (int) published.getOpaque(RESTARTS),
+        initial, mainLoop, running);
+  }
+}
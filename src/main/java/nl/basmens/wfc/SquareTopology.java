@@ -0,0 +1,96 @@
+package nl.basmens.wfc;
+
+/**
+ * A grid of squares, the topology of a {@link Wfc} created with a width and height. The directions are up, right, down
+ * and left, where up is towards y - 1.
+ */
+public final class SquareTopology implements Topology {
+  private final int width;
+  private final int height;
+  private final boolean loopEdgesX;
+  private final boolean loopEdgesY;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  public SquareTopology(int width, int height, boolean loopEdgesX, boolean loopEdgesY) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Grid size must be positive, got " + width + " by " + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.loopEdgesX = loopEdgesX;
+    this.loopEdgesY = loopEdgesY;
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  @Override
+  public int neighbour(int tile, int direction) {
+    int x = tile / height;
+    int y = tile % height;
+    switch (Direction.VALUES[direction]) {
+      case UP:
+        if (y > 0) {
+          return tile - 1;
+        }
+        return loopEdgesY ? tile + height - 1 : -1;
+      case RIGHT:
+        if (x < width - 1) {
+          return tile + height;
+        }
+        return loopEdgesX ? y : -1;
+      case DOWN:
+        if (y < height - 1) {
+          return tile + 1;
+        }
+        return loopEdgesY ? tile - height + 1 : -1;
+      default:
+        if (x > 0) {
+          return tile - height;
+        }
+        return loopEdgesX ? (width - 1) * height + y : -1;
+    }
+  }
+
+  // Equal topologies have the same neighbours, so they can share what was computed for one of them
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof SquareTopology other && width == other.width && height == other.height
+        && loopEdgesX == other.loopEdgesX && loopEdgesY == other.loopEdgesY;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = width;
+    hash = 31 * hash + height;
+    return 31 * hash + ((loopEdgesX ? 1 : 0) | (loopEdgesY ? 2 : 0));
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getDirectionCount() {
+    return 4;
+  }
+
+  public boolean isLoopEdgesX() {
+    return loopEdgesX;
+  }
+
+  public boolean isLoopEdgesY() {
+    return loopEdgesY;
+  }
+}
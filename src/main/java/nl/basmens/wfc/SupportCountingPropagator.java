@@ -0,0 +1,292 @@
+package nl.basmens.wfc;
+
+import java.util.Arrays;
+
+/**
+ * AC-4 style propagation. For every tile, direction and module it counts how many possibilities of the neighbour in
+ * that direction allow the module. Removing a possibility decrements the counters of the modules it allowed, and a
+ * module is removed once one of its counters reaches zero.
+ *
+ * <p>
+ * Removals are propagated per tile. When a tile lost more possibilities than it has left, as happens on every collapse,
+ * the counters of its neighbours are recounted from what is left instead of decremented for everything that went.
+ *
+ * <p>
+ * Unlike the classic engine this also notices when the last possibility of a tile loses its support, but in a run
+ * without contradictions both engines end up in the same state.
+ */
+final class SupportCountingPropagator implements Propagator {
+  private final Wfc wfc;
+  private final Grid grid;
+  private final SolverCounters counters;
+  private final int[] neighbours;
+  private final int directionCount;
+  private final int[] opposite;
+  private final int wordsPerTile;
+  private final int tileCount;
+  private final int moduleCount;
+
+  // allowed[d][b] lists the modules that module b allows at its side d
+  private final int[][][] allowed;
+  // initialSupport[d][a] is the support of module a from a fully open neighbour at side d
+  private final int[][] initialSupport;
+  // Indexed by (tile * directionCount + direction) * moduleCount + module
+  private final int[] supportCounts;
+  // The possibilities of every tile as its neighbours' counters currently see them, laid out like the grid
+  private final long[] propagated;
+
+  // Tiles that lost possibilities which still have to be propagated
+  private final int[] stack;
+  private int stackSize;
+  private final boolean[] inStack;
+
+  SupportCountingPropagator(Wfc wfc, Grid grid, NeighbourTable neighbourTable, long[][] possibleModules,
+      SolverCounters counters) {
+    this.wfc = wfc;
+    this.grid = grid;
+    this.counters = counters;
+    this.neighbours = neighbourTable.neighbours;
+    this.directionCount = neighbourTable.directionCount;
+    this.opposite = neighbourTable.opposite;
+    this.wordsPerTile = grid.wordsPerTile;
+    this.tileCount = grid.tileCount;
+    this.moduleCount = grid.moduleCount;
+
+    // The counters are indexed with ints, which is safe as long as they fit in one array
+    long counterCount = (long) tileCount * directionCount * moduleCount;
+    if (counterCount > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Support counting on " + tileCount + " tiles with " + moduleCount
+          + " modules needs " + counterCount + " counters, which is too many");
+    }
+
+    allowed = new int[directionCount][moduleCount][];
+    initialSupport = new int[directionCount][moduleCount];
+    for (int d = 0; d < directionCount; d++) {
+      for (int b = 0; b < moduleCount; b++) {
+        int[] row = toArray(possibleModules[d], b * wordsPerTile);
+        allowed[d][b] = row;
+
+        // A neighbour at side d of a tile allows that tile through its opposite side
+        for (int a : row) {
+          initialSupport[opposite[d]][a]++;
+        }
+      }
+    }
+
+    supportCounts = new int[(int) counterCount];
+    propagated = new long[grid.words.length];
+    stack = new int[tileCount];
+    inStack = new boolean[tileCount];
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  @Override
+  public void initialise() {
+    System.arraycopy(grid.words, 0, propagated, 0, propagated.length);
+    for (int tile = 0; tile < tileCount; tile++) {
+      for (int d = 0; d < directionCount; d++) {
+        System.arraycopy(initialSupport[d], 0, supportCounts, (tile * directionCount + d) * moduleCount, moduleCount);
+      }
+    }
+
+    // Modules that nothing allows next to them can go right away, except towards the edges of the grid
+    for (int tile = 0; tile < tileCount; tile++) {
+      for (int d = 0; d < directionCount; d++) {
+        if (neighbours[tile * directionCount + d] < 0) {
+          continue;
+        }
+        int[] support = initialSupport[d];
+        for (int a = 0; a < moduleCount; a++) {
+          if (support[a] == 0) {
+            remove(tile, a);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void restoreInitialState(int[] state) {
+    // Nothing is pending at a fixed point, so every tile has been propagated as it is
+    System.arraycopy(grid.words, 0, propagated, 0, propagated.length);
+    System.arraycopy(state, 0, supportCounts, 0, supportCounts.length);
+  }
+
+  @Override
+  public int[] saveInitialState() {
+    return supportCounts.clone();
+  }
+
+  @Override
+  public void collapse(int tile, int module) {
+    grid.collapse(tile, module);
+    push(tile);
+  }
+
+  @Override
+  public void removed(int tile) {
+    push(tile);
+  }
+
+  @Override
+  public void propagate() {
+    while (stackSize > 0 && !grid.contradiction) {
+      stackSize--;
+      int tile = stack[stackSize];
+      inStack[tile] = false;
+
+      int entropy = grid.entropy[tile];
+      int offset = tile * wordsPerTile;
+      int removedCount = -entropy;
+      for (int i = 0; i < wordsPerTile; i++) {
+        removedCount += Long.bitCount(propagated[offset + i]);
+      }
+
+      for (int d = 0; d < directionCount; d++) {
+        // Tiles without possibilities never change, so their counters don't have to be kept up to date
+        int neighbour = neighbours[tile * directionCount + d];
+        if (neighbour < 0 || grid.entropy[neighbour] == 0) {
+          continue;
+        }
+        int neighbourEntropy = grid.entropy[neighbour];
+
+        if (removedCount <= entropy) {
+          decrement(neighbour, opposite[d], tile);
+        } else {
+          recount(neighbour, opposite[d], tile);
+        }
+        counters.tileUpdates++;
+        if (grid.entropy[neighbour] < neighbourEntropy) {
+          counters.reducingTileUpdates++;
+        }
+      }
+
+      System.arraycopy(grid.words, offset, propagated, offset, wordsPerTile);
+    }
+  }
+
+  @Override
+  public void clear() {
+    while (stackSize > 0) {
+      stackSize--;
+      inStack[stack[stackSize]] = false;
+    }
+  }
+
+  @Override
+  public void restored(int[] tiles, int from, int to) {
+    // Nothing was pending when the decision was made, so the counters of every tile that wasn't restored, and that
+    // doesn't neighbour one that was, are still correct
+    for (int i = from; i < to; i++) {
+      int tile = tiles[i];
+      System.arraycopy(grid.words, tile * wordsPerTile, propagated, tile * wordsPerTile, wordsPerTile);
+    }
+
+    for (int i = from; i < to; i++) {
+      int tile = tiles[i];
+      recountAllSides(tile);
+      for (int d = 0; d < directionCount; d++) {
+        int neighbour = neighbours[tile * directionCount + d];
+        if (neighbour >= 0) {
+          recountAllSides(neighbour);
+        }
+      }
+    }
+  }
+
+  private void recountAllSides(int tile) {
+    if (grid.entropy[tile] == 0) {
+      return;
+    }
+    for (int d = 0; d < directionCount; d++) {
+      int neighbour = neighbours[tile * directionCount + d];
+      if (neighbour >= 0) {
+        recount(tile, d, neighbour);
+      }
+    }
+  }
+
+  /**
+   * Decrements the counters of a tile for the given side for every possibility its neighbour lost.
+   */
+  private void decrement(int tile, int side, int neighbour) {
+    int offset = (tile * directionCount + side) * moduleCount;
+    int[][] allowedAtSide = allowed[opposite[side]];
+    long[] words = grid.words;
+    int neighbourOffset = neighbour * wordsPerTile;
+    for (int i = 0; i < wordsPerTile; i++) {
+      long removed = propagated[neighbourOffset + i] & ~words[neighbourOffset + i];
+      while (removed != 0) {
+        int b = i * 64 + Long.numberOfTrailingZeros(removed);
+        removed &= removed - 1; // Unset lsb
+
+        for (int a : allowedAtSide[b]) {
+          supportCounts[offset + a]--;
+          if (supportCounts[offset + a] == 0) {
+            remove(tile, a);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Recomputes the counters of a tile for the given side from scratch, and removes what is no longer supported.
+   */
+  private void recount(int tile, int side, int neighbour) {
+    int offset = (tile * directionCount + side) * moduleCount;
+    for (int a = grid.nextPossibility(tile, 0); a >= 0; a = grid.nextPossibility(tile, a + 1)) {
+      supportCounts[offset + a] = 0;
+    }
+
+    int[][] allowedAtSide = allowed[opposite[side]];
+    for (int b = grid.nextPossibility(neighbour, 0); b >= 0; b = grid.nextPossibility(neighbour, b + 1)) {
+      for (int a : allowedAtSide[b]) {
+        supportCounts[offset + a]++;
+      }
+    }
+
+    for (int a = grid.nextPossibility(tile, 0); a >= 0; a = grid.nextPossibility(tile, a + 1)) {
+      if (supportCounts[offset + a] == 0) {
+        remove(tile, a);
+      }
+    }
+  }
+
+  private void remove(int tile, int module) {
+    if (!grid.hasPossibility(tile, module)) {
+      return;
+    }
+
+    int startEntropy = grid.entropy[tile];
+
+    grid.remove(tile, module);
+    wfc.tileChanged(tile, startEntropy);
+    push(tile);
+  }
+
+  private int[] toArray(long[] table, int offset) {
+    int[] result = new int[moduleCount];
+    int size = 0;
+    for (int i = 0; i < wordsPerTile; i++) {
+      long word = table[offset + i];
+      while (word != 0) {
+        result[size] = i * 64 + Long.numberOfTrailingZeros(word);
+        size++;
+        word &= word - 1; // Unset lsb
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  private void push(int tile) {
+    if (!inStack[tile]) {
+      inStack[tile] = true;
+      stack[stackSize] = tile;
+      stackSize++;
+      counters.pending(stackSize);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package nl.basmens.wfc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers which modules a neighbour allows, keyed by the direction and the neighbour's possibilities. Most
+ * neighbours are in one of a few states during a run, so this turns most propagation steps into a single lookup.
+ *
+ * <p>
+ * The cache is two-way set associative with a fixed number of entries. A new entry goes into the first slot of its
+ * set and pushes the previous occupant to the second one, which evicts whatever was there. Entries are immutable and
+ * published through a plain array, so runs on different threads can share the cache without locking. Concurrent
+ * inserts into the same set can lose an entry, which only costs a recomputation.
+ */
+public final class SupportMaskCache {
+  private final Entry[] entries;
+  private final int mask;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private record Entry(int direction, long[] key, long[] allowed) {
+  }
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  /**
+   * Creates a cache for at least the given number of entries, rounded up to a power of two.
+   */
+  SupportMaskCache(int capacity) {
+    int size = Math.max(2, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+    entries = new Entry[size];
+    mask = size - 2;
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Returns the cached allowed-mask for a neighbour in the given direction whose possibilities are the
+   * {@code wordsPerTile} words at {@code offset}, or null when it is not cached.
+   */
+  long[] get(int direction, long[] words, int offset, int wordsPerTile) {
+    int set = hash(direction, words, offset, wordsPerTile) & mask;
+
+    Entry entry = entries[set];
+    if (entry != null && matches(entry, direction, words, offset, wordsPerTile)) {
+      return entry.allowed;
+    }
+    entry = entries[set + 1];
+    if (entry != null && matches(entry, direction, words, offset, wordsPerTile)) {
+      return entry.allowed;
+    }
+    return null;
+  }
+
+  /**
+   * Stores a computed allowed-mask. Both arrays are copied.
+   */
+  void put(int direction, long[] words, int offset, int wordsPerTile, long[] allowed) {
+    int set = hash(direction, words, offset, wordsPerTile) & mask;
+
+    long[] key = new long[wordsPerTile];
+    System.arraycopy(words, offset, key, 0, wordsPerTile);
+    entries[set + 1] = entries[set];
+    entries[set] = new Entry(direction, key, allowed.clone());
+  }
+
+  /**
+   * Adds the hits and misses of a run, which counts them locally to keep the shared counters out of the hot path.
+   */
+  void record(long runHits, long runMisses) {
+    hits.add(runHits);
+    misses.add(runMisses);
+  }
+
+  public void clear() {
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = null;
+    }
+    hits.reset();
+    misses.reset();
+  }
+
+  private static int hash(int direction, long[] words, int offset, int wordsPerTile) {
+    long h = direction;
+    for (int i = 0; i < wordsPerTile; i++) {
+      h = (h ^ words[offset + i]) * 0x9e37_79b9_7f4a_7c15L;
+    }
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private static boolean matches(Entry entry, int direction, long[] words, int offset, int wordsPerTile) {
+    if (entry.direction != direction) {
+      return false;
+    }
+    long[] key = entry.key;
+    for (int i = 0; i < wordsPerTile; i++) {
+      if (key[i] != words[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  public int getCapacity() {
+    return entries.length;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the fraction of lookups that were hits, or 0 when there were none.
+   */
+  public double getHitRate() {
+    long h = getHits();
+    long total = h + getMisses();
+    return total == 0 ? 0 : (double) h / total;
+  }
+}
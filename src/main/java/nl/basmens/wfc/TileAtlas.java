@@ -0,0 +1,114 @@
+package nl.basmens.wfc;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The image of every module, already rotated the way the module is, so drawing a tile is a plain copy. Images are
+ * square arrays of ARGB pixels, row by row. Modules that are rotations of each other share their source image, and
+ * modules with the same image and rotation share the rotated pixels as well.
+ */
+public final class TileAtlas {
+  private final int tileSize;
+  // The pixels of every module, or null for a module without an image
+  private final int[][] tiles;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  /**
+   * Builds the atlas from the child items of the modules. The function turns a child item into its ARGB pixels, or
+   * returns null when the item has no image. Images that are not {@code tileSize} pixels wide are scaled to it.
+   */
+  public TileAtlas(Module[] modules, int tileSize, Function<Object, int[]> pixels) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Tile size must be positive, got " + tileSize);
+    }
+    this.tileSize = tileSize;
+    this.tiles = new int[modules.length][];
+
+    // One slot per rotation for every child item
+    Map<Object, int[][]> rotated = new IdentityHashMap<>();
+    for (int i = 0; i < modules.length; i++) {
+      Module module = modules[i];
+      Object childItem = module.getChildItem();
+      if (childItem == null) {
+        continue;
+      }
+
+      int[][] rotations = rotated.computeIfAbsent(childItem, item -> new int[4][]);
+      int rotation = Math.floorMod(module.rotations[0], 4);
+      if (rotations[rotation] == null) {
+        int[] source = pixels.apply(childItem);
+        if (source == null) {
+          continue;
+        }
+        rotations[rotation] = rotate(scale(source, tileSize), tileSize, rotation);
+      }
+      tiles[i] = rotations[rotation];
+    }
+  }
+
+  public TileAtlas(WfcFeatures wfcFeatures, int tileSize, Function<Object, int[]> pixels) {
+    this(wfcFeatures.modules(), tileSize, pixels);
+  }
+
+  /**
+   * Scales a square image to the tile size, by picking the nearest pixel.
+   */
+  private static int[] scale(int[] source, int tileSize) {
+    int sourceSize = (int) Math.round(Math.sqrt(source.length));
+    if (sourceSize * sourceSize != source.length) {
+      throw new IllegalArgumentException("Tile images must be square, got " + source.length + " pixels");
+    }
+    if (sourceSize == tileSize) {
+      return source.clone();
+    }
+
+    int[] scaled = new int[tileSize * tileSize];
+    for (int y = 0; y < tileSize; y++) {
+      int sourceY = y * sourceSize / tileSize;
+      for (int x = 0; x < tileSize; x++) {
+        scaled[y * tileSize + x] = source[sourceY * sourceSize + x * sourceSize / tileSize];
+      }
+    }
+    return scaled;
+  }
+
+  /**
+   * Rotates a square image clockwise by a number of quarter turns, like the keys of a rotated module.
+   */
+  private static int[] rotate(int[] source, int size, int rotation) {
+    int[] result = source;
+    for (int r = 0; r < rotation; r++) {
+      int[] next = new int[size * size];
+      for (int y = 0; y < size; y++) {
+        for (int x = 0; x < size; x++) {
+          // The left column ends up at the top
+          next[y * size + x] = result[(size - 1 - x) * size + y];
+        }
+      }
+      result = next;
+    }
+    return result;
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  public int getModuleCount() {
+    return tiles.length;
+  }
+
+  /**
+   * Returns the rotated ARGB pixels of a module, or null when it has no image. Shared, so they must not be modified.
+   */
+  public int[] getTile(int module) {
+    return tiles[module];
+  }
+}
@@ -0,0 +1,97 @@
+package nl.basmens.wfc;
+
+import java.util.Arrays;
+
+/**
+ * A batch of constraints on single tiles, handed to a {@link Wfc} with {@link Wfc#constrain(TileConstraints)}. A tile
+ * is either pinned to one module, or limited to a set of allowed modules. Constraints on the same tile add up, so the
+ * tile keeps only what all of them allow, and nothing at all when they disagree.
+ */
+public final class TileConstraints {
+  private int size;
+  private int[] xs = new int[16];
+  private int[] ys = new int[16];
+  // The pinned module, or -1 when the allowed modules are in masks
+  private int[] modules = new int[16];
+  private PossibilitySet[] masks = new PossibilitySet[16];
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  public TileConstraints() {
+  }
+
+  /**
+   * Copies a batch. The sets of allowed modules are shared, they are copies that never change.
+   */
+  TileConstraints(TileConstraints toCopy) {
+    size = toCopy.size;
+    xs = Arrays.copyOf(toCopy.xs, size);
+    ys = Arrays.copyOf(toCopy.ys, size);
+    modules = Arrays.copyOf(toCopy.modules, size);
+    masks = Arrays.copyOf(toCopy.masks, size);
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Fixes a tile to a module.
+   */
+  public TileConstraints pin(int x, int y, int module) {
+    if (module < 0) {
+      throw new IllegalArgumentException("Module must not be negative, got " + module);
+    }
+    add(x, y, module, null);
+    return this;
+  }
+
+  /**
+   * Limits a tile to the modules in the set. The set is copied, so it may be changed afterwards.
+   */
+  public TileConstraints allow(int x, int y, PossibilitySet allowed) {
+    add(x, y, -1, new PossibilitySet(allowed));
+    return this;
+  }
+
+  private void add(int x, int y, int module, PossibilitySet mask) {
+    if (size == xs.length) {
+      int length = Math.max(16, size * 2);
+      xs = Arrays.copyOf(xs, length);
+      ys = Arrays.copyOf(ys, length);
+      modules = Arrays.copyOf(modules, length);
+      masks = Arrays.copyOf(masks, length);
+    }
+    xs[size] = x;
+    ys[size] = y;
+    modules[size] = module;
+    masks[size] = mask;
+    size++;
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  public int size() {
+    return size;
+  }
+
+  int getX(int i) {
+    return xs[i];
+  }
+
+  int getY(int i) {
+    return ys[i];
+  }
+
+  /**
+   * Returns the module constraint i pins its tile to, or -1 when it limits the tile to {@link #getMask(int)}.
+   */
+  int getModule(int i) {
+    return modules[i];
+  }
+
+  PossibilitySet getMask(int i) {
+    return masks[i];
+  }
+}
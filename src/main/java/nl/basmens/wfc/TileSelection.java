@@ -0,0 +1,18 @@
+package nl.basmens.wfc;
+
+/**
+ * The ways a {@link Wfc} can choose the next tile to collapse.
+ */
+public enum TileSelection {
+  /**
+   * Picks a random tile among those with the fewest possibilities left. This is the default.
+   */
+  FEWEST_POSSIBILITIES,
+
+  /**
+   * Picks the tile with the lowest Shannon entropy over the weights of its possibilities, so a tile that is almost
+   * certain to become one module goes first. Ties are broken by a small amount of noise per tile. Without weights this
+   * orders the tiles the same as {@link #FEWEST_POSSIBILITIES}, but picks differently among equal tiles.
+   */
+  LOWEST_ENTROPY
+}
@@ -0,0 +1,30 @@
+package nl.basmens.wfc;
+
+import java.util.Random;
+
+/**
+ * Keeps track of the tiles that still have to be collapsed, and chooses the next one. Only tiles with 2 or more
+ * possibilities are in a selector.
+ */
+interface TileSelector {
+  /**
+   * Moves a tile from {@code oldEntropy} to {@code newEntropy} possibilities. A new entropy of 1 or 0 takes it out.
+   */
+  void move(int tile, int oldEntropy, int newEntropy);
+
+  /**
+   * Undoes a {@link #move}, given the {@link #location} the tile had before it. Moves are undone in reverse order,
+   * after the grid has been restored to the state before them.
+   */
+  void undoMove(int tile, int oldEntropy, int oldLocation, int newEntropy);
+
+  /**
+   * Returns where the tile is kept, as needed to undo a move.
+   */
+  int location(int tile);
+
+  /**
+   * Returns the tile to collapse next, or -1 when every tile is collapsed.
+   */
+  int select(Random random);
+}
@@ -0,0 +1,31 @@
+package nl.basmens.wfc;
+
+/**
+ * The shape of a grid: how many tiles it has and which tile lies in every direction of another. Tiles are numbered
+ * {@code x * height + y} over the width and height of the topology, which is also how a {@link GridView} shows them.
+ *
+ * <p>
+ * Directions are numbered so that the opposite of a direction lies halfway around, at
+ * {@code (direction + directionCount / 2) % directionCount}, and a module has a key for every direction in the same
+ * order. {@link Wfc} asks for every neighbour once and keeps them in a table, so a topology may take its time.
+ */
+public interface Topology {
+  int getWidth();
+
+  int getHeight();
+
+  default int getTileCount() {
+    return getWidth() * getHeight();
+  }
+
+  /**
+   * Returns the number of directions, which is even.
+   */
+  int getDirectionCount();
+
+  /**
+   * Returns the tile in the given direction, or -1 when the tile is at an edge that doesn't loop. A tile must be the
+   * neighbour of its neighbour in the opposite direction.
+   */
+  int neighbour(int tile, int direction);
+}
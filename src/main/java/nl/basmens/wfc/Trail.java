@@ -0,0 +1,220 @@
+package nl.basmens.wfc;
+
+import java.util.Arrays;
+
+/**
+ * The undo trail used for backtracking. Every decision (a collapse chosen by the algorithm) opens a new segment, and
+ * within a segment the trail records the state of each tile the first time it changes, as well as every move in the
+ * tile selector. Undoing a decision restores both in reverse order.
+ *
+ * <p>
+ * Only the most recent {@code maxDecisions} decisions are kept. When the trail grows past that, the oldest half is
+ * dropped and can no longer be undone.
+ */
+final class Trail {
+  private final Grid grid;
+  private final int wordsPerTile;
+  private final int maxDecisions;
+
+  // Tile snapshots
+  private int[] tiles = new int[1024];
+  private int[] entropies = new int[1024];
+  private long[] words;
+  // The weight sums of the tiles, when the grid tracks them
+  private double[] weightSums;
+  private double[] weightLogWeightSums;
+  private int tilesSize;
+
+  // The epoch in which each tile was last saved, so it is only saved once per segment
+  private final int[] savedInEpoch;
+  private int epoch = 1;
+
+  // Tile selector moves, as (tile, old entropy, old location, new entropy)
+  private int[] moves = new int[4 * 1024];
+  private int movesSize;
+
+  // Decisions, with the trail sizes from before they were made
+  private int[] decisionTiles = new int[64];
+  private int[] decisionModules = new int[64];
+  private int[] decisionTilesMarks = new int[64];
+  private int[] decisionMovesMarks = new int[64];
+  private int decisionCount;
+
+  Trail(Grid grid, int maxDecisions) {
+    this.grid = grid;
+    this.wordsPerTile = grid.wordsPerTile;
+    this.maxDecisions = Math.max(2, maxDecisions);
+
+    words = new long[1024 * wordsPerTile];
+    if (grid.weightSums != null) {
+      weightSums = new double[1024];
+      weightLogWeightSums = new double[1024];
+    }
+    savedInEpoch = new int[grid.tileCount];
+  }
+
+  // ===================================================================================================================
+  // Recording
+  // ===================================================================================================================
+  /**
+   * Opens a new segment for a decision that is about to be made.
+   */
+  void pushDecision(int tile, int module) {
+    if (decisionCount == maxDecisions) {
+      dropOldestHalf();
+    }
+    if (decisionCount == decisionTiles.length) {
+      int length = decisionCount * 2;
+      decisionTiles = Arrays.copyOf(decisionTiles, length);
+      decisionModules = Arrays.copyOf(decisionModules, length);
+      decisionTilesMarks = Arrays.copyOf(decisionTilesMarks, length);
+      decisionMovesMarks = Arrays.copyOf(decisionMovesMarks, length);
+    }
+
+    decisionTiles[decisionCount] = tile;
+    decisionModules[decisionCount] = module;
+    decisionTilesMarks[decisionCount] = tilesSize;
+    decisionMovesMarks[decisionCount] = movesSize;
+    decisionCount++;
+    epoch++;
+  }
+
+  /**
+   * Saves the state of a tile that is about to change. Changes made before the first decision are never undone, so
+   * they are not recorded.
+   */
+  void save(int tile) {
+    if (decisionCount == 0 || savedInEpoch[tile] == epoch) {
+      return;
+    }
+    savedInEpoch[tile] = epoch;
+
+    if (tilesSize == tiles.length) {
+      int length = tilesSize * 2;
+      tiles = Arrays.copyOf(tiles, length);
+      entropies = Arrays.copyOf(entropies, length);
+      words = Arrays.copyOf(words, length * wordsPerTile);
+      if (weightSums != null) {
+        weightSums = Arrays.copyOf(weightSums, length);
+        weightLogWeightSums = Arrays.copyOf(weightLogWeightSums, length);
+      }
+    }
+    tiles[tilesSize] = tile;
+    entropies[tilesSize] = grid.entropy[tile];
+    System.arraycopy(grid.words, tile * wordsPerTile, words, tilesSize * wordsPerTile, wordsPerTile);
+    if (weightSums != null) {
+      weightSums[tilesSize] = grid.weightSums[tile];
+      weightLogWeightSums[tilesSize] = grid.weightLogWeightSums[tile];
+    }
+    tilesSize++;
+  }
+
+  void recordMove(int tile, int oldEntropy, int oldLocation, int newEntropy) {
+    if (decisionCount == 0) {
+      return;
+    }
+
+    if (movesSize == moves.length) {
+      moves = Arrays.copyOf(moves, movesSize * 2);
+    }
+    moves[movesSize] = tile;
+    moves[movesSize + 1] = oldEntropy;
+    moves[movesSize + 2] = oldLocation;
+    moves[movesSize + 3] = newEntropy;
+    movesSize += 4;
+  }
+
+  /**
+   * Drops every decision, so the changes made so far can no longer be undone.
+   */
+  void forget() {
+    tilesSize = 0;
+    movesSize = 0;
+    decisionCount = 0;
+    epoch++;
+  }
+
+  private void dropOldestHalf() {
+    int dropped = decisionCount / 2;
+    int tilesMark = decisionTilesMarks[dropped];
+    int movesMark = decisionMovesMarks[dropped];
+
+    tilesSize -= tilesMark;
+    System.arraycopy(tiles, tilesMark, tiles, 0, tilesSize);
+    System.arraycopy(entropies, tilesMark, entropies, 0, tilesSize);
+    System.arraycopy(words, tilesMark * wordsPerTile, words, 0, tilesSize * wordsPerTile);
+    if (weightSums != null) {
+      System.arraycopy(weightSums, tilesMark, weightSums, 0, tilesSize);
+      System.arraycopy(weightLogWeightSums, tilesMark, weightLogWeightSums, 0, tilesSize);
+    }
+    movesSize -= movesMark;
+    System.arraycopy(moves, movesMark, moves, 0, movesSize);
+
+    decisionCount -= dropped;
+    System.arraycopy(decisionTiles, dropped, decisionTiles, 0, decisionCount);
+    System.arraycopy(decisionModules, dropped, decisionModules, 0, decisionCount);
+    for (int i = 0; i < decisionCount; i++) {
+      decisionTilesMarks[i] = decisionTilesMarks[i + dropped] - tilesMark;
+      decisionMovesMarks[i] = decisionMovesMarks[i + dropped] - movesMark;
+    }
+  }
+
+  // ===================================================================================================================
+  // Undoing
+  // ===================================================================================================================
+  int getDecisionCount() {
+    return decisionCount;
+  }
+
+  int getLastDecisionTile() {
+    return decisionTiles[decisionCount - 1];
+  }
+
+  int getLastDecisionModule() {
+    return decisionModules[decisionCount - 1];
+  }
+
+  /**
+   * Restores the grid to how it was before the last decision, and returns the index in {@link #getTiles()} from which
+   * on the restored tiles are listed. Those entries stay valid until the next change to the trail. The tile selector
+   * moves are undone separately by {@link #undoMoves(Wfc)}.
+   */
+  int undoTiles() {
+    int mark = decisionTilesMarks[decisionCount - 1];
+    for (int i = tilesSize - 1; i >= mark; i--) {
+      int tile = tiles[i];
+      grid.entropy[tile] = entropies[i];
+      System.arraycopy(words, i * wordsPerTile, grid.words, tile * wordsPerTile, wordsPerTile);
+      if (weightSums != null) {
+        grid.weightSums[tile] = weightSums[i];
+        grid.weightLogWeightSums[tile] = weightLogWeightSums[i];
+      }
+    }
+    return mark;
+  }
+
+  /**
+   * Undoes the tile selector moves of the last decision in reverse order, and then drops the decision itself.
+   */
+  void undoMoves(Wfc wfc) {
+    int mark = decisionMovesMarks[decisionCount - 1];
+    for (int i = movesSize - 4; i >= mark; i -= 4) {
+      wfc.undoSelectorMove(moves[i], moves[i + 1], moves[i + 2], moves[i + 3]);
+    }
+
+    movesSize = mark;
+    tilesSize = decisionTilesMarks[decisionCount - 1];
+    decisionCount--;
+
+    // Start a fresh segment, the changes that follow belong to the previous decision
+    epoch++;
+  }
+
+  int[] getTiles() {
+    return tiles;
+  }
+
+  int getTilesSize() {
+    return tilesSize;
+  }
+}
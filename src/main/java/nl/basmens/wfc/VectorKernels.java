@@ -0,0 +1,16 @@
+package nl.basmens.wfc;
+
+/**
+ * The {@link BitKernels} that have a vector version. Implemented by VectorBitKernels in {@code src/simd/java}, which
+ * needs the incubating vector module and is only compiled by the simd profile, so the default build stays free of it.
+ */
+interface VectorKernels {
+  /**
+   * Returns whether the CPU has vectors of two or more longs.
+   */
+  boolean isSupported();
+
+  void or(long[] target, int targetOffset, long[] source, int sourceOffset, int length);
+
+  void orRows(long[] target, long[] table, int[] rowOffsets, int rowCount, int length);
+}
@@ -0,0 +1,146 @@
+package nl.basmens.wfc;
+
+/**
+ * A 3D grid of cubes, neighbouring each other through their 6 faces. The directions are up, right, back, down, left
+ * and front, where up is towards y - 1 and back towards z + 1.
+ *
+ * <p>
+ * For a {@link GridView} the layers are stacked in y: the tile at (x, y, z) is shown at x and
+ * {@code z * height + y}, so the topology is {@code depth * height} tiles high.
+ */
+public final class VoxelTopology implements Topology {
+  public static final int UP = 0;
+  public static final int RIGHT = 1;
+  public static final int BACK = 2;
+  public static final int DOWN = 3;
+  public static final int LEFT = 4;
+  public static final int FRONT = 5;
+
+  private final int width;
+  private final int height;
+  private final int depth;
+  private final boolean loopEdgesX;
+  private final boolean loopEdgesY;
+  private final boolean loopEdgesZ;
+
+  // ===================================================================================================================
+  // Construction
+  // ===================================================================================================================
+  public VoxelTopology(int width, int height, int depth, boolean loopEdgesX, boolean loopEdgesY,
+      boolean loopEdgesZ) {
+    if (width < 1 || height < 1 || depth < 1) {
+      throw new IllegalArgumentException("Grid size must be positive, got " + width + " by " + height + " by "
+          + depth);
+    }
+    this.width = width;
+    this.height = height;
+    this.depth = depth;
+    this.loopEdgesX = loopEdgesX;
+    this.loopEdgesY = loopEdgesY;
+    this.loopEdgesZ = loopEdgesZ;
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Returns the number of the tile at the given position.
+   */
+  public int tile(int x, int y, int z) {
+    return x * (depth * height) + z * height + y;
+  }
+
+  @Override
+  public int neighbour(int tile, int direction) {
+    int column = depth * height;
+    int x = tile / column;
+    int z = tile % column / height;
+    int y = tile % height;
+
+    switch (direction) {
+      case UP -> y--;
+      case RIGHT -> x++;
+      case BACK -> z++;
+      case DOWN -> y++;
+      case LEFT -> x--;
+      case FRONT -> z--;
+      default -> throw new IllegalArgumentException("A voxel grid has 6 directions, got " + direction);
+    }
+
+    if (x < 0 || x >= width) {
+      if (!loopEdgesX) {
+        return -1;
+      }
+      x = Math.floorMod(x, width);
+    }
+    if (y < 0 || y >= height) {
+      if (!loopEdgesY) {
+        return -1;
+      }
+      y = Math.floorMod(y, height);
+    }
+    if (z < 0 || z >= depth) {
+      if (!loopEdgesZ) {
+        return -1;
+      }
+      z = Math.floorMod(z, depth);
+    }
+    return tile(x, y, z);
+  }
+
+  // Equal topologies have the same neighbours, so they can share what was computed for one of them
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof VoxelTopology other && width == other.width && height == other.height && depth == other.depth
+        && loopEdgesX == other.loopEdgesX && loopEdgesY == other.loopEdgesY && loopEdgesZ == other.loopEdgesZ;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = width;
+    hash = 31 * hash + height;
+    hash = 31 * hash + depth;
+    return 31 * hash + ((loopEdgesX ? 1 : 0) | (loopEdgesY ? 2 : 0) | (loopEdgesZ ? 4 : 0));
+  }
+
+  // ===================================================================================================================
+  // Getters
+  // ===================================================================================================================
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the stacked layers, the depth times the height of a layer.
+   */
+  @Override
+  public int getHeight() {
+    return depth * height;
+  }
+
+  public int getLayerHeight() {
+    return height;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  @Override
+  public int getDirectionCount() {
+    return 6;
+  }
+
+  public boolean isLoopEdgesX() {
+    return loopEdgesX;
+  }
+
+  public boolean isLoopEdgesY() {
+    return loopEdgesY;
+  }
+
+  public boolean isLoopEdgesZ() {
+    return loopEdgesZ;
+  }
+}
@@ -1,49 +1,86 @@
 package nl.basmens.wfc;
 
-import java.util.ArrayDeque;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
-
-import cern.colt.list.IntArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public final class Wfc implements Runnable {
+  public static final int DEFAULT_BACKTRACK_BUDGET = 1000;
+  public static final int DEFAULT_MAX_RESTARTS = 3;
+  // How many of the most recent decisions can be undone
+  private static final int MAX_TRAIL_DECISIONS = 1024;
+  // Weighted picks draw from all modules while at least 1 in this many is still possible at the tile
+  private static final int REJECTION_SAMPLING_FRACTION = 4;
+  private static final int MAX_REJECTION_ATTEMPTS = 8;
+  // How many collapses an observer can fall behind before it has to copy the whole grid to catch up
+  private static final int COLLAPSE_EVENT_CAPACITY = 1 << 14;
+
   private int gridW;
   private int gridH;
-  private PossibilitySet[][] grid;
-  private boolean loopEdgesEnabledX;
-  private boolean loopEdgesEnabledY;
+  private Grid grid;
+  // Null when the grid is square and loops like the features say
+  private final Topology ownTopology;
+  private NeighbourTable neighbourTable;
+  // Where the state a fresh grid propagates to is shared with other runs, null when the features don't cache it
+  private FixedPointCache.Entry fixedPoints;
 
   private Module[] modules;
-  private PossibilitySet[] possibleModulesUp;
-  private PossibilitySet[] possibleModulesRight;
-  private PossibilitySet[] possibleModulesDown;
-  private PossibilitySet[] possibleModulesLeft;
-
-  private IntArrayList[] entropyLists;
-  private int[][] locationInEntropyList;
-  private boolean running;
-
-  private ArrayDeque<QueueElm> stack = new ArrayDeque<>(20000);
+  // The solver works on classes of modules, which only turn into modules again when a tile collapses. Null when every
+  // module is a class of its own.
+  private ModuleClasses classes;
+  private int classCount;
+  // Picks the module of a class for every collapsed tile, drawn anew whenever a run (re)starts
+  private long expansionSeed;
+  private long[][] possibleModules;
+  // Applied to every fresh grid before the first decision, in the order they were accepted
+  private final ArrayList<TileConstraints> constraints = new ArrayList<>();
+  // Handed in by any thread, accepted by the run at the start or between two steps
+  private final ConcurrentLinkedQueue<TileConstraints> pendingConstraints = new ConcurrentLinkedQueue<>();
+  private SupportMaskCache supportMaskCache;
+  private double[] weights;
+  private AliasTable aliasTable;
+
+  private TileSelection tileSelection = TileSelection.FEWEST_POSSIBILITIES;
+  private TileSelector tileSelector;
+  private volatile boolean running;
+  // Set by cancel() from any thread, and cleared by the run it stopped
+  private volatile boolean cancelled;
+  // 0 when a run may take as long as it needs
+  private long timeLimitNanos;
+  private long deadlineNanos;
+  private RunEvent runEvent;
+  private final CollapseEventLog collapseEvents;
+
+  private PropagationEngine propagationEngine = PropagationEngine.CLASSIC;
+  private Propagator propagator;
+
+  // Entropy changes are applied to the tile selector in tile order once propagation is done, so it ends up the same no
+  // matter in which order an engine visited the tiles
+  private int[] entropyBeforePropagation;
+  private int[] changedTiles;
+  private int changedTilesCount;
+
+  private int backtrackBudget = DEFAULT_BACKTRACK_BUDGET;
+  private int maxRestarts = DEFAULT_MAX_RESTARTS;
+  private Trail trail;
+  // Null unless the decisions are logged
+  private DecisionRecorder decisionRecorder;
+  // Set while a log is replayed, which happens without backtracking
+  private boolean replaying;
+  private int backtracks;
+  private int restarts;
+
+  private final SolverCounters counters = new SolverCounters();
 
   private Random random = new Random();
 
-  private enum Direction {
-    UP,
-    RIGHT,
-    DOWN,
-    LEFT
-  }
-
-  record QueueElm(int x, int y, Direction direction) {
-  }
-
   // ===================================================================================================================
   // Constructor
   // ===================================================================================================================
   public Wfc(int gridW, int gridH, WfcFeatures wfcFeatures) {
-    this.gridW = gridW;
-    this.gridH = gridH;
-
-    setWfcFeatures(wfcFeatures);
+    this(gridW, gridH, null, wfcFeatures);
   }
 
   public Wfc(int gridW, int gridH, WfcFeatures wfcFeatures, int seed) {
@@ -51,168 +88,570 @@ public final class Wfc implements Runnable {
     this.random.setSeed(seed);
   }
 
+  /**
+   * Creates a Wfc on any topology, such as a {@link HexTopology} or a {@link VoxelTopology}. The modules must have a
+   * key for every direction of it, and the loop edge flags of the features are ignored in favour of its own.
+   */
+  public Wfc(Topology topology, WfcFeatures wfcFeatures) {
+    this(topology.getWidth(), topology.getHeight(), topology, wfcFeatures);
+  }
+
+  public Wfc(Topology topology, WfcFeatures wfcFeatures, int seed) {
+    this(topology, wfcFeatures);
+    this.random.setSeed(seed);
+  }
+
+  private Wfc(int gridW, int gridH, Topology topology, WfcFeatures wfcFeatures) {
+    this.gridW = gridW;
+    this.gridH = gridH;
+    this.ownTopology = topology;
+    this.collapseEvents = new CollapseEventLog(gridW * gridH, COLLAPSE_EVENT_CAPACITY);
+
+    setWfcFeatures(wfcFeatures);
+  }
+
   // ===================================================================================================================
   // Functionality
   // ===================================================================================================================
+  /**
+   * Runs until every tile is collapsed, or until the run is cancelled or passes its time limit. A run that was begun by
+   * {@link #step(int)} or {@link #runFor(Duration)} is carried on to the end.
+   */
   public void run() {
+    advance(Long.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Collapses at most the given number of tiles, and returns where the run stands. A call while no run is in progress
+   * begins a new one, and later calls carry on with it until it is over. Runs stepped this way give the same grid as
+   * {@link #run()} for a given seed, however they are split up.
+   */
+  public RunStatus step(int maxCollapses) {
+    if (maxCollapses < 1) {
+      throw new IllegalArgumentException("Must collapse at least 1 tile per step, got " + maxCollapses);
+    }
+    return advance(maxCollapses, Long.MAX_VALUE);
+  }
+
+  /**
+   * Carries on with the run for about the given time, such as the budget of a frame, and returns where it stands. Like
+   * {@link #step(int)} it begins a new run when none is in progress. Given any time at all, at least one tile is
+   * collapsed per call, and the time is only checked between collapses, so a call can overrun by the time one
+   * propagation takes. Given no time, it only begins the run, without collapsing a tile.
+   */
+  public RunStatus runFor(Duration duration) {
+    if (duration.isZero() || duration.isNegative()) {
+      return advance(0, Long.MAX_VALUE);
+    }
+    return advance(Long.MAX_VALUE, System.nanoTime() + duration.toNanos());
+  }
+
+  private RunStatus advance(long maxCollapses, long stopNanos) {
+    if (running) {
+      counters.resume();
+    } else if (cancelled) {
+      cancelled = false;
+      return RunStatus.CANCELLED;
+    } else {
+      begin();
+    }
+
+    for (long collapses = 0; collapses < maxCollapses; collapses++) {
+      if (cancelled) {
+        cancelled = false;
+        return end(RunStatus.CANCELLED);
+      }
+      if (timeLimitNanos > 0 && System.nanoTime() - deadlineNanos >= 0) {
+        return end(RunStatus.TIMED_OUT);
+      }
+
+      if (!pendingConstraints.isEmpty()) {
+        applyPendingConstraints();
+      }
+      collapseTile();
+      if (!running) {
+        return end(RunStatus.FINISHED);
+      }
+      propagate();
+      counters.publish();
+
+      if (stopNanos != Long.MAX_VALUE && System.nanoTime() - stopNanos >= 0) {
+        break;
+      }
+    }
+
+    counters.pause();
+    return RunStatus.RUNNING;
+  }
+
+  private void begin() {
+    runEvent = new RunEvent();
+    runEvent.begin();
+    counters.startRun();
+    deadlineNanos = counters.runStartNanos + timeLimitNanos;
+
     running = true;
+    restarts = 0;
+    acceptPendingConstraints();
+    start();
+    counters.publish();
+  }
 
-    // Create entropy lists
-    entropyLists = new IntArrayList[modules.length - 1];
-    for (int i = 0; i < modules.length - 1; i++) {
-      entropyLists[i] = new IntArrayList();
+  private RunStatus end(RunStatus status) {
+    running = false;
+    counters.endRun();
+    if (runEvent.shouldCommit()) {
+      runEvent.width = gridW;
+      runEvent.height = gridH;
+      runEvent.modules = modules.length;
+      runEvent.engine = propagationEngine.name();
+      runEvent.status = status.name();
+      runEvent.collapses = counters.collapses;
+      runEvent.contradictions = counters.contradictions;
+      runEvent.backtracks = counters.backtracks;
+      runEvent.restarts = restarts;
+      runEvent.tileUpdates = counters.tileUpdates;
+      runEvent.commit();
     }
+    runEvent = null;
+    return status;
+  }
+
+  /**
+   * Stops the run in progress before its next collapse, or the next run to begin when none is in progress. This may be
+   * called from any thread. The grid is left as it is, with the tiles the run didn't get to still open.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
 
-    // Create the grid
-    synchronized (this) {
-      grid = new PossibilitySet[gridW][gridH];
-      locationInEntropyList = new int[gridW][gridH];
-      IntArrayList maxEntropyList = entropyLists[modules.length - 2];
+  /**
+   * Creates a fresh grid and propagates it, which is also where a restart begins.
+   */
+  private void start() {
+    backtracks = 0;
+    collapseEvents.reset();
+    if (decisionRecorder != null) {
+      decisionRecorder.reset();
+    }
 
-      for (int x = 0; x < gridW; x++) {
-        for (int y = 0; y < gridH; y++) {
-          grid[x][y] = new PossibilitySet(modules.length, true);
-          locationInEntropyList[x][y] = maxEntropyList.size();
-          maxEntropyList.add(x * gridH + y);
+    // Create the grid, right away in the state it propagates to when another run already found that
+    int tileCount = gridW * gridH;
+    FixedPointCache.FixedPoint fixedPoint = fixedPoints != null ? fixedPoints.get(propagationEngine) : null;
+    Grid newGrid = new Grid(gridW, gridH, classCount);
+    if (classes != null) {
+      if (!replaying) {
+        expansionSeed = random.nextLong();
+      }
+      newGrid.classes = classes;
+      newGrid.expansionSeed = expansionSeed;
+    }
+    if (fixedPoint != null) {
+      newGrid.copyFrom(fixedPoint.words(), fixedPoint.entropy());
+    } else {
+      newGrid.fill();
+    }
+    tileSelector = switch (tileSelection) {
+      case FEWEST_POSSIBILITIES -> new EntropyBuckets(tileCount, classCount);
+      case LOWEST_ENTROPY -> new EntropyHeap(newGrid, classCount, weights, random);
+    };
+    trail = backtrackBudget > 0 && !replaying ? new Trail(newGrid, MAX_TRAIL_DECISIONS) : null;
+    newGrid.trail = trail;
+    grid = newGrid;
+
+    entropyBeforePropagation = new int[tileCount];
+    changedTiles = new int[1024];
+    changedTilesCount = 0;
+
+    propagator = switch (propagationEngine) {
+      case CLASSIC -> classCount <= SingleWordPropagator.MAX_MODULES
+          ? new SingleWordPropagator(this, grid, neighbourTable, possibleModules, counters)
+          : new ClassicPropagator(this, grid, neighbourTable, possibleModules, supportMaskCache, counters);
+      case SUPPORT_COUNTING -> new SupportCountingPropagator(this, grid, neighbourTable, possibleModules, counters);
+    };
+
+    // A contradiction in here restarts from within, that time is part of the time measured by the outer call
+    long initialPropagationNanos = counters.initialPropagationNanos;
+    long propagationStart = System.nanoTime();
+    if (fixedPoint != null) {
+      propagator.restoreInitialState(fixedPoint.propagatorState());
+      // The tile selector still has every tile fully open, it catches up together with the preset modules
+      for (int tile = 0; tile < tileCount; tile++) {
+        if (grid.entropy[tile] < classCount) {
+          tileChanged(tile, classCount);
         }
       }
+    } else {
+      propagator.initialise();
+      propagator.propagate();
+      if (fixedPoints != null && !grid.contradiction && tileCount <= FixedPointCache.MAX_CACHED_TILES) {
+        fixedPoints.put(propagationEngine, new FixedPointCache.FixedPoint(grid.words.clone(), grid.entropy.clone(),
+            propagator.saveInitialState()));
+      }
     }
-
-    for (int x = 0; x < gridW; x++) {
-      for (int y = 0; y < gridH; y++) {
-        updateTile(x, y, Direction.UP);
-        updateTile(x, y, Direction.RIGHT);
-        updateTile(x, y, Direction.DOWN);
-        updateTile(x, y, Direction.LEFT);
+    for (TileConstraints batch : constraints) {
+      applyConstraints(batch);
+    }
+    propagate();
+    counters.initialPropagationNanos = initialPropagationNanos + System.nanoTime() - propagationStart;
+
+    // With a single class every tile starts out collapsed, so there is nothing left to select
+    if (classCount == 1) {
+      for (int tile = 0; tile < tileCount; tile++) {
+        if (grid.entropy[tile] == 1) {
+          collapseEvents.publish(tile, grid.moduleOf(tile, 0));
+        }
       }
     }
+  }
+
+  private void acceptPendingConstraints() {
+    TileConstraints batch;
+    while ((batch = pendingConstraints.poll()) != null) {
+      constraints.add(batch);
+    }
+  }
+
+  /**
+   * Applies the constraints that came in during the run, all of them before a single propagation. They can't be undone
+   * by backtracking, so the decisions made so far are forgotten, and a contradiction restarts the run with them.
+   */
+  private void applyPendingConstraints() {
+    if (trail != null) {
+      trail.forget();
+    }
+    TileConstraints batch;
+    while ((batch = pendingConstraints.poll()) != null) {
+      constraints.add(batch);
+      applyConstraints(batch);
+    }
+    propagate();
+    counters.publish();
+  }
 
-    while (running) {
-      while (!stack.isEmpty()) {
-        QueueElm qe = stack.pop();
-        updateTile(qe.x, qe.y, qe.direction);
+  /**
+   * Constrains the tiles without propagating, so that a whole batch is propagated in one go.
+   */
+  private void applyConstraints(TileConstraints batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      int tile = batch.getX(i) * gridH + batch.getY(i);
+      int module = batch.getModule(i);
+      if (module >= 0) {
+        pinTile(tile, module);
+      } else {
+        restrictTile(tile, batch.getMask(i).words());
       }
-      collapseTile();
     }
   }
 
-  public void updateTile(int x, int y, Direction direction) {
-    x = (x + gridW) % gridW;
-    y = (y + gridH) % gridH;
-    PossibilitySet tile = grid[x][y];
-    int startEntropy = tile.getEntropy();
+  /**
+   * Collapses a tile to a module without propagating. A module the tile no longer has leaves it with nothing.
+   */
+  private void pinTile(int tile, int module) {
+    int moduleClass = classes != null ? classes.classOf[module] : module;
+    int startEntropy = grid.entropy[tile];
+    if (!grid.hasPossibility(tile, moduleClass) || !grid.allowsModule(tile, module)) {
+      intersectTile(tile, new long[grid.wordsPerTile]);
+      return;
+    }
+
+    if (classes != null) {
+      grid.pin(tile, module);
+    }
+    if (startEntropy > 1) {
+      tileChanged(tile, startEntropy);
+      propagator.collapse(tile, moduleClass);
+    } else if (classes != null) {
+      // Already collapsed to the class, which may have shown another of its modules so far
+      collapseEvents.publish(tile, module);
+    }
+  }
 
-    if (startEntropy <= 1) {
+  /**
+   * Limits a tile to the words of a set of modules without propagating. Classes with part of their modules in the set
+   * stay possible, and the tile remembers which of their modules it may become. A class that earlier constraints left
+   * other modules of than this one has no module left, and is removed.
+   */
+  private void restrictTile(int tile, long[] moduleWords) {
+    if (classes == null) {
+      intersectTile(tile, moduleWords);
       return;
     }
+    if (!classes.isWhole(moduleWords)) {
+      moduleWords = grid.allow(tile, moduleWords);
+    }
+    intersectTile(tile, classes.classesOf(moduleWords));
+  }
 
-    switch (direction) {
-      case UP:
-        if (y > 0 || loopEdgesEnabledY) {
-          PossibilitySet possibilities = new PossibilitySet(modules.length, false);
-          for (int i : grid[x][(y + gridH - 1) % gridH].getPossibilitiesAsArray()) {
-            possibilities.unionWith(possibleModulesDown[i]);
-          }
-          tile.intersectionWith(possibilities);
-        }
-        break;
-      case RIGHT:
-        if (x > 0 || loopEdgesEnabledX) {
-          PossibilitySet possibilities = new PossibilitySet(modules.length, false);
-          for (int i : grid[(x + 1) % gridW][y].getPossibilitiesAsArray()) {
-            possibilities.unionWith(possibleModulesLeft[i]);
-          }
-          tile.intersectionWith(possibilities);
-        }
-        break;
-      case DOWN:
-        if (y < gridH - 1 || loopEdgesEnabledY) {
-          PossibilitySet possibilities = new PossibilitySet(modules.length, false);
-          for (int i : grid[x][(y + 1) % gridH].getPossibilitiesAsArray()) {
-            possibilities.unionWith(possibleModulesUp[i]);
-          }
-          tile.intersectionWith(possibilities);
-        }
-        break;
-      case LEFT:
-        if (x < gridW - 1 || loopEdgesEnabledX) {
-          PossibilitySet possibilities = new PossibilitySet(modules.length, false);
-          for (int i : grid[(x + gridW - 1) % gridW][y].getPossibilitiesAsArray()) {
-            possibilities.unionWith(possibleModulesRight[i]);
+  /**
+   * Intersects a tile with the words of a set of classes without propagating.
+   */
+  private void intersectTile(int tile, long[] mask) {
+    int startEntropy = grid.entropy[tile];
+    if (grid.intersect(tile, mask, 0) < startEntropy) {
+      tileChanged(tile, startEntropy);
+      propagator.removed(tile);
+    }
+  }
+
+  /**
+   * Rebuilds the grid of a logged run, without picking tiles or modules and without backtracking. The Wfc needs the
+   * same size, features and constraints as the run that made the log. All entries are applied before a single
+   * propagation, which gives the same grid as applying them in turn, since propagation only ever removes
+   * possibilities.
+   *
+   * @return whether every tile ended up collapsed, which is the case for the log of a finished run without
+   *         contradictions
+   * @throws IllegalArgumentException when the log was made for another number of tiles or modules
+   */
+  public boolean replay(DecisionLog log) {
+    if (running) {
+      throw new IllegalStateException("Can't replay during a run");
+    }
+    if (log.getTileCount() != gridW * gridH || log.getModuleCount() != modules.length) {
+      throw new IllegalArgumentException("The log is for " + log.getTileCount() + " tiles and " + log.getModuleCount()
+          + " modules, not " + gridW * gridH + " and " + modules.length);
+    }
+
+    counters.startRun();
+    replaying = true;
+    expansionSeed = log.getExpansionSeed();
+    try {
+      acceptPendingConstraints();
+      start();
+
+      int[] entries = log.entries();
+      for (int i = 0; i < entries.length; i += 2) {
+        int tile = entries[i] >>> 1;
+        int module = entries[i + 1];
+        if ((entries[i] & 1) == 0) {
+          pinTile(tile, module);
+        } else {
+          int startEntropy = grid.entropy[tile];
+          grid.remove(tile, classes != null ? classes.classOf[module] : module);
+          if (grid.entropy[tile] < startEntropy) {
+            tileChanged(tile, startEntropy);
+            propagator.removed(tile);
           }
-          tile.intersectionWith(possibilities);
         }
-        break;
+      }
+      propagate();
+    } finally {
+      replaying = false;
+      counters.endRun();
     }
 
-    if (tile.getEntropy() < startEntropy) {
-      moveBetweenEntropyLists(x, y, startEntropy, tile.getEntropy());
+    for (int tile = 0; tile < gridW * gridH; tile++) {
+      if (grid.entropy[tile] != 1) {
+        return false;
+      }
+    }
+    return true;
+  }
 
-      switch (direction) {
-        case UP:
-          stack.push(new QueueElm(x + 1, y, Direction.LEFT));
-          stack.push(new QueueElm(x, y + 1, Direction.UP));
-          stack.push(new QueueElm(x - 1, y, Direction.RIGHT));
-          break;
-        case DOWN:
-          stack.push(new QueueElm(x, y - 1, Direction.DOWN));
-          stack.push(new QueueElm(x + 1, y, Direction.LEFT));
-          stack.push(new QueueElm(x - 1, y, Direction.RIGHT));
-          break;
-        case LEFT:
-          stack.push(new QueueElm(x, y - 1, Direction.DOWN));
-          stack.push(new QueueElm(x + 1, y, Direction.LEFT));
-          stack.push(new QueueElm(x, y + 1, Direction.UP));
-          break;
-        case RIGHT:
-          stack.push(new QueueElm(x, y - 1, Direction.DOWN));
-          stack.push(new QueueElm(x, y + 1, Direction.UP));
-          stack.push(new QueueElm(x - 1, y, Direction.RIGHT));
-          break;
+  private void propagate() {
+    propagator.propagate();
+    while (grid.contradiction) {
+      backtrack();
+    }
+    applyEntropyChanges();
+  }
+
+  /**
+   * Undoes the last decision and bans the module it chose, then propagates that. When the budget is used up, or there
+   * is no decision left to undo, the run restarts from scratch. Once the restarts are used up as well, backtracking is
+   * switched off and the contradiction is left in the grid as empty tiles.
+   */
+  private void backtrack() {
+    boolean outOfDecisions = trail.getDecisionCount() == 0 || backtracks >= backtrackBudget;
+    counters.contradictions++;
+    reportContradiction(outOfDecisions && restarts < maxRestarts);
+
+    if (outOfDecisions) {
+      if (restarts < maxRestarts) {
+        restarts++;
+        counters.restarts = restarts;
+        start();
+        return;
       }
+
+      // Give up on backtracking, and carry on with the propagation where it stopped
+      grid.trail = null;
+      grid.contradiction = false;
+      trail = null;
+      propagator.propagate();
+      return;
+    }
+
+    propagator.clear();
+    discardEntropyChanges();
+    grid.contradiction = false;
+    backtracks++;
+    counters.backtracks++;
+
+    int tile = trail.getLastDecisionTile();
+    int module = trail.getLastDecisionModule();
+    if (decisionRecorder != null) {
+      // The whole class is banned, which the log writes down as its first module
+      decisionRecorder.undoDecision();
+      decisionRecorder.ban(tile, classes != null ? classes.first(module) : module);
+    }
+    int from = trail.undoTiles();
+    propagator.restored(trail.getTiles(), from, trail.getTilesSize());
+    trail.undoMoves(this);
+
+    int startEntropy = grid.entropy[tile];
+    grid.remove(tile, module);
+    tileChanged(tile, startEntropy);
+    propagator.removed(tile);
+    propagator.propagate();
+  }
+
+  private void reportContradiction(boolean restart) {
+    ContradictionEvent event = new ContradictionEvent();
+    if (event.isEnabled()) {
+      event.x = grid.contradictionTile / gridH;
+      event.y = grid.contradictionTile % gridH;
+      event.decisions = trail.getDecisionCount();
+      event.backtracks = backtracks;
+      event.restart = restart;
+      event.commit();
     }
   }
 
   public void collapseTile(int x, int y) {
-    PossibilitySet tile = grid[x][y];
+    int tile = x * gridH + y;
+
+    int entropy = grid.entropy[tile];
+    int moduleClass = pickModule(tile, entropy);
+    int module = grid.moduleOf(tile, moduleClass);
+    if (trail != null) {
+      trail.pushDecision(tile, moduleClass);
+    }
+    if (decisionRecorder != null) {
+      decisionRecorder.decision(tile, module);
+    }
+    selectorMove(tile, entropy, 1);
+    collapseEvents.publish(tile, module);
+    counters.collapses++;
+    propagator.collapse(tile, moduleClass);
+  }
 
-    int[] possibilities = tile.getPossibilitiesAsArray();
-    moveBetweenEntropyLists(x, y, tile.getEntropy(), 1);
-    tile.collapse(possibilities[random.nextInt(possibilities.length)]);
+  /**
+   * Picks one of the possibilities of a tile, which are classes of modules, with a chance proportional to its weight.
+   */
+  private int pickModule(int tile, int entropy) {
+    if (weights == null) {
+      return grid.nthPossibility(tile, random.nextInt(entropy));
+    }
+
+    // While a good part of the modules is possible, drawing from all of them until a possible one comes up is
+    // cheapest. Both ways pick with exactly the same chances, so giving up on it after a few misses is fine.
+    if (entropy * REJECTION_SAMPLING_FRACTION >= classCount) {
+      for (int attempt = 0; attempt < MAX_REJECTION_ATTEMPTS; attempt++) {
+        int module = aliasTable.sample(random);
+        if (grid.hasPossibility(tile, module)) {
+          return module;
+        }
+      }
+    }
 
-    updateTile(x, y + 1, Direction.UP);
-    updateTile(x - 1, y, Direction.RIGHT);
-    updateTile(x, y - 1, Direction.DOWN);
-    updateTile(x + 1, y, Direction.LEFT);
+    double total = 0;
+    for (int m = grid.nextPossibility(tile, 0); m >= 0; m = grid.nextPossibility(tile, m + 1)) {
+      total += weights[m];
+    }
+    double target = random.nextDouble() * total;
+    int module = -1;
+    for (int m = grid.nextPossibility(tile, 0); m >= 0; m = grid.nextPossibility(tile, m + 1)) {
+      module = m;
+      target -= weights[m];
+      if (target < 0) {
+        break;
+      }
+    }
+    return module;
   }
 
   public void collapseTile() {
-    int entropy = 0;
-    while (entropyLists[entropy].size() == 0) {
-      entropy++;
-      if (entropy == entropyLists.length) {
-        running = false;
-        return;
-      }
+    int tileToCollapse = tileSelector.select(random);
+    if (tileToCollapse < 0) {
+      running = false;
+      return;
     }
 
-    IntArrayList entropyList = entropyLists[entropy];
-    int tileToCollapse = entropyList.get(random.nextInt(entropyList.size()));
     collapseTile(tileToCollapse / gridH, tileToCollapse % gridH);
   }
 
-  private void moveBetweenEntropyLists(int x, int y, int oldEntropy, int newEntropy) {
-    IntArrayList oldList = entropyLists[oldEntropy - 2];
-    int lastValue = oldList.get(oldList.size() - 1);
-    locationInEntropyList[lastValue / gridH][lastValue % gridH] = locationInEntropyList[x][y];
+  /**
+   * Called by the propagator the first time a tile loses possibilities during propagation.
+   */
+  void tileChanged(int tile, int startEntropy) {
+    if (startEntropy == 0 || entropyBeforePropagation[tile] != 0) {
+      return;
+    }
+    entropyBeforePropagation[tile] = startEntropy;
+
+    if (changedTilesCount == changedTiles.length) {
+      changedTiles = Arrays.copyOf(changedTiles, changedTilesCount * 2);
+    }
+    changedTiles[changedTilesCount] = tile;
+    changedTilesCount++;
+  }
+
+  private void discardEntropyChanges() {
+    for (int i = 0; i < changedTilesCount; i++) {
+      entropyBeforePropagation[changedTiles[i]] = 0;
+    }
+    changedTilesCount = 0;
+  }
+
+  private void applyEntropyChanges() {
+    int tileCount = gridW * gridH;
+    if (changedTilesCount * 16 > tileCount) {
+      // Most of the grid changed, scanning it is cheaper than sorting
+      for (int tile = 0; tile < tileCount; tile++) {
+        applyEntropyChange(tile);
+      }
+    } else {
+      Arrays.sort(changedTiles, 0, changedTilesCount);
+      for (int i = 0; i < changedTilesCount; i++) {
+        applyEntropyChange(changedTiles[i]);
+      }
+    }
+    changedTilesCount = 0;
+  }
+
+  private void applyEntropyChange(int tile) {
+    int startEntropy = entropyBeforePropagation[tile];
+    if (startEntropy != 0) {
+      int entropy = grid.entropy[tile];
+      // Collapsed tiles are not in the tile selector, and can only change by losing their module to a contradiction
+      if (startEntropy > 1) {
+        selectorMove(tile, startEntropy, entropy);
+      }
+      if (entropy == 1) {
+        collapseEvents.publish(tile, grid.moduleOf(tile, grid.nextPossibility(tile, 0)));
+      } else if (startEntropy == 1) {
+        collapseEvents.publish(tile, -1);
+      }
+      entropyBeforePropagation[tile] = 0;
+    }
+  }
 
-    oldList.set(locationInEntropyList[x][y], lastValue);
-    oldList.remove(oldList.size() - 1);
+  private void selectorMove(int tile, int oldEntropy, int newEntropy) {
+    if (trail != null) {
+      trail.recordMove(tile, oldEntropy, tileSelector.location(tile), newEntropy);
+    }
+    tileSelector.move(tile, oldEntropy, newEntropy);
+  }
 
-    newEntropy -= 2;
-    if (newEntropy >= 0) {
-      locationInEntropyList[x][y] = entropyLists[newEntropy].size();
-      entropyLists[newEntropy].add(x * gridH + y);
+  /**
+   * Exactly reverses a {@link #selectorMove(int, int, int)}, provided every later move was reversed first.
+   */
+  void undoSelectorMove(int tile, int oldEntropy, int oldLocation, int newEntropy) {
+    tileSelector.undoMove(tile, oldEntropy, oldLocation, newEntropy);
+    if (newEntropy == 1) {
+      collapseEvents.publish(tile, -1);
     }
   }
 
@@ -227,28 +666,206 @@ public final class Wfc implements Runnable {
     return gridH;
   }
 
-  public synchronized PossibilitySet[][] getGrid() {
-    if (grid == null) {
-      return new PossibilitySet[0][0];
+  /**
+   * Returns a read-only view of the grid, which keeps changing while the algorithm runs. Reading it from another thread
+   * while it runs is not synchronised in any way, use {@link #observe()} for that.
+   */
+  public GridView getGrid() {
+    Grid current = grid;
+    if (current == null) {
+      return new Grid(0, 0, modules.length);
     }
-    return grid.clone();
+    return current;
   }
 
   public Module getModule(int index) {
     return modules[index];
   }
 
+  /**
+   * Returns whether a run is in progress, which includes a run that is paused between calls to {@link #step(int)}.
+   */
   public boolean isRunning() {
     return running;
   }
 
+  /**
+   * Returns a new observer that follows the collapses of this Wfc from another thread, see {@link GridObserver}.
+   */
+  public GridObserver observe() {
+    return new GridObserver(collapseEvents, gridW, gridH);
+  }
+
+  /**
+   * Returns how many times the current run backtracked since it last (re)started.
+   */
+  public int getBacktracks() {
+    return backtracks;
+  }
+
+  /**
+   * Returns how many times the current run had to start over because backtracking did not resolve a contradiction.
+   */
+  public int getRestarts() {
+    return restarts;
+  }
+
+  /**
+   * Returns what the current or last run has done so far. This is safe to call from any thread at any time, the counts
+   * are brought up to date after every step of the run.
+   */
+  public WfcMetrics getMetrics() {
+    return counters.snapshot();
+  }
+
+  public int getBacktrackBudget() {
+    return backtrackBudget;
+  }
+
+  /**
+   * Sets how many times a run may backtrack before it starts over. A budget of 0 disables backtracking, in which case
+   * a contradiction is left in the grid as tiles without any possibility.
+   */
+  public void setBacktrackBudget(int backtrackBudget) {
+    this.backtrackBudget = backtrackBudget;
+  }
+
+  public int getMaxRestarts() {
+    return maxRestarts;
+  }
+
+  /**
+   * Sets how many times a run may start over when backtracking runs out of budget or of decisions to undo.
+   */
+  public void setMaxRestarts(int maxRestarts) {
+    this.maxRestarts = maxRestarts;
+  }
+
+  /**
+   * Pins tiles to modules or limits them to sets of modules, see {@link TileConstraints}. The batch is copied, and may
+   * be handed in from any thread. Before a run, it is applied to the fresh grid together with all earlier batches.
+   * During a run, it is applied between two steps, where it can't be undone by backtracking. Either way the whole batch
+   * is propagated once, not once per tile, and it stays for restarts and later runs until {@link #clearConstraints()}.
+   */
+  public void constrain(TileConstraints batch) {
+    int moduleCount = modules.length;
+    for (int i = 0; i < batch.size(); i++) {
+      int x = batch.getX(i);
+      int y = batch.getY(i);
+      if (x < 0 || x >= gridW || y < 0 || y >= gridH) {
+        throw new IllegalArgumentException("Tile " + x + ", " + y + " is outside the grid of " + gridW + "x" + gridH);
+      }
+      int module = batch.getModule(i);
+      if (module >= moduleCount) {
+        throw new IllegalArgumentException("Module " + module + " out of bounds for " + moduleCount + " modules");
+      }
+      if (module < 0 && batch.getMask(i).getPossibilitiesCount() != moduleCount) {
+        throw new IllegalArgumentException("Expected a set of " + moduleCount + " modules, got "
+            + batch.getMask(i).getPossibilitiesCount());
+      }
+    }
+    pendingConstraints.add(new TileConstraints(batch));
+  }
+
+  /**
+   * Removes all constraints, for the next run.
+   */
+  public void clearConstraints() {
+    if (running) {
+      throw new IllegalStateException("Constraints can't be cleared during a run");
+    }
+    constraints.clear();
+    pendingConstraints.clear();
+  }
+
+  /**
+   * Returns the time limit of a run, or null when there is none.
+   */
+  public Duration getTimeLimit() {
+    return timeLimitNanos > 0 ? Duration.ofNanos(timeLimitNanos) : null;
+  }
+
+  /**
+   * Limits how long a run may take from when it begins, including the time it was paused between steps. A run that
+   * passes the limit stops before its next collapse with {@link RunStatus#TIMED_OUT}. Pass null for no limit. This
+   * takes effect for the next run.
+   */
+  public void setTimeLimit(Duration timeLimit) {
+    if (timeLimit != null && (timeLimit.isNegative() || timeLimit.isZero())) {
+      throw new IllegalArgumentException("Time limit must be positive, got " + timeLimit);
+    }
+    this.timeLimitNanos = timeLimit == null ? 0 : timeLimit.toNanos();
+  }
+
+  public boolean isDecisionLogEnabled() {
+    return decisionRecorder != null;
+  }
+
+  /**
+   * Turns logging the decisions of the next runs on or off, see {@link #getDecisionLog()}.
+   */
+  public void setDecisionLogEnabled(boolean decisionLogEnabled) {
+    if (decisionLogEnabled != (decisionRecorder != null)) {
+      decisionRecorder = decisionLogEnabled ? new DecisionRecorder() : null;
+    }
+  }
+
+  /**
+   * Returns the decisions of the last run so far, or null when they are not logged. Like the grid, this is only up to
+   * date when read by the thread that runs the Wfc, or after the run.
+   */
+  public DecisionLog getDecisionLog() {
+    if (decisionRecorder == null) {
+      return null;
+    }
+    return decisionRecorder.toLog(gridW * gridH, modules.length, classes != null ? expansionSeed : 0);
+  }
+
+  public PropagationEngine getPropagationEngine() {
+    return propagationEngine;
+  }
+
+  /**
+   * Selects the propagation engine for the next {@link #run()}. Both engines give the same result for a given seed.
+   */
+  public void setPropagationEngine(PropagationEngine propagationEngine) {
+    this.propagationEngine = propagationEngine;
+  }
+
+  public TileSelection getTileSelection() {
+    return tileSelection;
+  }
+
+  /**
+   * Selects how the next {@link #run()} chooses the tile to collapse.
+   */
+  public void setTileSelection(TileSelection tileSelection) {
+    this.tileSelection = tileSelection;
+  }
+
   public void setWfcFeatures(WfcFeatures wfcFeatures) {
-    modules = wfcFeatures.getModules();
-    possibleModulesUp = wfcFeatures.getPossibleModulesUp();
-    possibleModulesRight = wfcFeatures.getPossibleModulesRight();
-    possibleModulesDown = wfcFeatures.getPossibleModulesDown();
-    possibleModulesLeft = wfcFeatures.getPossibleModulesLeft();
-    loopEdgesEnabledX = wfcFeatures.isLoopEdgesEnabledX();
-    loopEdgesEnabledY = wfcFeatures.isLoopEdgesEnabledY();
+    modules = wfcFeatures.modules();
+    possibleModules = wfcFeatures.getPossibleModulesWords();
+    supportMaskCache = wfcFeatures.getSupportMaskCache();
+    ModuleClasses moduleClasses = wfcFeatures.getModuleClasses();
+    classes = moduleClasses.isTrivial() ? null : moduleClasses;
+    classCount = moduleClasses.count;
+    weights = wfcFeatures.getClassWeights();
+    aliasTable = wfcFeatures.getClassAliasTable();
+
+    Topology topology = ownTopology != null ? ownTopology
+        : new SquareTopology(gridW, gridH, wfcFeatures.isLoopEdgesEnabledX(), wfcFeatures.isLoopEdgesEnabledY());
+    FixedPointCache fixedPointCache = wfcFeatures.getFixedPointCache();
+    if (fixedPointCache != null) {
+      fixedPoints = fixedPointCache.entry(topology);
+      neighbourTable = fixedPoints.neighbourTable;
+    } else {
+      fixedPoints = null;
+      neighbourTable = new NeighbourTable(topology);
+    }
+    if (wfcFeatures.getDirectionCount() != neighbourTable.directionCount) {
+      throw new IllegalArgumentException("The modules have " + wfcFeatures.getDirectionCount()
+          + " keys, but the topology has " + neighbourTable.directionCount + " directions");
+    }
   }
 }
@@ -0,0 +1,250 @@
+package nl.basmens.wfc;
+
+import java.util.HashSet;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Generates many grids from one set of features, one for each seed, in parallel. The features are frozen, so every
+ * run shares the same rule tables and allowed-mask cache without copying them.
+ *
+ * <p>
+ * Grids are streamed back in the order in which they finish, not in the order of the seeds. Only a limited number of
+ * runs is in flight at any time, so a slow consumer doesn't pile up finished grids in memory.
+ */
+public final class WfcBatch {
+  private final int gridW;
+  private final int gridH;
+  private final WfcFeatures wfcFeatures;
+
+  private Executor executor = ForkJoinPool.commonPool();
+  private int maxInFlight = Runtime.getRuntime().availableProcessors() * 2;
+  private PropagationEngine propagationEngine = PropagationEngine.CLASSIC;
+  private TileSelection tileSelection = TileSelection.FEWEST_POSSIBILITIES;
+  private int backtrackBudget = Wfc.DEFAULT_BACKTRACK_BUDGET;
+  private int maxRestarts = Wfc.DEFAULT_MAX_RESTARTS;
+
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder busyNanos = new LongAdder();
+  private final LongAccumulator firstStartNanos = new LongAccumulator(Math::min, Long.MAX_VALUE);
+  private final LongAccumulator lastFinishNanos = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+  /**
+   * A finished grid, together with the seed it was generated from.
+   */
+  public record Result(int seed, GridView grid, int backtracks, int restarts, long runNanos) {
+  }
+
+  /**
+   * The throughput of a batch so far. Elapsed time runs from the start of the first run to the end of the last one
+   * that finished, busy time is the sum of the times of the separate runs.
+   */
+  public record Stats(long completed, long failed, long tiles, long elapsedNanos, long busyNanos) {
+    public double getGridsPerSecond() {
+      return elapsedNanos == 0 ? 0 : completed * 1e9 / elapsedNanos;
+    }
+
+    public double getTilesPerSecond() {
+      return elapsedNanos == 0 ? 0 : tiles * 1e9 / elapsedNanos;
+    }
+
+    public double getMeanRunMillis() {
+      return completed == 0 ? 0 : busyNanos / 1e6 / completed;
+    }
+  }
+
+  // ===================================================================================================================
+  // Constructor
+  // ===================================================================================================================
+  /**
+   * Creates a batch for grids of the given size. The features are frozen, see {@link WfcFeatures#freeze()}.
+   */
+  public WfcBatch(int gridW, int gridH, WfcFeatures wfcFeatures) {
+    this.gridW = gridW;
+    this.gridH = gridH;
+    this.wfcFeatures = wfcFeatures.freeze();
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Starts a run for every seed and streams the grids back as they finish. Runs are only submitted while the stream is
+   * being consumed. Closing the stream cancels the runs that haven't started yet, the ones that did start finish in
+   * the background. A run that failed rethrows its exception from the stream, wrapped in a
+   * {@link CompletionException}.
+   */
+  public Stream<Result> stream(IntStream seeds) {
+    PrimitiveIterator.OfInt seedIterator = seeds.iterator();
+    ExecutorCompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
+    Set<Future<Result>> pending = new HashSet<>();
+
+    // Settings are read once, so changing them doesn't affect a stream that is already running
+    int limit = Math.max(1, maxInFlight);
+    PropagationEngine engine = propagationEngine;
+    TileSelection selection = tileSelection;
+    int budget = backtrackBudget;
+    int restarts = maxRestarts;
+
+    Spliterator<Result> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+        Spliterator.NONNULL | Spliterator.IMMUTABLE) {
+      @Override
+      public boolean tryAdvance(Consumer<? super Result> action) {
+        while (pending.size() < limit && seedIterator.hasNext()) {
+          int seed = seedIterator.nextInt();
+          pending.add(completionService.submit(() -> generate(seed, engine, selection, budget, restarts)));
+        }
+        if (pending.isEmpty()) {
+          return false;
+        }
+
+        Future<Result> future = take(completionService);
+        pending.remove(future);
+        action.accept(get(future));
+        return true;
+      }
+    };
+
+    return StreamSupport.stream(spliterator, false).onClose(() -> {
+      for (Future<Result> future : pending) {
+        future.cancel(false);
+      }
+      pending.clear();
+    });
+  }
+
+  public Stream<Result> stream(int... seeds) {
+    return stream(IntStream.of(seeds));
+  }
+
+  private Result generate(int seed, PropagationEngine engine, TileSelection selection, int budget, int restarts) {
+    long start = System.nanoTime();
+    firstStartNanos.accumulate(start);
+    try {
+      Wfc wfc = new Wfc(gridW, gridH, wfcFeatures, seed);
+      wfc.setPropagationEngine(engine);
+      wfc.setTileSelection(selection);
+      wfc.setBacktrackBudget(budget);
+      wfc.setMaxRestarts(restarts);
+      wfc.run();
+
+      long end = System.nanoTime();
+      busyNanos.add(end - start);
+      lastFinishNanos.accumulate(end);
+      completed.increment();
+      return new Result(seed, wfc.getGrid(), wfc.getBacktracks(), wfc.getRestarts(), end - start);
+    } catch (RuntimeException | Error e) {
+      failed.increment();
+      throw e;
+    }
+  }
+
+  private static Future<Result> take(ExecutorCompletionService<Result> completionService) {
+    try {
+      return completionService.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for a grid");
+    }
+  }
+
+  private static Result get(Future<Result> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new CompletionException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for a grid");
+    }
+  }
+
+  // ===================================================================================================================
+  // Getters and Setters
+  // ===================================================================================================================
+  /**
+   * Returns the throughput of every run of this batch so far, over all streams.
+   */
+  public Stats getStats() {
+    long done = completed.sum();
+    long first = firstStartNanos.get();
+    long last = lastFinishNanos.get();
+    long elapsed = done == 0 ? 0 : Math.max(0, last - first);
+    return new Stats(done, failed.sum(), done * gridW * gridH, elapsed, busyNanos.sum());
+  }
+
+  public WfcFeatures getWfcFeatures() {
+    return wfcFeatures;
+  }
+
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Sets the executor the runs are submitted to, the common {@link ForkJoinPool} by default. On Java 21 and newer,
+   * {@code Executors.newVirtualThreadPerTaskExecutor()} gives every run a virtual thread of its own.
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Sets how many runs a stream keeps submitted at once. Every run in flight holds a whole grid in memory.
+   */
+  public void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  public PropagationEngine getPropagationEngine() {
+    return propagationEngine;
+  }
+
+  public void setPropagationEngine(PropagationEngine propagationEngine) {
+    this.propagationEngine = propagationEngine;
+  }
+
+  public TileSelection getTileSelection() {
+    return tileSelection;
+  }
+
+  public void setTileSelection(TileSelection tileSelection) {
+    this.tileSelection = tileSelection;
+  }
+
+  public int getBacktrackBudget() {
+    return backtrackBudget;
+  }
+
+  public void setBacktrackBudget(int backtrackBudget) {
+    this.backtrackBudget = backtrackBudget;
+  }
+
+  public int getMaxRestarts() {
+    return maxRestarts;
+  }
+
+  public void setMaxRestarts(int maxRestarts) {
+    this.maxRestarts = maxRestarts;
+  }
+}
@@ -1,89 +1,210 @@
 package nl.basmens.wfc;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Set;
+
+import cern.colt.list.IntArrayList;
 
 public class WfcFeatures {
+  public static final int DEFAULT_SUPPORT_MASK_CACHE_CAPACITY = 4096;
+  public static final int DEFAULT_FIXED_POINT_CACHE_CAPACITY = 8;
+
   private Module[] modules;
-  private PossibilitySet[] possibleModulesUp;
-  private PossibilitySet[] possibleModulesRight;
-  private PossibilitySet[] possibleModulesDown;
-  private PossibilitySet[] possibleModulesLeft;
+  // The index in the array passed to the constructor that every module was rotated from
+  private int[] sourceModules;
+  // The modules grouped by their keys, the solver only tells these classes apart
+  private ModuleClasses moduleClasses;
+  // The possibleModules* tables of the classes packed per direction, in the layout of the grid
+  private long[][] possibleModulesWords;
+  // The same tables as sets, indexed by direction. Runs only use the packed tables, so these are made the first time a
+  // possibleModules* getter asks for them.
+  private final PossibilitySet[][] possibleModuleSets;
+  private boolean isWeighted;
+  // The weight of every class, or null when they all weigh the same and a plain uniform pick will do
+  private double[] classWeights;
+  private AliasTable classAliasTable;
+
+  private SupportMaskCache supportMaskCache = new SupportMaskCache(DEFAULT_SUPPORT_MASK_CACHE_CAPACITY);
+  private FixedPointCache fixedPointCache = new FixedPointCache(DEFAULT_FIXED_POINT_CACHE_CAPACITY);
 
   private boolean isLoopEdgesEnabledX;
   private boolean isLoopEdgesEnabledY;
 
+  private boolean isFrozen;
+
   // ===================================================================================================================
   // Constructor
   // ===================================================================================================================
+  /**
+   * Builds the features for modules with 4 keys, for a square grid, or for modules with a key for every direction of
+   * another {@link Topology}. All modules must have the same number of keys.
+   */
   public WfcFeatures(Module[] modules, KeyPairsMap keyPairMap) {
+    CompiledKeys keys = keyPairMap.compile();
+    int directionCount = modules.length > 0 ? modules[0].getKeyCount() : 4;
+    possibleModuleSets = new PossibilitySet[directionCount][];
+
     // Eliminate invalid modules and add rotation variants
-    Set<String> possibleKeys = keyPairMap.getKeySet();
-    this.modules = Arrays.stream(modules)
-        .filter(m -> possibleKeys.contains(m.keyUp) && possibleKeys.contains(m.keyRight)
-            && possibleKeys.contains(m.keyDown) && possibleKeys.contains(m.keyLeft))
-        .flatMap(m -> Arrays.stream(m.rotations).mapToObj(r -> rotateModule(m, r)))
-        .toArray(Module[]::new);
-
-    // Track modulesWith*Key
-    int keysCount = possibleKeys.size();
-    int moduleCount = this.modules.length;
-    HashMap<String, PossibilitySet> modulesWithUpKey = new HashMap<>(keysCount);
-    HashMap<String, PossibilitySet> modulesWithRightKey = new HashMap<>(keysCount);
-    HashMap<String, PossibilitySet> modulesWithDownKey = new HashMap<>(keysCount);
-    HashMap<String, PossibilitySet> modulesWithLeftKey = new HashMap<>(keysCount);
-    for (int i = 0; i < moduleCount; i++) {
-      Module module = this.modules[i];
-      modulesWithUpKey.computeIfAbsent(module.keyUp, x -> new PossibilitySet(moduleCount, false))
-      .addPossibility(i);
-      modulesWithRightKey.computeIfAbsent(module.keyRight, x -> new PossibilitySet(moduleCount, false))
-      .addPossibility(i);
-      modulesWithDownKey.computeIfAbsent(module.keyDown, x -> new PossibilitySet(moduleCount, false))
-      .addPossibility(i);
-      modulesWithLeftKey.computeIfAbsent(module.keyLeft, x -> new PossibilitySet(moduleCount, false))
-      .addPossibility(i);
+    ArrayList<Module> rotatedModules = new ArrayList<>();
+    IntArrayList sources = new IntArrayList();
+    for (int i = 0; i < modules.length; i++) {
+      Module m = modules[i];
+      if (m.getKeyCount() != directionCount) {
+        throw new IllegalArgumentException("Module " + i + " has " + m.getKeyCount() + " keys, expected "
+            + directionCount);
+      }
+      boolean isValid = true;
+      for (int side = 0; side < directionCount; side++) {
+        isValid &= keys.id(m.getKey(side)) >= 0;
+      }
+      if (isValid) {
+        for (int rotation : m.rotations) {
+          rotatedModules.add(rotateModule(m, rotation));
+          sources.add(i);
+        }
+      }
     }
-    
-    // Fill possibleModules* arrays
-    possibleModulesUp = new PossibilitySet[moduleCount];
-    possibleModulesRight = new PossibilitySet[moduleCount];
-    possibleModulesDown = new PossibilitySet[moduleCount];
-    possibleModulesLeft = new PossibilitySet[moduleCount];
+    this.modules = rotatedModules.toArray(Module[]::new);
+    sourceModules = Arrays.copyOf(sources.elements(), sources.size());
+    moduleClasses = new ModuleClasses(this.modules);
+
+    // Intern the key of every side of every class, and track modulesWithKey per side
+    int keyCount = keys.getKeyCount();
+    int moduleCount = moduleClasses.count;
+    int wordsPerModule = Grid.wordsFor(moduleCount);
+    int[][] moduleKeys = new int[directionCount][moduleCount];
+    long[][] modulesWithKey = new long[directionCount][keyCount * wordsPerModule];
     for (int i = 0; i < moduleCount; i++) {
-      Module module = this.modules[i];
-      Set<String> possibleKeysUp = keyPairMap.getPairs(module.keyUp);
-      possibleModulesUp[i] = possibleKeysUp.stream().map(modulesWithDownKey::get)
-          .reduce(new PossibilitySet(moduleCount, false), PossibilitySet::unionWith);
-
-      Set<String> possibleKeysRight = keyPairMap.getPairs(module.keyRight);
-      possibleModulesRight[i] = possibleKeysRight.stream().map(modulesWithLeftKey::get)
-          .reduce(new PossibilitySet(moduleCount, false), PossibilitySet::unionWith);
-
-      Set<String> possibleKeysDown = keyPairMap.getPairs(module.keyDown);
-      possibleModulesDown[i] = possibleKeysDown.stream().map(modulesWithUpKey::get)
-          .reduce(new PossibilitySet(moduleCount, false), PossibilitySet::unionWith);
-
-      Set<String> possibleKeysLeft = keyPairMap.getPairs(module.keyLeft);
-      possibleModulesLeft[i] = possibleKeysLeft.stream().map(modulesWithRightKey::get)
-          .reduce(new PossibilitySet(moduleCount, false), PossibilitySet::unionWith);
+      Module module = this.modules[moduleClasses.first(i)];
+      for (int side = 0; side < directionCount; side++) {
+        int key = keys.id(module.getKey(side));
+        moduleKeys[side][i] = key;
+        modulesWithKey[side][key * wordsPerModule + i / 64] |= 1L << i;
+      }
     }
+
+    // Fill possibleModules* tables. Every module with the same key on a side gets the same row, so each distinct key
+    // ORs together the modules of the keys it pairs with once, and the modules just copy that row.
+    possibleModulesWords = new long[directionCount][];
+    for (int side = 0; side < directionCount; side++) {
+      long[] withOppositeKey = modulesWithKey[(side + directionCount / 2) % directionCount];
+      long[] rowsPerKey = new long[keyCount * wordsPerModule];
+      boolean[] isRowBuilt = new boolean[keyCount];
+      long[] table = new long[moduleCount * wordsPerModule];
+      for (int i = 0; i < moduleCount; i++) {
+        int key = moduleKeys[side][i];
+        if (!isRowBuilt[key]) {
+          for (int other = keys.nextCompatible(key, 0); other >= 0; other = keys.nextCompatible(key, other + 1)) {
+            BitKernels.or(rowsPerKey, key * wordsPerModule, withOppositeKey, other * wordsPerModule, wordsPerModule);
+          }
+          isRowBuilt[key] = true;
+        }
+        System.arraycopy(rowsPerKey, key * wordsPerModule, table, i * wordsPerModule, wordsPerModule);
+      }
+      possibleModulesWords[side] = table;
+    }
+
+    initialiseWeights();
   }
 
-  private static Module rotateModule(Module m, int rot) {
-    rot %= 4;
-    if (rot == 0) {
-      return new Module(m.keyUp, m.keyRight, m.keyDown, m.keyLeft, new int[] { 0 }, m.getChildItem());
+  /**
+   * Recreates compiled features, as read back by {@link WfcFeaturesCache}. Every module is rotated again from its
+   * source module, and the packed possibleModules* tables are taken over as they are.
+   *
+   * @throws IllegalArgumentException when the tables are not sized for the classes of the modules
+   */
+  WfcFeatures(Module[] modules, int[] sourceModules, int[] rotations, long[][] possibleModulesWords) {
+    this.sourceModules = sourceModules;
+    this.modules = new Module[sourceModules.length];
+    for (int i = 0; i < sourceModules.length; i++) {
+      this.modules[i] = rotateModule(modules[sourceModules[i]], rotations[i]);
+    }
+    moduleClasses = new ModuleClasses(this.modules);
+    int tableLength = moduleClasses.count * Grid.wordsFor(moduleClasses.count);
+    for (long[] table : possibleModulesWords) {
+      if (table.length != tableLength) {
+        throw new IllegalArgumentException("Expected tables of " + tableLength + " words, got " + table.length);
+      }
+    }
+    this.possibleModulesWords = possibleModulesWords;
+    possibleModuleSets = new PossibilitySet[possibleModulesWords.length][];
+    initialiseWeights();
+  }
 
-    } else if (rot == 1) {
-      return new Module(m.keyLeft, m.keyUp, m.keyRight, m.keyDown, new int[] { 1 }, m.getChildItem());
+  private void initialiseWeights() {
+    isWeighted = Arrays.stream(modules).anyMatch(m -> m.weight != modules[0].weight);
+    double[] weights = moduleClasses.weights();
+    if (Arrays.stream(weights).anyMatch(w -> w != weights[0])) {
+      classWeights = weights;
+      classAliasTable = new AliasTable(weights);
+    }
+  }
+
+  /**
+   * Makes these features read-only, so one instance can be shared by runs on any number of threads. The setters throw
+   * an {@link IllegalStateException} from now on, and the {@link PossibilitySet}s handed out by the possibleModules*
+   * getters are frozen as well. Freeze before handing the features to other threads.
+   *
+   * @return this, for chaining
+   */
+  public synchronized WfcFeatures freeze() {
+    if (!isFrozen) {
+      for (PossibilitySet[] table : possibleModuleSets) {
+        if (table != null) {
+          for (PossibilitySet set : table) {
+            set.freeze();
+          }
+        }
+      }
+      isFrozen = true;
+    }
+    return this;
+  }
+
+  private void checkNotFrozen() {
+    if (isFrozen) {
+      throw new IllegalStateException("These WfcFeatures are frozen");
+    }
+  }
 
-    } else if (rot == 2) {
-      return new Module(m.keyDown, m.keyLeft, m.keyUp, m.keyRight, new int[] { 2 }, m.getChildItem());
+  private synchronized PossibilitySet[] possibleModuleSets(int direction) {
+    PossibilitySet[] sets = possibleModuleSets[direction];
+    if (sets == null) {
+      int moduleCount = modules.length;
+      int wordsPerClass = Grid.wordsFor(moduleClasses.count);
+      long[] table = possibleModulesWords[direction];
+      sets = new PossibilitySet[moduleCount];
+      for (int i = 0; i < moduleCount; i++) {
+        // Every module has the row of its class, with every class expanded to its modules
+        int offset = moduleClasses.classOf[i] * wordsPerClass;
+        long[] row = new long[Grid.wordsFor(moduleCount)];
+        for (int other = 0; other < moduleCount; other++) {
+          int otherClass = moduleClasses.classOf[other];
+          if ((table[offset + otherClass / 64] & (1L << (otherClass % 64))) != 0) {
+            row[other / 64] |= 1L << (other % 64);
+          }
+        }
+        sets[i] = new PossibilitySet(moduleCount, row, 0);
+        if (isFrozen) {
+          sets[i].freeze();
+        }
+      }
+      possibleModuleSets[direction] = sets;
+    }
+    return sets;
+  }
 
-    } else {
-      return new Module(m.keyRight, m.keyDown, m.keyLeft, m.keyUp, new int[] { 3 }, m.getChildItem());
+  /**
+   * Turns a module a number of quarter turns clockwise, which moves every key that many sides further.
+   */
+  private static Module rotateModule(Module m, int rot) {
+    rot = Math.floorMod(rot, 4);
+    int keyCount = m.getKeyCount();
+    String[] keys = new String[keyCount];
+    for (int side = 0; side < keyCount; side++) {
+      keys[side] = m.getKey(Math.floorMod(side - rot, keyCount));
     }
+    return new Module(keys, new int[] { rot }, m.getChildItem(), m.weight);
   }
 
   // ===================================================================================================================
@@ -94,6 +215,7 @@ public class WfcFeatures {
   }
 
   public void setLoopEdgesEnabledX(boolean loopEdgesEnabledX) {
+    checkNotFrozen();
     this.isLoopEdgesEnabledX = loopEdgesEnabledX;
   }
 
@@ -102,30 +224,143 @@ public class WfcFeatures {
   }
 
   public void setLoopEdgesEnabledY(boolean loopEdgesEnabledY) {
+    checkNotFrozen();
     this.isLoopEdgesEnabledY = loopEdgesEnabledY;
   }
 
+  /**
+   * Returns the allowed-mask cache shared by every run on these features, or null when it is disabled.
+   */
+  public SupportMaskCache getSupportMaskCache() {
+    return supportMaskCache;
+  }
+
+  /**
+   * Replaces the allowed-mask cache with an empty one of the given capacity. A capacity of 0 disables it.
+   */
+  public void setSupportMaskCacheCapacity(int capacity) {
+    checkNotFrozen();
+    supportMaskCache = capacity > 0 ? new SupportMaskCache(capacity) : null;
+  }
+
+  /**
+   * The cache of the states fresh grids propagate to, shared by every run on these features, or null when it is
+   * disabled.
+   */
+  FixedPointCache getFixedPointCache() {
+    return fixedPointCache;
+  }
+
+  /**
+   * Sets for how many grid sizes and topologies the state a fresh grid propagates to is remembered, so that runs start
+   * from a copy of it instead of propagating the whole grid. A capacity of 0 disables it.
+   */
+  public void setFixedPointCacheCapacity(int capacity) {
+    checkNotFrozen();
+    fixedPointCache = capacity > 0 ? new FixedPointCache(capacity) : null;
+  }
+
+  public boolean isFrozen() {
+    return isFrozen;
+  }
+
   public Module[] getModules() {
     return modules.clone();
   }
 
+  /**
+   * The modules without a copy, for runs that only read them.
+   */
+  Module[] modules() {
+    return modules;
+  }
+
   public Module getModule(int index) {
     return modules[index];
   }
 
   public PossibilitySet[] getPossibleModulesUp() {
-    return possibleModulesUp.clone();
+    return possibleModuleSets(Direction.UP.ordinal()).clone();
   }
 
   public PossibilitySet[] getPossibleModulesRight() {
-    return possibleModulesRight.clone();
+    return possibleModuleSets(Direction.RIGHT.ordinal()).clone();
   }
 
   public PossibilitySet[] getPossibleModulesDown() {
-    return possibleModulesDown.clone();
+    return possibleModuleSets(Direction.DOWN.ordinal()).clone();
   }
 
   public PossibilitySet[] getPossibleModulesLeft() {
-    return possibleModulesLeft.clone();
+    return possibleModuleSets(Direction.LEFT.ordinal()).clone();
+  }
+
+  /**
+   * Returns the table for any direction of the topology the modules are meant for: for every module, the modules that
+   * may lie in that direction of it.
+   */
+  public PossibilitySet[] getPossibleModules(int direction) {
+    return possibleModuleSets(direction).clone();
+  }
+
+  /**
+   * Returns the number of keys of every module, which must match the direction count of the topology they run on.
+   */
+  public int getDirectionCount() {
+    return possibleModulesWords.length;
+  }
+
+  public double getWeight(int index) {
+    return modules[index].weight;
+  }
+
+  /**
+   * Returns whether the modules have different weights. When they all weigh the same, every possibility of a tile is
+   * equally likely to be picked.
+   */
+  public boolean isWeighted() {
+    return isWeighted;
+  }
+
+  /**
+   * Returns how many classes of modules with the same key on every side there are. The solver works on these, and only
+   * tells the modules of a class apart when a tile collapses.
+   */
+  public int getModuleClassCount() {
+    return moduleClasses.count;
+  }
+
+  ModuleClasses getModuleClasses() {
+    return moduleClasses;
+  }
+
+  /**
+   * The summed weight of the modules of every class, or null when all classes weigh the same. Shared, so it must not be
+   * modified.
+   */
+  double[] getClassWeights() {
+    return classWeights;
+  }
+
+  /**
+   * An alias table over the weights of all classes, or null when they all weigh the same.
+   */
+  AliasTable getClassAliasTable() {
+    return classAliasTable;
+  }
+
+  /**
+   * The index of the module in the array given to the constructor that the given module is a rotation of.
+   */
+  int getSourceModule(int index) {
+    return sourceModules[index];
+  }
+
+  /**
+   * The possibleModules* tables of the classes indexed by direction, such as up, right, down and left, each holding the
+   * words of one class after the other. Shared, so they must not be modified.
+   */
+  long[][] getPossibleModulesWords() {
+    return possibleModulesWords;
   }
 }
@@ -0,0 +1,278 @@
+package nl.basmens.wfc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores compiled {@link WfcFeatures} in a binary file, so a process that starts often doesn't have to expand the
+ * rotations and build the possibleModules* tables every time. The file holds the module table (the source module and
+ * rotation of every module), the loop edge flags and the packed tables of the module classes, behind a SHA-256 hash
+ * of everything they were built from. When the modules, key pairs or flags change, the hash no longer matches and the
+ * file is rebuilt.
+ *
+ * <p>
+ * The child items of the modules, such as images, are not stored. They are taken from the modules passed in when the
+ * file is read, so they may change without invalidating it. The file is memory-mapped, and the tables are copied out of
+ * the mapping in bulk, because the solver works on plain arrays. When the file can't be mapped, it is read into memory
+ * in one go instead. A mapping stays open until it is garbage collected, which on some platforms keeps the file from
+ * being replaced for a while; the write is then skipped like any other failed write.
+ *
+ * <p>
+ * The file is only a cache: when it can't be read or written, the features are built and returned all the same.
+ */
+public final class WfcFeaturesCache {
+  // "WFCF", so a file that isn't a cache is recognised
+  private static final int MAGIC = 0x57464346;
+  // Raise when the layout changes, so older files are rebuilt instead of misread
+  private static final int VERSION = 2;
+  private static final int HASH_LENGTH = 32;
+  private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH + 4 + 4 + 4;
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  private WfcFeaturesCache() {
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  /**
+   * Reads the features from the file when it was built from the same modules, key pairs and loop edge flags, and
+   * otherwise builds them and writes the file for the next time. The features are not frozen. A file that can't be
+   * read is built again, and one that can't be written is skipped.
+   */
+  public static WfcFeatures loadOrBuild(Path file, Module[] modules, KeyPairsMap keyPairsMap, boolean loopEdgesX,
+      boolean loopEdgesY) {
+    byte[] hash = contentHash(modules, keyPairsMap, loopEdgesX, loopEdgesY);
+
+    WfcFeatures wfcFeatures;
+    try {
+      wfcFeatures = read(file, modules, hash);
+    } catch (UncheckedIOException e) {
+      wfcFeatures = null;
+    }
+    if (wfcFeatures == null) {
+      wfcFeatures = new WfcFeatures(modules, keyPairsMap);
+      wfcFeatures.setLoopEdgesEnabledX(loopEdgesX);
+      wfcFeatures.setLoopEdgesEnabledY(loopEdgesY);
+      try {
+        write(file, wfcFeatures, hash);
+      } catch (UncheckedIOException e) {
+        // Not cached this time, the next process tries again
+      }
+    }
+    return wfcFeatures;
+  }
+
+  /**
+   * Returns the features in the file, or null when there is no file or it was built from something else.
+   */
+  static WfcFeatures read(Path file, Module[] modules, byte[] hash) {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_LENGTH || channel.size() > Integer.MAX_VALUE - 8) {
+        return null;
+      }
+      ByteBuffer buffer = mapOrRead(channel);
+      if (buffer == null) {
+        return null;
+      }
+
+      byte[] storedHash = new byte[HASH_LENGTH];
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        return null;
+      }
+      buffer.get(storedHash);
+      if (!Arrays.equals(storedHash, hash)) {
+        // Built from other rules, or by another version of them
+        return null;
+      }
+      int moduleCount = buffer.getInt();
+      int classCount = buffer.getInt();
+      int flags = buffer.getInt();
+      long tableLength = (long) classCount * Grid.wordsFor(classCount);
+      int directionCount = modules.length > 0 ? modules[0].getKeyCount() : 4;
+      if (moduleCount < 0 || classCount < 0 || classCount > moduleCount
+          || buffer.limit() != HEADER_LENGTH + 8L * moduleCount + directionCount * 8 * tableLength) {
+        return null;
+      }
+
+      int[] sourceModules = new int[moduleCount];
+      int[] rotations = new int[moduleCount];
+      buffer.asIntBuffer().get(sourceModules).get(rotations);
+      buffer.position(buffer.position() + 8 * moduleCount);
+      for (int i = 0; i < moduleCount; i++) {
+        if (sourceModules[i] < 0 || sourceModules[i] >= modules.length || rotations[i] < 0 || rotations[i] > 3) {
+          return null;
+        }
+      }
+
+      long[][] possibleModulesWords = new long[directionCount][(int) tableLength];
+      for (long[] table : possibleModulesWords) {
+        buffer.asLongBuffer().get(table);
+        buffer.position(buffer.position() + 8 * table.length);
+      }
+
+      WfcFeatures wfcFeatures;
+      try {
+        wfcFeatures = new WfcFeatures(modules, sourceModules, rotations, possibleModulesWords);
+      } catch (IllegalArgumentException e) {
+        // The modules fall into other classes than the ones the tables were built for
+        return null;
+      }
+      wfcFeatures.setLoopEdgesEnabledX((flags & 1) != 0);
+      wfcFeatures.setLoopEdgesEnabledY((flags & 2) != 0);
+      return wfcFeatures;
+    } catch (BufferUnderflowException e) {
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read " + file, e);
+    }
+  }
+
+  /**
+   * Maps the whole file, or reads it into memory when it can't be mapped. Returns null when it was cut short while it
+   * was being read.
+   */
+  private static ByteBuffer mapOrRead(FileChannel channel) throws IOException {
+    long size = channel.size();
+    try {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } catch (IOException | UnsupportedOperationException e) {
+      // Not a file that can be mapped, or out of address space
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        return null;
+      }
+    }
+    return buffer.flip();
+  }
+
+  static void write(Path file, WfcFeatures wfcFeatures, byte[] hash) {
+    Module[] modules = wfcFeatures.modules();
+    long[][] possibleModulesWords = wfcFeatures.getPossibleModulesWords();
+
+    Path temporary = null;
+    try {
+      // Write to a temporary file first, so a crash or another process never sees a half written cache
+      Path directory = file.toAbsolutePath().getParent();
+      Files.createDirectories(directory);
+      temporary = Files.createTempFile(directory, "features", ".tmp");
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.put(hash);
+        buffer.putInt(modules.length);
+        buffer.putInt(wfcFeatures.getModuleClassCount());
+        buffer.putInt((wfcFeatures.isLoopEdgesEnabledX() ? 1 : 0) | (wfcFeatures.isLoopEdgesEnabledY() ? 2 : 0));
+        for (int i = 0; i < modules.length; i++) {
+          if (buffer.remaining() < 4) {
+            flush(channel, buffer);
+          }
+          buffer.putInt(wfcFeatures.getSourceModule(i));
+        }
+        for (Module module : modules) {
+          if (buffer.remaining() < 4) {
+            flush(channel, buffer);
+          }
+          buffer.putInt(module.rotations[0]);
+        }
+        for (long[] table : possibleModulesWords) {
+          for (long word : table) {
+            if (buffer.remaining() < 8) {
+              flush(channel, buffer);
+            }
+            buffer.putLong(word);
+          }
+        }
+        flush(channel, buffer);
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+      }
+      throw new UncheckedIOException("Could not write " + file, e);
+    }
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Hashes everything the compiled features depend on: the keys, rotations and weights of the modules, the key pairs in
+   * a fixed order, and the loop edge flags.
+   */
+  static byte[] contentHash(Module[] modules, KeyPairsMap keyPairsMap, boolean loopEdgesX, boolean loopEdgesY) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    digest.update(buffer.putInt(0, VERSION).putInt(4, modules.length).array());
+    for (Module module : modules) {
+      digest.update(buffer.putInt(0, module.getKeyCount()).array(), 0, 4);
+      for (int side = 0; side < module.getKeyCount(); side++) {
+        updateString(digest, module.getKey(side));
+      }
+      digest.update(buffer.putInt(0, module.rotations.length).array(), 0, 4);
+      for (int rotation : module.rotations) {
+        digest.update(buffer.putInt(0, rotation).array(), 0, 4);
+      }
+      digest.update(buffer.putDouble(0, module.weight).array());
+    }
+
+    ArrayList<String> pairs = new ArrayList<>();
+    for (Map.Entry<String, ? extends Set<String>> entry : keyPairsMap.getPairMap().entrySet()) {
+      for (String other : entry.getValue()) {
+        pairs.add(entry.getKey() + '\0' + other);
+      }
+    }
+    pairs.sort(null);
+    digest.update(buffer.putInt(0, pairs.size()).array(), 0, 4);
+    for (String pair : pairs) {
+      updateString(digest, pair);
+    }
+
+    digest.update((byte) ((loopEdgesX ? 1 : 0) | (loopEdgesY ? 2 : 0)));
+    return digest.digest();
+  }
+
+  private static void updateString(MessageDigest digest, String string) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+}
@@ -0,0 +1,27 @@
+package nl.basmens.wfc;
+
+/**
+ * What a {@link Wfc} run has done so far, as returned by {@link Wfc#getMetrics()}. The counts cover the whole run,
+ * including the attempts that ended in a restart.
+ *
+ * @param tileUpdates             how many times a tile was checked against a neighbour during propagation
+ * @param reducingTileUpdates     how many of those checks removed possibilities
+ * @param maxPendingUpdates       the most tiles that were waiting to be propagated at once
+ * @param collapses               how many tiles were collapsed by a decision, fixed tiles not included
+ * @param contradictions          how many times a tile ran out of possibilities while backtracking was possible
+ * @param backtracks              how many decisions were undone
+ * @param restarts                how many times the run started over
+ * @param initialPropagationNanos the time spent propagating fresh grids, before the first decision of every attempt
+ * @param mainLoopNanos           the rest of the time the run took so far, without the pauses between steps
+ * @param running                 whether the run is still going, or paused between steps
+ */
+public record WfcMetrics(long tileUpdates, long reducingTileUpdates, int maxPendingUpdates, long collapses,
+    long contradictions, long backtracks, int restarts, long initialPropagationNanos, long mainLoopNanos,
+    boolean running) {
+  /**
+   * Returns the fraction of tile updates that removed something, 0 when there were none.
+   */
+  public double getReducingFraction() {
+    return tileUpdates == 0 ? 0 : (double) reducingTileUpdates / tileUpdates;
+  }
+}
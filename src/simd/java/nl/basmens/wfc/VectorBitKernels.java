@@ -0,0 +1,78 @@
+package nl.basmens.wfc;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The vector versions of the {@link BitKernels}, on the widest vectors the CPU has. Only loaded when the SIMD flag is
+ * set, because it needs the incubating {@code jdk.incubator.vector} module. For the same reason it is only compiled by
+ * the simd profile, and loaded by name. The words left over after the last full vector are done one at a time.
+ */
+final class VectorBitKernels implements VectorKernels {
+  private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+  private static final int LANES = SPECIES.length();
+
+  VectorBitKernels() {
+  }
+
+  @Override
+  public boolean isSupported() {
+    return LANES >= 2;
+  }
+
+  // ===================================================================================================================
+  // Functionality
+  // ===================================================================================================================
+  @Override
+  public void or(long[] target, int targetOffset, long[] source, int sourceOffset, int length) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+      LongVector.fromArray(SPECIES, target, targetOffset + i)
+          .or(LongVector.fromArray(SPECIES, source, sourceOffset + i))
+          .intoArray(target, targetOffset + i);
+    }
+    for (; i < length; i++) {
+      target[targetOffset + i] |= source[sourceOffset + i];
+    }
+  }
+
+  /**
+   * Goes through the rows once per block of up to four vectors, so the union of a block is kept in registers instead
+   * of being loaded and stored again for every row.
+   */
+  @Override
+  public void orRows(long[] target, long[] table, int[] rowOffsets, int rowCount, int length) {
+    int i = 0;
+    for (int bound = length - 4 * LANES; i <= bound; i += 4 * LANES) {
+      LongVector union0 = LongVector.zero(SPECIES);
+      LongVector union1 = LongVector.zero(SPECIES);
+      LongVector union2 = LongVector.zero(SPECIES);
+      LongVector union3 = LongVector.zero(SPECIES);
+      for (int r = 0; r < rowCount; r++) {
+        int offset = rowOffsets[r] + i;
+        union0 = union0.or(LongVector.fromArray(SPECIES, table, offset));
+        union1 = union1.or(LongVector.fromArray(SPECIES, table, offset + LANES));
+        union2 = union2.or(LongVector.fromArray(SPECIES, table, offset + 2 * LANES));
+        union3 = union3.or(LongVector.fromArray(SPECIES, table, offset + 3 * LANES));
+      }
+      union0.intoArray(target, i);
+      union1.intoArray(target, i + LANES);
+      union2.intoArray(target, i + 2 * LANES);
+      union3.intoArray(target, i + 3 * LANES);
+    }
+    for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+      LongVector union = LongVector.zero(SPECIES);
+      for (int r = 0; r < rowCount; r++) {
+        union = union.or(LongVector.fromArray(SPECIES, table, rowOffsets[r] + i));
+      }
+      union.intoArray(target, i);
+    }
+    for (; i < length; i++) {
+      long union = 0;
+      for (int r = 0; r < rowCount; r++) {
+        union |= table[rowOffsets[r] + i];
+      }
+      target[i] = union;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class AliasTableTest {
+  // Coins per column, spread evenly over [0, 1)
+  private static final int COINS = 100_000;
+
+  /**
+   * Returns how often every index comes out when every column is sampled with evenly spread coins, as a share of all
+   * samples. Up to 1 / COINS per column, that is the exact probability of the index.
+   */
+  private static double[] shares(AliasTable table, int n) {
+    double[] shares = new double[n];
+    for (int column = 0; column < n; column++) {
+      for (int i = 0; i < COINS; i++) {
+        shares[table.sample(column, (i + 0.5) / COINS)]++;
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      shares[i] /= (double) n * COINS;
+    }
+    return shares;
+  }
+
+  private static void assertFollowsWeights(double[] weights) {
+    double total = 0;
+    for (double weight : weights) {
+      total += weight;
+    }
+    double[] expected = new double[weights.length];
+    for (int i = 0; i < weights.length; i++) {
+      expected[i] = weights[i] / total;
+    }
+    double[] shares = shares(new AliasTable(weights), weights.length);
+    for (int i = 0; i < weights.length; i++) {
+      assertEquals(expected[i], shares[i], 2.0 / COINS, "index " + i);
+    }
+  }
+
+  @Test
+  void samplesInProportionToTheWeights() {
+    assertFollowsWeights(new double[] { 1, 2, 3, 4 });
+    assertFollowsWeights(new double[] { 100, 1, 1, 1, 1, 1 });
+    assertFollowsWeights(new double[] { 0.001, 5, 0.25, 7.5, 1e-6 });
+    assertFollowsWeights(new double[] { 3 });
+
+    Random random = new Random(1);
+    double[] weights = new double[37];
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = 1 + random.nextInt(50) * random.nextDouble();
+    }
+    assertFollowsWeights(weights);
+  }
+
+  @Test
+  void equalWeightsKeepEveryColumn() {
+    AliasTable table = new AliasTable(new double[] { 2, 2, 2, 2, 2 });
+    for (int column = 0; column < 5; column++) {
+      assertEquals(column, table.sample(column, 0.999_999));
+    }
+  }
+
+  @Test
+  void neverSamplesAWeightOfZero() {
+    double[] shares = shares(new AliasTable(new double[] { 0, 1, 0, 3 }), 4);
+    assertEquals(0, shares[0]);
+    assertEquals(0, shares[2]);
+    assertEquals(0.25, shares[1], 2.0 / COINS);
+  }
+
+  @Test
+  void samplesFromARandom() {
+    AliasTable table = new AliasTable(new double[] { 1, 3, 6 });
+    Random random = new Random(2);
+    double[] shares = new double[3];
+    for (int i = 0; i < 100_000; i++) {
+      shares[table.sample(random)] += 1e-5;
+    }
+    assertArrayEquals(new double[] { 0.1, 0.3, 0.6 }, shares, 0.01);
+  }
+}
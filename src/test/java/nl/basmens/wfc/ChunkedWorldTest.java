@@ -0,0 +1,132 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChunkedWorldTest {
+  private static final int CHUNK_SIZE = 8;
+  private static final long WORLD_SEED = 42;
+  // Chunk coordinates from -RADIUS to RADIUS, so every kind of chunk is in there a few times
+  private static final int RADIUS = 2;
+
+  @TempDir
+  Path spillDirectory;
+
+  @Test
+  void chunksDontDependOnTheOrderTheyAreAskedFor() throws Exception {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 21, false);
+    ChunkedWorld forward = new ChunkedWorld(wfcFeatures, CHUNK_SIZE, WORLD_SEED);
+    for (int chunkX = -RADIUS; chunkX <= RADIUS; chunkX++) {
+      for (int chunkY = -RADIUS; chunkY <= RADIUS; chunkY++) {
+        forward.getChunk(chunkX, chunkY);
+      }
+    }
+
+    // Backwards, and the odd chunks first so they have to generate their neighbours on the way
+    ChunkedWorld backward = new ChunkedWorld(wfcFeatures, CHUNK_SIZE, WORLD_SEED);
+    backward.getChunk(1, 1);
+    backward.getChunk(-1, 1);
+    for (int chunkY = RADIUS; chunkY >= -RADIUS; chunkY--) {
+      for (int chunkX = RADIUS; chunkX >= -RADIUS; chunkX--) {
+        backward.getChunk(chunkX, chunkY);
+      }
+    }
+
+    ChunkedWorld parallel = new ChunkedWorld(wfcFeatures, CHUNK_SIZE, WORLD_SEED);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      parallel.generateArea(-RADIUS, -RADIUS, RADIUS, RADIUS, executor).get();
+    } finally {
+      executor.shutdown();
+    }
+
+    for (int chunkX = -RADIUS; chunkX <= RADIUS; chunkX++) {
+      for (int chunkY = -RADIUS; chunkY <= RADIUS; chunkY++) {
+        int[] modules = TestRules.modulesOf(forward.getChunk(chunkX, chunkY));
+        String message = "chunk " + chunkX + ", " + chunkY;
+        assertArrayEquals(modules, TestRules.modulesOf(backward.getChunk(chunkX, chunkY)), message);
+        assertArrayEquals(modules, TestRules.modulesOf(parallel.getChunk(chunkX, chunkY)), message);
+      }
+    }
+  }
+
+  @Test
+  void evictedChunksAreReadBackFromTheSpillDirectory() throws Exception {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 21, false);
+    ChunkedWorld world = new ChunkedWorld(wfcFeatures, CHUNK_SIZE, WORLD_SEED, 2, spillDirectory);
+    Chunk first = world.getChunk(0, 0);
+    int[] modules = TestRules.modulesOf(first);
+
+    // Generating an odd chunk pushes the others out of the cache
+    world.getChunk(3, 3);
+    assertEquals(2, world.getCachedChunkCount());
+    assertTrue(Files.exists(spillDirectory.resolve("chunk_0_0.bin")));
+
+    Chunk readBack = world.getChunk(0, 0);
+    assertNotSame(first, readBack);
+    assertArrayEquals(modules, TestRules.modulesOf(readBack));
+
+    // And they are the chunks a world without eviction generates
+    ChunkedWorld unlimited = new ChunkedWorld(wfcFeatures, CHUNK_SIZE, WORLD_SEED);
+    for (int chunkX = 2; chunkX <= 4; chunkX++) {
+      for (int chunkY = 2; chunkY <= 4; chunkY++) {
+        assertArrayEquals(TestRules.modulesOf(unlimited.getChunk(chunkX, chunkY)),
+            TestRules.modulesOf(world.getChunk(chunkX, chunkY)), "chunk " + chunkX + ", " + chunkY);
+      }
+    }
+  }
+
+  @Test
+  void spilledChunksOfAnotherWorldAreNotRead() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 21, false);
+    ChunkedWorld world = new ChunkedWorld(wfcFeatures, CHUNK_SIZE, WORLD_SEED, 1, spillDirectory);
+    world.getChunk(0, 0);
+    world.getChunk(2, 0);
+    assertTrue(Files.exists(spillDirectory.resolve("chunk_0_0.bin")));
+
+    ChunkedWorld other = new ChunkedWorld(wfcFeatures, CHUNK_SIZE, WORLD_SEED + 1, 1, spillDirectory);
+    ChunkedWorld expected = new ChunkedWorld(wfcFeatures, CHUNK_SIZE, WORLD_SEED + 1);
+    assertArrayEquals(TestRules.modulesOf(expected.getChunk(0, 0)), TestRules.modulesOf(other.getChunk(0, 0)));
+  }
+
+  @Test
+  void neighbouringChunksFitAcrossTheirSeams() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 21, false);
+    ChunkedWorld world = new ChunkedWorld(wfcFeatures, CHUNK_SIZE, WORLD_SEED);
+    PossibilitySet[] right = wfcFeatures.getPossibleModulesRight();
+    PossibilitySet[] down = wfcFeatures.getPossibleModulesDown();
+
+    int min = -RADIUS * CHUNK_SIZE;
+    int max = (RADIUS + 1) * CHUNK_SIZE - 1;
+    int seams = 0;
+    for (int x = min; x <= max; x++) {
+      for (int y = min; y <= max; y++) {
+        int module = world.getModuleIndex(x, y);
+        if (module < 0) {
+          continue;
+        }
+        if (x < max && Math.floorMod(x + 1, CHUNK_SIZE) == 0) {
+          int neighbour = world.getModuleIndex(x + 1, y);
+          assertTrue(neighbour < 0 || right[module].hasPossibility(neighbour), "right of " + x + ", " + y);
+          seams++;
+        }
+        if (y < max && Math.floorMod(y + 1, CHUNK_SIZE) == 0) {
+          int neighbour = world.getModuleIndex(x, y + 1);
+          assertTrue(neighbour < 0 || down[module].hasPossibility(neighbour), "below " + x + ", " + y);
+          seams++;
+        }
+      }
+    }
+    assertTrue(seams > 0);
+  }
+}
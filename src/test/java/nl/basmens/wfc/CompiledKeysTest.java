@@ -0,0 +1,113 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CompiledKeysTest {
+  /**
+   * Keys "k0" and up, with a pair between two keys at random and some keys that only fit themselves.
+   */
+  private static KeyPairsMap randomPairs(int keyCount, double pairChance, long seed) {
+    Random random = new Random(seed);
+    KeyPairsMap keyPairsMap = new KeyPairsMap();
+    for (int a = 0; a < keyCount; a++) {
+      if (random.nextInt(4) == 0) {
+        keyPairsMap.addPair("k" + a, "k" + a);
+      }
+      for (int b = a + 1; b < keyCount; b++) {
+        if (random.nextDouble() < pairChance) {
+          keyPairsMap.addPair("k" + a, "k" + b);
+        }
+      }
+    }
+    return keyPairsMap;
+  }
+
+  /**
+   * Checks the ids are dense and distinct, and that walking a row gives exactly the pairs of the map, in id order.
+   */
+  private static void assertMatchesMap(KeyPairsMap keyPairsMap) {
+    CompiledKeys keys = keyPairsMap.compile();
+    int keyCount = keyPairsMap.getKeySet().size();
+    assertEquals(keyCount, keys.getKeyCount());
+
+    String[] keyOfId = new String[keyCount];
+    for (String key : keyPairsMap.getKeySet()) {
+      int id = keys.id(key);
+      assertTrue(id >= 0 && id < keyCount && keyOfId[id] == null, key + " has id " + id);
+      keyOfId[id] = key;
+    }
+
+    for (int a = 0; a < keyCount; a++) {
+      int walked = 0;
+      int previous = -1;
+      for (int b = keys.nextCompatible(a, 0); b >= 0; b = keys.nextCompatible(a, b + 1)) {
+        assertTrue(b > previous);
+        assertTrue(keyPairsMap.checkPair(keyOfId[a], keyOfId[b]), keyOfId[a] + " " + keyOfId[b]);
+        previous = b;
+        walked++;
+      }
+      assertEquals(keyPairsMap.getPairs(keyOfId[a]).size(), walked, keyOfId[a]);
+
+      // Starting halfway finds the same pairs from there on
+      for (int from = 0; from <= keyCount; from += 7) {
+        int next = keys.nextCompatible(a, from);
+        int expected = -1;
+        for (int b = from; b < keyCount && expected < 0; b++) {
+          if (keyPairsMap.checkPair(keyOfId[a], keyOfId[b])) {
+            expected = b;
+          }
+        }
+        assertEquals(expected, next, keyOfId[a] + " from " + from);
+      }
+    }
+  }
+
+  @Test
+  void matrixHoldsThePairsOfTheMap() {
+    assertMatchesMap(TestRules.chainPairs());
+    assertMatchesMap(randomPairs(10, 0.3, 1));
+    // Rows of more than one word, and one that ends right at a word boundary
+    assertMatchesMap(randomPairs(64, 0.1, 2));
+    assertMatchesMap(randomPairs(150, 0.05, 3));
+    assertMatchesMap(randomPairs(200, 0.005, 4));
+  }
+
+  @Test
+  void keysWithoutPairsHaveNoId() {
+    CompiledKeys keys = TestRules.chainPairs().compile();
+    assertEquals(-1, keys.id("e"));
+    assertEquals(-1, keys.id(""));
+    assertEquals(-1, new KeyPairsMap().compile().id("a"));
+  }
+
+  @Test
+  void featuresFollowTheKeyPairs() {
+    KeyPairsMap keyPairsMap = randomPairs(70, 0.08, 5);
+    Random random = new Random(6);
+    Module[] modules = new Module[40];
+    for (int i = 0; i < modules.length; i++) {
+      String[] sides = new String[4];
+      for (int side = 0; side < sides.length; side++) {
+        sides[side] = "k" + random.nextInt(70);
+      }
+      modules[i] = new Module(sides, new int[] { 0, 1, 2, 3 }, null, 1);
+    }
+    WfcFeatures wfcFeatures = new WfcFeatures(modules, keyPairsMap);
+    Module[] rotated = wfcFeatures.getModules();
+
+    for (int d = 0; d < 4; d++) {
+      PossibilitySet[] sets = wfcFeatures.getPossibleModules(d);
+      for (int m = 0; m < rotated.length; m++) {
+        for (int other = 0; other < rotated.length; other++) {
+          boolean fits = keyPairsMap.checkPair(rotated[m].getKey(d), rotated[other].getKey((d + 2) % 4));
+          assertEquals(fits, sets[m].hasPossibility(other), "direction " + d + " module " + m + " " + other);
+        }
+      }
+    }
+  }
+}
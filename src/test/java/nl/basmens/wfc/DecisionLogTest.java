@@ -0,0 +1,95 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class DecisionLogTest {
+  @Test
+  void readsBackWhatItEncoded() {
+    // A collapse, a ban far before it, and collapses on the first and last tile
+    int[] entries = { 500 << 1, 3, 2 << 1 | 1, 129, 0, 0, 999 << 1, 200 };
+    DecisionLog log = DecisionLog.encode(1000, 300, -42L, Arrays.copyOf(entries, 12), entries.length);
+    DecisionLog read = DecisionLog.fromByteArray(log.toByteArray());
+
+    assertEquals(1000, read.getTileCount());
+    assertEquals(300, read.getModuleCount());
+    assertEquals(-42L, read.getExpansionSeed());
+    assertEquals(3, read.getDecisionCount());
+    assertEquals(log.getSize(), read.getSize());
+    assertArrayEquals(entries, read.entries());
+    assertArrayEquals(log.toByteArray(), read.toByteArray());
+  }
+
+  @Test
+  void rejectsDamagedBytes() {
+    int[] entries = { 5 << 1, 1, 6 << 1 | 1, 2 };
+    byte[] bytes = DecisionLog.encode(10, 4, 7, entries, entries.length).toByteArray();
+
+    assertThrows(IllegalArgumentException.class, () -> DecisionLog.fromByteArray(new byte[0]));
+    assertThrows(IllegalArgumentException.class,
+        () -> DecisionLog.fromByteArray(Arrays.copyOf(bytes, bytes.length - 1)));
+    assertThrows(IllegalArgumentException.class,
+        () -> DecisionLog.fromByteArray(Arrays.copyOf(bytes, bytes.length + 1)));
+    // A log for fewer tiles than its entries point at
+    byte[] fewerTiles = bytes.clone();
+    fewerTiles[0] = 5;
+    assertThrows(IllegalArgumentException.class, () -> DecisionLog.fromByteArray(fewerTiles));
+  }
+
+  @Test
+  void replayGivesTheGridOfTheRun() {
+    for (PropagationEngine engine : PropagationEngine.values()) {
+      WfcFeatures wfcFeatures = TestRules.randomFeatures(30, 11, false);
+      for (int seed = 0; seed < 3; seed++) {
+        assertReplaysRun(wfcFeatures, engine, seed);
+      }
+    }
+  }
+
+  @Test
+  void replayGivesTheGridOfARunThatBacktracked() {
+    long backtracks = 0;
+    for (PropagationEngine engine : PropagationEngine.values()) {
+      WfcFeatures wfcFeatures = tightFeatures();
+      for (int seed = 0; seed < 6; seed++) {
+        backtracks += assertReplaysRun(wfcFeatures, engine, seed);
+      }
+    }
+    assertTrue(backtracks > 0);
+  }
+
+  /**
+   * Modules on keys that only fit themselves, which makes runs run into contradictions now and then.
+   */
+  private static WfcFeatures tightFeatures() {
+    KeyPairsMap keyPairsMap = new KeyPairsMap();
+    for (String key : new String[] { "a", "b", "c", "d" }) {
+      keyPairsMap.addPair(key, key);
+    }
+    return new WfcFeatures(TestRules.randomModules(6, 4, 1), keyPairsMap);
+  }
+
+  /**
+   * Runs with a decision log, replays the log on a new Wfc and returns how often the run backtracked.
+   */
+  private static long assertReplaysRun(WfcFeatures wfcFeatures, PropagationEngine engine, int seed) {
+    Wfc wfc = new Wfc(20, 20, wfcFeatures, seed);
+    wfc.setPropagationEngine(engine);
+    wfc.setDecisionLogEnabled(true);
+    wfc.run();
+    int[] grid = TestRules.modulesOf(wfc.getGrid());
+    DecisionLog log = DecisionLog.fromByteArray(wfc.getDecisionLog().toByteArray());
+
+    Wfc replayed = new Wfc(20, 20, wfcFeatures);
+    replayed.setPropagationEngine(engine);
+    assertTrue(replayed.replay(log), engine + " seed " + seed);
+    assertArrayEquals(grid, TestRules.modulesOf(replayed.getGrid()), engine + " seed " + seed);
+    return wfc.getMetrics().backtracks();
+  }
+}
@@ -0,0 +1,70 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class EntropyHeapTest {
+  /**
+   * Weighted modules on keys that only fit themselves, so runs backtrack now and then.
+   */
+  private static WfcFeatures tightFeatures() {
+    KeyPairsMap keyPairsMap = new KeyPairsMap();
+    for (String key : new String[] { "a", "b", "c", "d" }) {
+      keyPairsMap.addPair(key, key);
+    }
+    return new WfcFeatures(TestRules.randomModules(6, 4, 3), keyPairsMap);
+  }
+
+  @Test
+  void gridKeepsWeightSumsThroughBacktracking() {
+    WfcFeatures wfcFeatures = tightFeatures();
+    double[] weights = wfcFeatures.getClassWeights();
+    assertNotNull(weights);
+
+    long backtracks = 0;
+    for (PropagationEngine engine : PropagationEngine.values()) {
+      for (int seed = 0; seed < 4; seed++) {
+        Wfc wfc = new Wfc(20, 20, wfcFeatures, seed);
+        wfc.setTileSelection(TileSelection.LOWEST_ENTROPY);
+        wfc.setPropagationEngine(engine);
+        while (wfc.step(10) == RunStatus.RUNNING) {
+          Grid grid = (Grid) wfc.getGrid();
+          for (int tile = 0; tile < grid.tileCount; tile++) {
+            double sum = 0;
+            double sumWeightLogWeight = 0;
+            for (int m = grid.nextPossibility(tile, 0); m >= 0; m = grid.nextPossibility(tile, m + 1)) {
+              sum += weights[m];
+              sumWeightLogWeight += weights[m] * Math.log(weights[m]);
+            }
+            assertEquals(sum, grid.weightSums[tile], 1e-9);
+            assertEquals(sumWeightLogWeight, grid.weightLogWeightSums[tile], 1e-9);
+          }
+        }
+        backtracks += wfc.getMetrics().backtracks();
+      }
+    }
+    assertTrue(backtracks > 0);
+  }
+
+  @Test
+  void enginesAgreeOnLowestEntropy() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(30, 4, false);
+    for (int seed = 0; seed < 3; seed++) {
+      int[][] grids = new int[PropagationEngine.values().length][];
+      for (PropagationEngine engine : PropagationEngine.values()) {
+        Wfc wfc = new Wfc(20, 20, wfcFeatures, seed);
+        wfc.setTileSelection(TileSelection.LOWEST_ENTROPY);
+        wfc.setPropagationEngine(engine);
+        wfc.run();
+        grids[engine.ordinal()] = TestRules.modulesOf(wfc.getGrid());
+      }
+      for (int[] grid : grids) {
+        assertArrayEquals(grids[0], grid, "seed " + seed);
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class FixedPointCacheTest {
+  /**
+   * An open module, and one with a key on one side that nothing fits, so the initial propagation limits that one to the
+   * edges of the grid where its key faces outwards.
+   */
+  private static WfcFeatures edgeFeatures(boolean loopEdges) {
+    KeyPairsMap keyPairsMap = TestRules.chainPairs();
+    keyPairsMap.addPair("x", "z");
+    Module[] modules = {
+        new Module(new String[] { "a", "a", "a", "a" }, new int[] { 0 }, null, 1),
+        new Module(new String[] { "x", "a", "a", "a" }, new int[] { 0, 1, 2, 3 }, null, 1),
+        new Module(new String[] { "a", "b", "c", "d" }, new int[] { 0, 1, 2, 3 }, null, 1),
+    };
+    WfcFeatures wfcFeatures = new WfcFeatures(modules, keyPairsMap);
+    wfcFeatures.setLoopEdgesEnabledX(loopEdges);
+    wfcFeatures.setLoopEdgesEnabledY(loopEdges);
+    return wfcFeatures;
+  }
+
+  /**
+   * Returns the grid of a Wfc right after the initial propagation, by replaying a log without decisions.
+   */
+  private static Grid initialGrid(WfcFeatures wfcFeatures, PropagationEngine engine) {
+    Wfc wfc = new Wfc(9, 7, wfcFeatures, 1);
+    wfc.setPropagationEngine(engine);
+    wfc.replay(DecisionLog.encode(9 * 7, wfcFeatures.getModules().length, 0, new int[0], 0));
+    return (Grid) wfc.getGrid();
+  }
+
+  @Test
+  void cachedStartMatchesFreshPropagation() {
+    for (boolean loopEdges : new boolean[] { false, true }) {
+      for (PropagationEngine engine : PropagationEngine.values()) {
+        WfcFeatures uncached = edgeFeatures(loopEdges);
+        uncached.setFixedPointCacheCapacity(0);
+        Grid fresh = initialGrid(uncached, engine);
+
+        WfcFeatures cached = edgeFeatures(loopEdges);
+        initialGrid(cached, engine);
+        FixedPointCache.FixedPoint fixedPoint = cached.getFixedPointCache()
+            .entry(new SquareTopology(9, 7, loopEdges, loopEdges)).get(engine);
+        assertNotNull(fixedPoint);
+        assertArrayEquals(fresh.words, fixedPoint.words());
+        assertArrayEquals(fresh.entropy, fixedPoint.entropy());
+
+        Grid restored = initialGrid(cached, engine);
+        assertArrayEquals(fresh.words, restored.words);
+        assertArrayEquals(fresh.entropy, restored.entropy);
+      }
+    }
+  }
+
+  @Test
+  void initialPropagationRemovesSomething() {
+    Grid fresh = initialGrid(edgeFeatures(false), PropagationEngine.CLASSIC);
+    boolean reduced = false;
+    for (int entropy : fresh.entropy) {
+      reduced |= entropy < fresh.moduleCount;
+    }
+    assertTrue(reduced);
+  }
+
+  @Test
+  void runsGiveSameGridsWithAndWithoutCache() {
+    for (PropagationEngine engine : PropagationEngine.values()) {
+      WfcFeatures cached = TestRules.randomFeatures(20, 7, false);
+      WfcFeatures uncached = TestRules.randomFeatures(20, 7, false);
+      uncached.setFixedPointCacheCapacity(0);
+      for (int seed = 0; seed < 3; seed++) {
+        assertArrayEquals(runOn(uncached, engine, seed), runOn(cached, engine, seed), engine + " seed " + seed);
+      }
+    }
+  }
+
+  private static int[] runOn(WfcFeatures wfcFeatures, PropagationEngine engine, int seed) {
+    Wfc wfc = new Wfc(16, 16, wfcFeatures, seed);
+    wfc.setPropagationEngine(engine);
+    wfc.run();
+    return TestRules.modulesOf(wfc.getGrid());
+  }
+
+  @Test
+  void keepsTheMostRecentTopologies() {
+    FixedPointCache cache = new FixedPointCache(2);
+    FixedPointCache.Entry small = cache.entry(new SquareTopology(4, 4, false, false));
+    assertSame(small, cache.entry(new SquareTopology(4, 4, false, false)));
+    assertTrue(small != cache.entry(new SquareTopology(4, 4, true, false)));
+
+    cache.entry(new SquareTopology(5, 4, false, false));
+    assertTrue(small != cache.entry(new SquareTopology(4, 4, false, false)));
+    assertNull(cache.entry(new SquareTopology(6, 6, false, false)).get(PropagationEngine.CLASSIC));
+  }
+}
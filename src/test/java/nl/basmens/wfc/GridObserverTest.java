@@ -0,0 +1,120 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class GridObserverTest {
+  private static final int GRID_W = 10;
+  private static final int GRID_H = 8;
+  private static final int TILE_COUNT = GRID_W * GRID_H;
+
+  /**
+   * The module of the n-th event, which differs from the event before it on the same tile so every event is reported.
+   */
+  private static int moduleOfEvent(int n) {
+    return n / TILE_COUNT % 5;
+  }
+
+  @Test
+  void seesEveryEventOfASingleWriterInOrder() throws InterruptedException {
+    int eventCount = 50_000;
+    CollapseEventLog log = new CollapseEventLog(TILE_COUNT, eventCount);
+    GridObserver observer = new GridObserver(log, GRID_W, GRID_H);
+
+    Thread writer = new Thread(() -> {
+      for (int n = 0; n < eventCount; n++) {
+        log.publish(n % TILE_COUNT, moduleOfEvent(n));
+      }
+    });
+    int[] tiles = new int[eventCount];
+    int[] modules = new int[eventCount];
+    int[] reported = new int[1];
+    writer.start();
+    while (observer.getEpoch() < eventCount) {
+      observer.update((x, y, module) -> {
+        tiles[reported[0]] = x * GRID_H + y;
+        modules[reported[0]] = module;
+        reported[0]++;
+      });
+    }
+    writer.join();
+
+    assertEquals(eventCount, observer.getEpoch());
+    assertEquals(eventCount, reported[0]);
+    for (int n = 0; n < eventCount; n++) {
+      assertEquals(n % TILE_COUNT, tiles[n], "event " + n);
+      assertEquals(moduleOfEvent(n), modules[n], "event " + n);
+    }
+    assertFalse(observer.update());
+  }
+
+  @Test
+  void catchesUpAfterFallingBehindTheRing() {
+    CollapseEventLog log = new CollapseEventLog(TILE_COUNT, 16);
+    GridObserver observer = new GridObserver(log, GRID_W, GRID_H);
+    log.publish(3, 1);
+    observer.update();
+
+    // Many more events than the ring holds, ending with every tile but one collapsed
+    for (int n = 0; n < 10 * TILE_COUNT; n++) {
+      log.publish(n % TILE_COUNT, moduleOfEvent(n));
+    }
+    log.publish(5, -1);
+
+    int[] reported = new int[TILE_COUNT];
+    Arrays.fill(reported, -2);
+    assertTrue(observer.update((x, y, module) -> reported[x * GRID_H + y] = module));
+    assertEquals(log.getSequence(), observer.getEpoch());
+    for (int tile = 0; tile < TILE_COUNT; tile++) {
+      int expected = tile == 5 ? -1 : moduleOfEvent(9 * TILE_COUNT);
+      assertEquals(expected, observer.getModuleIndex(tile / GRID_H, tile % GRID_H), "tile " + tile);
+      // Only the tiles that differ from the last update are reported, and tile 5 was open then as well
+      assertEquals(tile == 5 ? -2 : expected, reported[tile], "tile " + tile);
+    }
+    assertEquals(TILE_COUNT - 1, observer.getCollapsedCount());
+  }
+
+  @Test
+  void resetClearsEveryTile() {
+    CollapseEventLog log = new CollapseEventLog(TILE_COUNT, 64);
+    GridObserver observer = new GridObserver(log, GRID_W, GRID_H);
+    log.publish(1, 2);
+    log.publish(7, 0);
+    log.reset();
+    log.publish(7, 4);
+
+    ArrayList<String> reported = new ArrayList<>();
+    observer.update((x, y, module) -> reported.add((x * GRID_H + y) + "=" + module));
+    // The reset only reports the tiles that were collapsed
+    assertEquals(List.of("1=2", "7=0", "1=-1", "7=-1", "7=4"), reported);
+    assertEquals(1, observer.getCollapsedCount());
+  }
+
+  @Test
+  void followsARunToTheFinishedGrid() {
+    Wfc wfc = new Wfc(GRID_W, GRID_H, TestRules.randomFeatures(20, 13, false), 1);
+    GridObserver observer = wfc.observe();
+    int[] reported = new int[TILE_COUNT];
+    while (wfc.step(7) == RunStatus.RUNNING) {
+      observer.update((x, y, module) -> reported[x * GRID_H + y] = module);
+    }
+    observer.update((x, y, module) -> reported[x * GRID_H + y] = module);
+
+    int[] modules = TestRules.modulesOf(wfc.getGrid());
+    assertArrayEquals(modules, reported);
+    for (int x = 0; x < GRID_W; x++) {
+      for (int y = 0; y < GRID_H; y++) {
+        assertEquals(modules[x * GRID_H + y], observer.getModuleIndex(x, y));
+      }
+    }
+    assertEquals(TILE_COUNT, observer.getCollapsedCount());
+  }
+}
@@ -0,0 +1,188 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ModuleClassesTest {
+  private static Module module(String keys, double weight) {
+    return new Module(keys.split(""), new int[] { 0 }, null, weight);
+  }
+
+  @Test
+  void groupsModulesWithTheSameKeys() {
+    ModuleClasses classes = new ModuleClasses(new Module[] {
+        module("bbbb", 1), module("abcd", 1), module("bbbb", 2), module("aaaa", 1), module("abcd", 3),
+    });
+    assertEquals(3, classes.count);
+    assertFalse(classes.isTrivial());
+    // Numbered in the order of their first module, not of their keys
+    assertArrayEquals(new int[] { 0, 1, 0, 2, 1 }, classes.classOf);
+    assertEquals(1, classes.first(1));
+    assertEquals(3, classes.first(2));
+    assertEquals(2, classes.size(0));
+    assertEquals(1, classes.size(2));
+    assertArrayEquals(new double[] { 3, 4, 1 }, classes.weights());
+  }
+
+  @Test
+  void keepsTheIndexOfModulesThatAreAllDifferent() {
+    ModuleClasses classes = new ModuleClasses(new Module[] { module("dcba", 1), module("abcd", 1), module("aaaa", 1) });
+    assertTrue(classes.isTrivial());
+    assertArrayEquals(new int[] { 0, 1, 2 }, classes.classOf);
+  }
+
+  @Test
+  void picksModulesOfTheClassByWeight() {
+    ModuleClasses classes = new ModuleClasses(new Module[] {
+        module("aaaa", 1), module("abcd", 5), module("aaaa", 3),
+    });
+    Random random = new Random(1);
+    int[] picked = new int[3];
+    for (int i = 0; i < 40_000; i++) {
+      picked[classes.pick(0, random.nextLong())]++;
+    }
+    assertEquals(0, picked[1]);
+    assertEquals(0.75, picked[2] / 40_000.0, 0.02);
+    assertEquals(1, classes.pick(1, random.nextLong()));
+
+    long[] onlyFirst = { 0b001 };
+    for (int i = 0; i < 100; i++) {
+      assertEquals(0, classes.pick(0, random.nextLong(), onlyFirst));
+    }
+    assertThrows(IllegalArgumentException.class, () -> classes.pick(0, 1, new long[] { 0b010 }));
+  }
+
+  @Test
+  void mapsSetsOfModulesToClasses() {
+    ModuleClasses classes = new ModuleClasses(new Module[] {
+        module("aaaa", 1), module("abcd", 1), module("aaaa", 1), module("bbbb", 1),
+    });
+    assertArrayEquals(new long[] { 0b011 }, classes.classesOf(new long[] { 0b0110 }));
+    assertArrayEquals(new long[] { 0b100 }, classes.classesOf(new long[] { 0b1000 }));
+    assertTrue(classes.isWhole(new long[] { 0b0101 }));
+    assertTrue(classes.isWhole(new long[] { 0b1010 }));
+    assertFalse(classes.isWhole(new long[] { 0b0001 }));
+  }
+
+  @Test
+  void expandedTablesFollowTheClasses() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(30, 9, false);
+    ModuleClasses classes = wfcFeatures.getModuleClasses();
+    assertTrue(classes.count < wfcFeatures.getModules().length);
+    int wordsPerClass = Grid.wordsFor(classes.count);
+    for (int d = 0; d < wfcFeatures.getDirectionCount(); d++) {
+      long[] table = wfcFeatures.getPossibleModulesWords()[d];
+      PossibilitySet[] sets = wfcFeatures.getPossibleModules(d);
+      for (int m = 0; m < sets.length; m++) {
+        for (int other = 0; other < sets.length; other++) {
+          int otherClass = classes.classOf[other];
+          boolean inClassRow = (table[classes.classOf[m] * wordsPerClass + otherClass / 64] & 1L << otherClass) != 0;
+          assertEquals(inClassRow, sets[m].hasPossibility(other), "direction " + d + " module " + m + " " + other);
+        }
+      }
+    }
+  }
+
+  @Test
+  void runsWithASingleClass() {
+    KeyPairsMap keyPairsMap = new KeyPairsMap();
+    keyPairsMap.addPair("a", "a");
+    WfcFeatures wfcFeatures = new WfcFeatures(
+        new Module[] { new Module(new String[] { "a", "a", "a", "a" }, new int[] { 0, 1, 2, 3 }, null, 1) },
+        keyPairsMap);
+    assertEquals(1, wfcFeatures.getModuleClassCount());
+    assertEquals(4, wfcFeatures.getModules().length);
+
+    for (TileSelection tileSelection : TileSelection.values()) {
+      for (PropagationEngine engine : PropagationEngine.values()) {
+        Wfc wfc = new Wfc(8, 8, wfcFeatures, 1);
+        wfc.setTileSelection(tileSelection);
+        wfc.setPropagationEngine(engine);
+        GridObserver observer = wfc.observe();
+        wfc.run();
+        for (int module : TestRules.modulesOf(wfc.getGrid())) {
+          assertTrue(module >= 0 && module < 4, tileSelection + " " + engine);
+        }
+        observer.update();
+        assertEquals(64, observer.getCollapsedCount(), tileSelection + " " + engine);
+      }
+    }
+  }
+
+  /**
+   * Four rotations of an open module, which are one class, and two rotations of a module that fits it, another class.
+   */
+  private static WfcFeatures twoClassFeatures() {
+    KeyPairsMap keyPairsMap = TestRules.chainPairs();
+    return new WfcFeatures(new Module[] {
+        new Module(new String[] { "a", "a", "a", "a" }, new int[] { 0, 1, 2, 3 }, null, 1),
+        new Module(new String[] { "b", "b", "b", "b" }, new int[] { 0, 1 }, null, 1),
+    }, keyPairsMap);
+  }
+
+  private static TileConstraints allowAt(int x, int y, int moduleCount, int... modules) {
+    PossibilitySet allowed = new PossibilitySet(moduleCount, false);
+    for (int module : modules) {
+      allowed.addPossibility(module);
+    }
+    return new TileConstraints().allow(x, y, allowed);
+  }
+
+  @Test
+  void constraintsThatShareOnlyAClassLeaveNoModuleOfIt() {
+    WfcFeatures wfcFeatures = twoClassFeatures();
+    assertEquals(2, wfcFeatures.getModuleClassCount());
+
+    // Both keep a module of the first class, but not the same one, so only the module of the second class is left
+    Wfc wfc = new Wfc(5, 5, wfcFeatures, 1);
+    wfc.constrain(allowAt(2, 2, 6, 0, 4));
+    wfc.constrain(allowAt(2, 2, 6, 1, 4));
+    wfc.run();
+    assertEquals(4, wfc.getGrid().getModuleIndex(2, 2));
+
+    // Without a module in common, nothing is left
+    Wfc contradicting = new Wfc(5, 5, wfcFeatures, 1);
+    contradicting.setMaxRestarts(0);
+    contradicting.constrain(allowAt(2, 2, 6, 0, 5));
+    contradicting.constrain(allowAt(2, 2, 6, 1, 4));
+    contradicting.run();
+    assertEquals(-1, contradicting.getGrid().getModuleIndex(2, 2));
+    assertEquals(0, ((Grid) contradicting.getGrid()).entropy[2 * 5 + 2]);
+  }
+
+  @Test
+  void constraintWithoutThePinnedModuleEmptiesTheTile() {
+    Wfc wfc = new Wfc(5, 5, twoClassFeatures(), 1);
+    wfc.setMaxRestarts(0);
+    wfc.constrain(new TileConstraints().pin(1, 1, 2));
+    wfc.constrain(allowAt(1, 1, 6, 0, 1));
+    wfc.run();
+    assertEquals(0, ((Grid) wfc.getGrid()).entropy[1 * 5 + 1]);
+  }
+
+  @Test
+  void runsOverlappingModelWithPatternSizeOne() {
+    int black = 0xff000000;
+    int white = 0xffffffff;
+    int[] pixels = { black, white, white, white, black, white, white, white, black };
+    WfcFeatures wfcFeatures = new OverlappingModel(pixels, 3, 3, 1, false, 1).createFeatures(false, false);
+    assertEquals(1, wfcFeatures.getModuleClassCount());
+
+    int[] modules = TestRules.run(10, 10, wfcFeatures, 3);
+    boolean[] seen = new boolean[wfcFeatures.getModules().length];
+    for (int module : modules) {
+      assertTrue(module >= 0);
+      seen[module] = true;
+    }
+    for (boolean isSeen : seen) {
+      assertTrue(isSeen);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class OverlappingModelTest {
+  private static final int R = 0xffff0000;
+  private static final int G = 0xff00ff00;
+  private static final int B = 0xff0000ff;
+
+  // Two columns of red and one of green, on top of a row of blue
+  private static final int[] SAMPLE = {
+      R, R, G,
+      R, R, G,
+      B, B, B,
+  };
+
+  @Test
+  void extractsTheWindowsOfTheSample() {
+    OverlappingModel model = new OverlappingModel(SAMPLE, 3, 3, 2, false, 1);
+    assertEquals(4, model.getPatternCount());
+    // In the order they are first seen, row by row
+    assertArrayEquals(new int[] { R, R, R, R }, model.getPattern(0));
+    assertArrayEquals(new int[] { R, G, R, G }, model.getPattern(1));
+    assertArrayEquals(new int[] { R, R, B, B }, model.getPattern(2));
+    assertArrayEquals(new int[] { R, G, B, B }, model.getPattern(3));
+
+    // Wrapping around adds the windows over the edges, which are all different
+    assertEquals(9, new OverlappingModel(SAMPLE, 3, 3, 2, true, 1).getPatternCount());
+
+    // The mirror image adds two new windows, and two that are already there
+    OverlappingModel mirrored = new OverlappingModel(SAMPLE, 3, 3, 2, false, 2);
+    assertEquals(6, mirrored.getPatternCount());
+    int[] frequencies = new int[6];
+    for (int p = 0; p < 6; p++) {
+      frequencies[p] = mirrored.getFrequency(p);
+    }
+    assertArrayEquals(new int[] { 2, 1, 2, 1, 1, 1 }, frequencies);
+  }
+
+  @Test
+  void patternsNeighbourWhereTheyOverlap() {
+    OverlappingModel model = new OverlappingModel(SAMPLE, 3, 3, 2, false, 1);
+    WfcFeatures wfcFeatures = model.createFeatures(false, false);
+    PossibilitySet[] right = wfcFeatures.getPossibleModulesRight();
+    PossibilitySet[] down = wfcFeatures.getPossibleModulesDown();
+
+    // Red on the right fits a red column on the left
+    assertArrayEquals(new int[] { 0, 1 }, right[0].getPossibilitiesAsArray());
+    assertArrayEquals(new int[] { 0, 2 }, down[0].getPossibilitiesAsArray());
+    assertArrayEquals(new int[] { 1, 3 }, down[1].getPossibilitiesAsArray());
+    assertArrayEquals(new int[] { 2, 3 }, right[2].getPossibilitiesAsArray());
+    assertArrayEquals(new int[] { 0 }, wfcFeatures.getPossibleModulesLeft()[1].getPossibilitiesAsArray());
+    // Nothing continues below blue, or to the right of green
+    assertArrayEquals(new int[0], down[3].getPossibilitiesAsArray());
+    assertArrayEquals(new int[0], right[1].getPossibilitiesAsArray());
+  }
+
+  /**
+   * Checks every pair of patterns in every direction against their pixels, with the pattern size of the model.
+   */
+  private static void assertAdjacenciesFollowPixels(OverlappingModel model) {
+    int n = model.getPatternSize();
+    WfcFeatures wfcFeatures = model.createFeatures(false, false);
+    int[][] offsets = new int[4][];
+    offsets[Direction.UP.ordinal()] = new int[] { 0, -1 };
+    offsets[Direction.RIGHT.ordinal()] = new int[] { 1, 0 };
+    offsets[Direction.DOWN.ordinal()] = new int[] { 0, 1 };
+    offsets[Direction.LEFT.ordinal()] = new int[] { -1, 0 };
+
+    for (int d = 0; d < 4; d++) {
+      int dx = offsets[d][0];
+      int dy = offsets[d][1];
+      PossibilitySet[] sets = wfcFeatures.getPossibleModules(d);
+      for (int p = 0; p < model.getPatternCount(); p++) {
+        int[] pattern = model.getPattern(p);
+        for (int q = 0; q < model.getPatternCount(); q++) {
+          int[] other = model.getPattern(q);
+          boolean overlaps = true;
+          for (int y = Math.max(0, dy); y < n + Math.min(0, dy); y++) {
+            for (int x = Math.max(0, dx); x < n + Math.min(0, dx); x++) {
+              overlaps &= pattern[y * n + x] == other[(y - dy) * n + x - dx];
+            }
+          }
+          assertEquals(overlaps, sets[p].hasPossibility(q), "direction " + d + " pattern " + p + " " + q);
+        }
+      }
+    }
+  }
+
+  private static int[] randomSample(int width, int height, int colourCount, long seed) {
+    Random random = new Random(seed);
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = 0xff000000 | random.nextInt(colourCount) * 0x404040;
+    }
+    return pixels;
+  }
+
+  @Test
+  void adjacenciesFollowThePixels() {
+    assertAdjacenciesFollowPixels(new OverlappingModel(SAMPLE, 3, 3, 2, true, 8));
+    assertAdjacenciesFollowPixels(new OverlappingModel(randomSample(7, 6, 2, 1), 7, 6, 2, true, 2));
+    assertAdjacenciesFollowPixels(new OverlappingModel(randomSample(8, 8, 2, 2), 8, 8, 3, false, 8));
+  }
+
+  @Test
+  void windowsWithTheSameHashStayApart() {
+    for (int patternSize = 2; patternSize <= 3; patternSize++) {
+      int[] sample = randomSample(9, 8, 3, patternSize);
+      OverlappingModel model = new OverlappingModel(sample, 9, 8, patternSize, true, 8);
+      // Every window has the same hash, so only the pixels tell them apart
+      OverlappingModel colliding = new OverlappingModel(sample, 9, 8, patternSize, true, 8, 0);
+
+      assertTrue(model.getPatternCount() > 50);
+      assertEquals(model.getPatternCount(), colliding.getPatternCount());
+      for (int p = 0; p < model.getPatternCount(); p++) {
+        assertArrayEquals(model.getPattern(p), colliding.getPattern(p), "pattern " + p);
+        assertEquals(model.getFrequency(p), colliding.getFrequency(p), "pattern " + p);
+      }
+    }
+
+    // And the same windows are still counted as one
+    OverlappingModel colliding = new OverlappingModel(SAMPLE, 3, 3, 2, false, 2, 0);
+    assertEquals(6, colliding.getPatternCount());
+    assertEquals(2, colliding.getFrequency(0));
+  }
+}
@@ -0,0 +1,179 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+class PngExporterTest {
+  private static final int RED = 0xffff0000;
+  private static final int GREEN = 0xff00ff00;
+  private static final int BLUE = 0xff0000ff;
+  private static final int WHITE = 0xffffffff;
+  private static final int BACKGROUND = 0xff102030;
+
+  // A 2 by 2 image with a different colour in every corner, and one with a transparent pixel
+  private static final int[] CORNERS = { RED, GREEN, BLUE, WHITE };
+  private static final int[] SEE_THROUGH = { WHITE, 0x00ffffff, WHITE, WHITE };
+
+  /**
+   * Four rotations of the corners, the see-through image, and a module without an image.
+   */
+  private static Module[] modules() {
+    Module[] modules = new Module[6];
+    for (int rotation = 0; rotation < 4; rotation++) {
+      modules[rotation] = new Module("a", "a", "a", "a", new int[] { rotation }, "corners");
+    }
+    modules[4] = new Module("a", "a", "a", "a", new int[] { 0 }, "see through");
+    modules[5] = new Module("a", "a", "a", "a", new int[] { 0 }, "blank");
+    return modules;
+  }
+
+  private static int[] pixelsOf(Object childItem) {
+    return switch ((String) childItem) {
+      case "corners" -> CORNERS;
+      case "see through" -> SEE_THROUGH;
+      default -> null;
+    };
+  }
+
+  /**
+   * A grid of the given modules, column by column.
+   */
+  private static GridView gridOf(int width, int height, int moduleCount, int... modules) {
+    return new GridView() {
+      @Override
+      public int getWidth() {
+        return width;
+      }
+
+      @Override
+      public int getHeight() {
+        return height;
+      }
+
+      @Override
+      public int getModuleCount() {
+        return moduleCount;
+      }
+
+      @Override
+      public int getEntropy(int x, int y) {
+        return getModuleIndex(x, y) >= 0 ? 1 : moduleCount;
+      }
+
+      @Override
+      public boolean hasPossibility(int x, int y, int module) {
+        int collapsed = getModuleIndex(x, y);
+        return collapsed < 0 || collapsed == module;
+      }
+
+      @Override
+      public int getModuleIndex(int x, int y) {
+        return modules[x * height + y];
+      }
+    };
+  }
+
+  @Test
+  void atlasRotatesAndScalesTheImages() {
+    TileAtlas atlas = new TileAtlas(modules(), 2, PngExporterTest::pixelsOf);
+    assertArrayEquals(CORNERS, atlas.getTile(0));
+    // A quarter turn clockwise moves the bottom left corner to the top left
+    assertArrayEquals(new int[] { BLUE, RED, WHITE, GREEN }, atlas.getTile(1));
+    assertArrayEquals(new int[] { WHITE, BLUE, GREEN, RED }, atlas.getTile(2));
+    assertArrayEquals(new int[] { GREEN, WHITE, RED, BLUE }, atlas.getTile(3));
+    assertNull(atlas.getTile(5));
+
+    // Modules with the same image and rotation share their pixels
+    Module[] twice = { modules()[1], new Module("b", "b", "b", "b", new int[] { 1 }, "corners", 2) };
+    TileAtlas shared = new TileAtlas(twice, 2, PngExporterTest::pixelsOf);
+    assertSame(shared.getTile(0), shared.getTile(1));
+
+    TileAtlas scaled = new TileAtlas(modules(), 4, PngExporterTest::pixelsOf);
+    assertArrayEquals(new int[] {
+        RED, RED, GREEN, GREEN,
+        RED, RED, GREEN, GREEN,
+        BLUE, BLUE, WHITE, WHITE,
+        BLUE, BLUE, WHITE, WHITE,
+    }, scaled.getTile(0));
+  }
+
+  private static BufferedImage export(PngExporter exporter, GridView grid) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    exporter.write(grid, out);
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    assertNotNull(image);
+    return image;
+  }
+
+  @Test
+  void writesEveryTileWhereItsModuleIs() throws IOException {
+    int tileSize = 3;
+    TileAtlas atlas = new TileAtlas(modules(), tileSize, PngExporterTest::pixelsOf);
+    // Three columns of five tiles, with every module and an open tile
+    int[] modules = { 0, 1, 2, 3, 4, 5, -1, 3, 2, 1, 0, 4, 4, 5, 0 };
+    GridView grid = gridOf(3, 5, 6, modules);
+
+    PngExporter exporter = new PngExporter(atlas);
+    exporter.setBackground(BACKGROUND);
+    exporter.setBandHeight(2);
+    BufferedImage image = export(exporter, grid);
+    assertEquals(3 * tileSize, image.getWidth());
+    assertEquals(5 * tileSize, image.getHeight());
+
+    for (int x = 0; x < image.getWidth(); x++) {
+      for (int y = 0; y < image.getHeight(); y++) {
+        int module = modules[x / tileSize * 5 + y / tileSize];
+        int[] tile = module >= 0 ? atlas.getTile(module) : null;
+        int expected = tile == null ? BACKGROUND : tile[y % tileSize * tileSize + x % tileSize];
+        if (expected >>> 24 == 0) {
+          expected = BACKGROUND;
+        }
+        assertEquals(expected, image.getRGB(x, y), "pixel " + x + ", " + y);
+      }
+    }
+  }
+
+  @Test
+  void bandsGiveTheSameImageInParallel() throws IOException {
+    Module[] modules = modules();
+    TileAtlas atlas = new TileAtlas(modules, 5, PngExporterTest::pixelsOf);
+    int[] grid = new int[40 * 30];
+    for (int i = 0; i < grid.length; i++) {
+      grid[i] = i * 7 % (modules.length + 1) - 1;
+    }
+    GridView gridView = gridOf(40, 30, modules.length, grid);
+
+    PngExporter whole = new PngExporter(atlas);
+    whole.setBandHeight(30);
+    BufferedImage expected = export(whole, gridView);
+
+    PngExporter banded = new PngExporter(atlas);
+    banded.setBandHeight(3);
+    banded.setCompressionLevel(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      banded.setExecutor(executor);
+      BufferedImage image = export(banded, gridView);
+      for (int y = 0; y < expected.getHeight(); y++) {
+        assertArrayEquals(expected.getRGB(0, y, expected.getWidth(), 1, null, 0, expected.getWidth()),
+            image.getRGB(0, y, image.getWidth(), 1, null, 0, image.getWidth()), "row " + y);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
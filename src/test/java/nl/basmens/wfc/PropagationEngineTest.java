@@ -0,0 +1,50 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PropagationEngineTest {
+  @Test
+  void enginesAgreeWithSingleWordTiles() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(12, 5, false);
+    assertTrue(wfcFeatures.getModuleClassCount() <= SingleWordPropagator.MAX_MODULES);
+    assertEnginesAgree(wfcFeatures);
+  }
+
+  @Test
+  void enginesAgreeWithSeveralWordsPerTile() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(40, 6, true);
+    assertTrue(wfcFeatures.getModuleClassCount() > SingleWordPropagator.MAX_MODULES);
+    assertEnginesAgree(wfcFeatures);
+  }
+
+  private static void assertEnginesAgree(WfcFeatures wfcFeatures) {
+    for (int seed = 0; seed < 4; seed++) {
+      int[][] grids = new int[PropagationEngine.values().length][];
+      for (PropagationEngine engine : PropagationEngine.values()) {
+        Wfc wfc = new Wfc(24, 24, wfcFeatures, seed);
+        wfc.setPropagationEngine(engine);
+        wfc.run();
+        grids[engine.ordinal()] = TestRules.modulesOf(wfc.getGrid());
+      }
+      for (int module : grids[0]) {
+        assertTrue(module >= 0, "seed " + seed + " left a tile open");
+      }
+      for (int[] grid : grids) {
+        assertArrayEquals(grids[0], grid, "seed " + seed);
+      }
+    }
+  }
+
+  @Test
+  void fullSetsOfWholeWordsCountEveryPossibility() {
+    for (int count : new int[] { 63, 64, 65, 128 }) {
+      PossibilitySet set = new PossibilitySet(count, true);
+      assertEquals(count, set.getEntropy());
+      assertEquals(Grid.wordsFor(count), set.getPossibilitiesAsBinary().length);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PropagationWorklistTest {
+  @Test
+  void mergesUpdatesOfTheSameTile() {
+    PropagationWorklist worklist = new PropagationWorklist(10, 8);
+    assertEquals(1, worklist.push(3, 0));
+    assertEquals(1, worklist.push(3, 7));
+    assertEquals(1, worklist.push(3, 0));
+    assertEquals(2, worklist.push(5, 2));
+
+    assertEquals(5 << NeighbourTable.DIRECTION_BITS | 2, worklist.pop());
+    assertEquals(3 << NeighbourTable.DIRECTION_BITS, worklist.pop());
+    assertEquals(3 << NeighbourTable.DIRECTION_BITS | 7, worklist.pop());
+    assertTrue(worklist.isEmpty());
+  }
+
+  @Test
+  void clearForgetsWaitingDirections() {
+    PropagationWorklist worklist = new PropagationWorklist(4, 4);
+    worklist.push(1, 3);
+    worklist.clear();
+    assertTrue(worklist.isEmpty());
+    worklist.push(1, 0);
+    assertEquals(1 << NeighbourTable.DIRECTION_BITS, worklist.pop());
+    assertTrue(worklist.isEmpty());
+  }
+
+  @Test
+  void rejectsMoreDirectionsThanFitInAByte() {
+    assertThrows(IllegalArgumentException.class, () -> new PropagationWorklist(4, 10));
+  }
+}
@@ -0,0 +1,69 @@
+package nl.basmens.wfc;
+
+import java.util.Random;
+
+/**
+ * Small rule sets for the tests, built in code so they don't depend on the images of the shipped ones.
+ */
+final class TestRules {
+  private TestRules() {
+  }
+
+  /**
+   * Key pairs for keys "a" to "d", where every key fits itself and the keys next to it. Random modules on these rarely
+   * run into a contradiction.
+   */
+  static KeyPairsMap chainPairs() {
+    KeyPairsMap keyPairsMap = new KeyPairsMap();
+    String keys = "abcd";
+    for (int i = 0; i < keys.length(); i++) {
+      keyPairsMap.addPair(keys.substring(i, i + 1), keys.substring(i, i + 1));
+      if (i + 1 < keys.length()) {
+        keyPairsMap.addPair(keys.substring(i, i + 1), keys.substring(i + 1, i + 2));
+      }
+    }
+    return keyPairsMap;
+  }
+
+  /**
+   * Modules with a random key from "a" to "d" on each of their sides, all four rotations and a random weight.
+   */
+  static Module[] randomModules(int count, int keyCount, long seed) {
+    Random random = new Random(seed);
+    Module[] modules = new Module[count];
+    for (int i = 0; i < count; i++) {
+      String[] keys = new String[keyCount];
+      for (int side = 0; side < keyCount; side++) {
+        keys[side] = String.valueOf((char) ('a' + random.nextInt(4)));
+      }
+      modules[i] = new Module(keys, new int[] { 0, 1, 2, 3 }, null, 1 + random.nextInt(3));
+    }
+    return modules;
+  }
+
+  static WfcFeatures randomFeatures(int count, long seed, boolean loopEdges) {
+    WfcFeatures wfcFeatures = new WfcFeatures(randomModules(count, 4, seed), chainPairs());
+    wfcFeatures.setLoopEdgesEnabledX(loopEdges);
+    wfcFeatures.setLoopEdgesEnabledY(loopEdges);
+    return wfcFeatures;
+  }
+
+  /**
+   * Returns the module of every tile, or -1 for a tile that isn't collapsed.
+   */
+  static int[] modulesOf(GridView grid) {
+    int[] modules = new int[grid.getWidth() * grid.getHeight()];
+    for (int x = 0; x < grid.getWidth(); x++) {
+      for (int y = 0; y < grid.getHeight(); y++) {
+        modules[x * grid.getHeight() + y] = grid.getModuleIndex(x, y);
+      }
+    }
+    return modules;
+  }
+
+  static int[] run(int width, int height, WfcFeatures wfcFeatures, int seed) {
+    Wfc wfc = new Wfc(width, height, wfcFeatures, seed);
+    wfc.run();
+    return modulesOf(wfc.getGrid());
+  }
+}
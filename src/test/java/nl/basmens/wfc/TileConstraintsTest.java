@@ -0,0 +1,140 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+class TileConstraintsTest {
+  private static final int SIZE = 12;
+
+  private static PossibilitySet setOf(int moduleCount, int... modules) {
+    PossibilitySet set = new PossibilitySet(moduleCount, false);
+    for (int module : modules) {
+      set.addPossibility(module);
+    }
+    return set;
+  }
+
+  @Test
+  void pinsOfABatchArePropagatedTogether() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 21, false);
+    Wfc wfc = new Wfc(SIZE, SIZE, wfcFeatures, 1);
+    GridObserver observer = wfc.observe();
+
+    // Pinned from the last tile to the first, so tiles propagated one by one would be reported in that order
+    TileConstraints batch = new TileConstraints();
+    for (int x = SIZE - 2; x > 0; x -= 3) {
+      batch.pin(x, x, 0);
+    }
+    wfc.constrain(batch);
+    assertEquals(RunStatus.RUNNING, wfc.runFor(Duration.ZERO));
+    assertEquals(0, wfc.getMetrics().collapses());
+
+    ArrayList<Integer> reported = new ArrayList<>();
+    observer.update((x, y, module) -> reported.add(x * SIZE + y));
+    for (int x = SIZE - 2; x > 0; x -= 3) {
+      assertEquals(0, wfc.getGrid().getModuleIndex(x, x));
+      assertTrue(reported.contains(x * SIZE + x));
+    }
+    // All of them were reported after one propagation, in tile order
+    for (int i = 1; i < reported.size(); i++) {
+      assertTrue(reported.get(i - 1) < reported.get(i), reported.toString());
+    }
+  }
+
+  @Test
+  void allowDuringARunStaysInForce() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 21, false);
+    int moduleCount = wfcFeatures.getModules().length;
+    PossibilitySet even = new PossibilitySet(moduleCount, false);
+    for (int module = 0; module < moduleCount; module += 2) {
+      even.addPossibility(module);
+    }
+
+    for (int seed = 0; seed < 4; seed++) {
+      Wfc wfc = new Wfc(SIZE, SIZE, wfcFeatures, seed);
+      assertEquals(RunStatus.RUNNING, wfc.step(3));
+      TileConstraints batch = new TileConstraints();
+      for (int y = 0; y < SIZE; y++) {
+        if (wfc.getGrid().getModuleIndex(SIZE - 1, y) < 0) {
+          batch.allow(SIZE - 1, y, even);
+        }
+      }
+      wfc.constrain(batch);
+      wfc.run();
+      assertAllowed(wfc, batch, "seed " + seed);
+
+      // And in the runs after it
+      wfc.run();
+      assertAllowed(wfc, batch, "seed " + seed + ", next run");
+    }
+  }
+
+  private static void assertAllowed(Wfc wfc, TileConstraints batch, String message) {
+    for (int i = 0; i < batch.size(); i++) {
+      int module = wfc.getGrid().getModuleIndex(batch.getX(i), batch.getY(i));
+      assertTrue(module >= 0 && module % 2 == 0, message + ": module " + module);
+    }
+  }
+
+  @Test
+  void disagreeingConstraintsLeaveNothing() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 21, false);
+    int moduleCount = wfcFeatures.getModules().length;
+    ModuleClasses classes = wfcFeatures.getModuleClasses();
+    int other = 1;
+    while (classes.classOf[other] == classes.classOf[0]) {
+      other++;
+    }
+    int sameClass = -1;
+    for (int module = 1; module < moduleCount && sameClass < 0; module++) {
+      if (classes.classOf[module] == classes.classOf[0]) {
+        sameClass = module;
+      }
+    }
+    assertTrue(sameClass > 0);
+
+    Wfc wfc = new Wfc(SIZE, SIZE, wfcFeatures, 1);
+    wfc.setMaxRestarts(0);
+    // Two pins, a pin and a set without its module, and two sets that only share a class
+    wfc.constrain(new TileConstraints().pin(1, 1, 0).pin(1, 1, other));
+    wfc.constrain(new TileConstraints().pin(4, 4, 0).allow(4, 4, setOf(moduleCount, other, sameClass)));
+    wfc.constrain(new TileConstraints().allow(8, 8, setOf(moduleCount, 0)).allow(8, 8, setOf(moduleCount, sameClass)));
+    wfc.run();
+
+    Grid grid = (Grid) wfc.getGrid();
+    for (int xy : new int[] { 1, 4, 8 }) {
+      assertEquals(-1, grid.getModuleIndex(xy, xy));
+      assertEquals(0, grid.entropy[xy * SIZE + xy], "tile " + xy);
+    }
+  }
+
+  @Test
+  void clearingRemovesTheConstraints() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 21, false);
+    Wfc wfc = new Wfc(SIZE, SIZE, wfcFeatures, 1);
+    wfc.setMaxRestarts(0);
+    wfc.constrain(new TileConstraints().pin(1, 1, 0).pin(1, 1, 1));
+    wfc.clearConstraints();
+    wfc.run();
+    assertTrue(wfc.getGrid().getModuleIndex(1, 1) >= 0);
+    assertFalse(wfc.isRunning());
+  }
+
+  @Test
+  void rejectsConstraintsOutsideTheGridOrModules() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 21, false);
+    int moduleCount = wfcFeatures.getModules().length;
+    Wfc wfc = new Wfc(SIZE, SIZE, wfcFeatures, 1);
+    assertThrows(IllegalArgumentException.class, () -> wfc.constrain(new TileConstraints().pin(SIZE, 0, 0)));
+    assertThrows(IllegalArgumentException.class, () -> wfc.constrain(new TileConstraints().pin(0, 0, moduleCount)));
+    assertThrows(IllegalArgumentException.class,
+        () -> wfc.constrain(new TileConstraints().allow(0, 0, setOf(moduleCount + 1, 0))));
+  }
+}
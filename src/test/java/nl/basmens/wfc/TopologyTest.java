@@ -0,0 +1,155 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TopologyTest {
+  private static int neighbourOf(Topology topology, int x, int y, int direction) {
+    return topology.neighbour(x * topology.getHeight() + y, direction);
+  }
+
+  private static int[] neighboursOf(Topology topology, int x, int y) {
+    int[] neighbours = new int[topology.getDirectionCount()];
+    for (int d = 0; d < neighbours.length; d++) {
+      neighbours[d] = neighbourOf(topology, x, y, d);
+    }
+    return neighbours;
+  }
+
+  /**
+   * Checks that every tile is the neighbour of its neighbours in the opposite direction, and counts the missing ones.
+   */
+  private static int assertSymmetric(Topology topology) {
+    int directionCount = topology.getDirectionCount();
+    int missing = 0;
+    for (int tile = 0; tile < topology.getTileCount(); tile++) {
+      for (int d = 0; d < directionCount; d++) {
+        int neighbour = topology.neighbour(tile, d);
+        if (neighbour < 0) {
+          missing++;
+        } else {
+          assertEquals(tile, topology.neighbour(neighbour, (d + directionCount / 2) % directionCount),
+              "tile " + tile + " direction " + d);
+        }
+      }
+    }
+    new NeighbourTable(topology);
+    return missing;
+  }
+
+  @Test
+  void hexColumnsAreShiftedByHalfATile() {
+    HexTopology hex = new HexTopology(4, 4, false, false);
+    // Even column, (2, 1): the columns next to it are higher up
+    assertArrayEquals(new int[] { 2 * 4, 3 * 4, 3 * 4 + 1, 2 * 4 + 2, 1 * 4 + 1, 1 * 4 }, neighboursOf(hex, 2, 1));
+    // Odd column, (1, 1): the columns next to it are lower down
+    assertArrayEquals(new int[] { 1 * 4, 2 * 4 + 1, 2 * 4 + 2, 1 * 4 + 2, 2, 1 }, neighboursOf(hex, 1, 1));
+  }
+
+  @Test
+  void hexNeighboursAreSymmetric() {
+    for (boolean loopEdgesX : new boolean[] { false, true }) {
+      for (boolean loopEdgesY : new boolean[] { false, true }) {
+        int missing = assertSymmetric(new HexTopology(6, 5, loopEdgesX, loopEdgesY));
+        assertEquals(loopEdgesX && loopEdgesY, missing == 0);
+      }
+    }
+    // Odd columns at the seam don't fit
+    assertThrows(IllegalArgumentException.class, () -> new HexTopology(5, 5, true, false));
+  }
+
+  @Test
+  void hexEdgesLoop() {
+    HexTopology hex = new HexTopology(4, 4, true, true);
+    // Odd column 3 at the bottom: down right wraps to column 0 and to the top
+    assertEquals(0, neighbourOf(hex, 3, 3, HexTopology.DOWN_RIGHT));
+    assertEquals(3 * 4 + 3, neighbourOf(hex, 0, 0, HexTopology.UP_LEFT));
+    assertEquals(-1, neighbourOf(new HexTopology(4, 4, false, false), 0, 0, HexTopology.UP_LEFT));
+  }
+
+  @Test
+  void voxelFacesReachAcrossLayers() {
+    VoxelTopology voxels = new VoxelTopology(3, 4, 5, false, false, false);
+    assertEquals(4 * 5, voxels.getHeight());
+    int tile = voxels.tile(1, 2, 3);
+    assertEquals(voxels.tile(1, 2, 4), voxels.neighbour(tile, VoxelTopology.BACK));
+    assertEquals(voxels.tile(1, 2, 2), voxels.neighbour(tile, VoxelTopology.FRONT));
+    assertEquals(voxels.tile(1, 1, 3), voxels.neighbour(tile, VoxelTopology.UP));
+    assertEquals(voxels.tile(1, 3, 3), voxels.neighbour(tile, VoxelTopology.DOWN));
+    assertEquals(voxels.tile(2, 2, 3), voxels.neighbour(tile, VoxelTopology.RIGHT));
+    assertEquals(voxels.tile(0, 2, 3), voxels.neighbour(tile, VoxelTopology.LEFT));
+
+    // The bottom of one layer is not the top of the next
+    assertEquals(-1, voxels.neighbour(voxels.tile(1, 3, 2), VoxelTopology.DOWN));
+    assertEquals(-1, voxels.neighbour(voxels.tile(1, 2, 4), VoxelTopology.BACK));
+    VoxelTopology looping = new VoxelTopology(3, 4, 5, false, false, true);
+    assertEquals(looping.tile(1, 2, 0), looping.neighbour(looping.tile(1, 2, 4), VoxelTopology.BACK));
+    VoxelTopology loopingY = new VoxelTopology(3, 4, 5, false, true, false);
+    assertEquals(loopingY.tile(1, 0, 2), loopingY.neighbour(loopingY.tile(1, 3, 2), VoxelTopology.DOWN));
+  }
+
+  @Test
+  void voxelNeighboursAreSymmetric() {
+    for (int loops = 0; loops < 8; loops++) {
+      int missing = assertSymmetric(new VoxelTopology(3, 4, 2, (loops & 1) != 0, (loops & 2) != 0, (loops & 4) != 0));
+      assertEquals(loops == 7, missing == 0);
+    }
+  }
+
+  private static WfcFeatures sixSidedFeatures(long seed) {
+    Random random = new Random(seed);
+    Module[] modules = new Module[16];
+    for (int i = 0; i < modules.length; i++) {
+      String[] keys = new String[6];
+      for (int side = 0; side < keys.length; side++) {
+        keys[side] = String.valueOf((char) ('a' + random.nextInt(4)));
+      }
+      modules[i] = new Module(keys, new int[] { 0 }, null, 1);
+    }
+    return new WfcFeatures(modules, TestRules.chainPairs());
+  }
+
+  /**
+   * Runs on the topology and checks that every tile collapsed to a module that fits each of its neighbours.
+   */
+  private static void assertConsistentRun(Topology topology, WfcFeatures wfcFeatures, int seed) {
+    Wfc wfc = new Wfc(topology, wfcFeatures, seed);
+    wfc.run();
+    int[] modules = TestRules.modulesOf(wfc.getGrid());
+    for (int tile = 0; tile < modules.length; tile++) {
+      assertTrue(modules[tile] >= 0, "tile " + tile);
+      for (int d = 0; d < topology.getDirectionCount(); d++) {
+        int neighbour = topology.neighbour(tile, d);
+        if (neighbour >= 0) {
+          assertTrue(wfcFeatures.getPossibleModules(d)[modules[tile]].hasPossibility(modules[neighbour]),
+              "tile " + tile + " direction " + d);
+        }
+      }
+    }
+  }
+
+  @Test
+  void runsOnHexAndVoxelGrids() {
+    WfcFeatures wfcFeatures = sixSidedFeatures(5);
+    for (int seed = 0; seed < 3; seed++) {
+      assertConsistentRun(new HexTopology(10, 9, false, false), wfcFeatures, seed);
+      assertConsistentRun(new HexTopology(10, 9, true, true), wfcFeatures, seed);
+      assertConsistentRun(new VoxelTopology(5, 4, 3, false, false, false), wfcFeatures, seed);
+      assertConsistentRun(new VoxelTopology(5, 4, 3, true, true, true), wfcFeatures, seed);
+    }
+  }
+
+  @Test
+  void rejectsModulesForAnotherTopology() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new Wfc(new HexTopology(4, 4, false, false), TestRules.randomFeatures(8, 1, false)));
+    assertNotEquals(new HexTopology(4, 4, false, false), new HexTopology(4, 4, true, false));
+  }
+}
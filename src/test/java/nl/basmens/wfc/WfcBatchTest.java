@@ -0,0 +1,85 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+class WfcBatchTest {
+  private static final int SEED_COUNT = 24;
+
+  private static HashMap<Integer, WfcBatch.Result> collect(WfcBatch batch) {
+    HashMap<Integer, WfcBatch.Result> results = new HashMap<>();
+    try (Stream<WfcBatch.Result> stream = batch.stream(IntStream.range(0, SEED_COUNT))) {
+      stream.forEach(result -> assertNull(results.put(result.seed(), result), "seed " + result.seed()));
+    }
+    return results;
+  }
+
+  @Test
+  void resultsAreTheGridsOfSingleRuns() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 13, false);
+    WfcBatch batch = new WfcBatch(16, 12, wfcFeatures);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      batch.setExecutor(executor);
+      batch.setMaxInFlight(3);
+      HashMap<Integer, WfcBatch.Result> results = collect(batch);
+
+      assertEquals(SEED_COUNT, results.size());
+      for (int seed = 0; seed < SEED_COUNT; seed++) {
+        assertArrayEquals(TestRules.run(16, 12, wfcFeatures, seed), TestRules.modulesOf(results.get(seed).grid()),
+            "seed " + seed);
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    WfcBatch.Stats stats = batch.getStats();
+    assertEquals(SEED_COUNT, stats.completed());
+    assertEquals(0, stats.failed());
+    assertEquals(SEED_COUNT * 16 * 12, stats.tiles());
+  }
+
+  @Test
+  void runsWithTheSettingsOfTheBatch() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 13, false);
+    WfcBatch batch = new WfcBatch(16, 16, wfcFeatures);
+    batch.setPropagationEngine(PropagationEngine.SUPPORT_COUNTING);
+    batch.setTileSelection(TileSelection.LOWEST_ENTROPY);
+    HashMap<Integer, WfcBatch.Result> results = collect(batch);
+
+    for (int seed = 0; seed < SEED_COUNT; seed++) {
+      Wfc wfc = new Wfc(16, 16, wfcFeatures, seed);
+      wfc.setPropagationEngine(PropagationEngine.SUPPORT_COUNTING);
+      wfc.setTileSelection(TileSelection.LOWEST_ENTROPY);
+      wfc.run();
+      WfcBatch.Result result = results.get(seed);
+      assertArrayEquals(TestRules.modulesOf(wfc.getGrid()), TestRules.modulesOf(result.grid()), "seed " + seed);
+      assertEquals(wfc.getBacktracks(), result.backtracks(), "seed " + seed);
+    }
+  }
+
+  @Test
+  void streamsOnlyWhatIsConsumed() {
+    WfcBatch batch = new WfcBatch(8, 8, TestRules.randomFeatures(20, 13, false));
+    batch.setMaxInFlight(2);
+    List<WfcBatch.Result> firstFew;
+    try (Stream<WfcBatch.Result> stream = batch.stream(IntStream.range(0, 1000))) {
+      firstFew = stream.limit(3).collect(Collectors.toList());
+    }
+    assertEquals(3, firstFew.size());
+    // The ones still in flight when the stream was closed may finish, but no others are started
+    assertTrue(batch.getStats().completed() <= 3 + 2, "completed " + batch.getStats().completed());
+  }
+}
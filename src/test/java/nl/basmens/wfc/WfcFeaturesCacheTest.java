@@ -0,0 +1,78 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WfcFeaturesCacheTest {
+  @TempDir
+  Path directory;
+
+  @Test
+  void readsBackWhatItBuilt() {
+    Module[] modules = TestRules.randomModules(40, 4, 1);
+    KeyPairsMap keyPairsMap = TestRules.chainPairs();
+    Path file = directory.resolve("features.bin");
+
+    WfcFeatures built = WfcFeaturesCache.loadOrBuild(file, modules, keyPairsMap, true, false);
+    assertTrue(Files.isRegularFile(file));
+    byte[] hash = WfcFeaturesCache.contentHash(modules, keyPairsMap, true, false);
+    WfcFeatures read = WfcFeaturesCache.read(file, modules, hash);
+    assertNotNull(read);
+
+    assertEquals(built.getModules().length, read.getModules().length);
+    assertEquals(built.getModuleClassCount(), read.getModuleClassCount());
+    assertTrue(read.isLoopEdgesEnabledX());
+    assertEquals(false, read.isLoopEdgesEnabledY());
+    for (int d = 0; d < built.getDirectionCount(); d++) {
+      assertArrayEquals(built.getPossibleModulesWords()[d], read.getPossibleModulesWords()[d]);
+    }
+    for (int seed = 0; seed < 3; seed++) {
+      assertArrayEquals(TestRules.run(20, 20, built, seed), TestRules.run(20, 20, read, seed));
+    }
+  }
+
+  @Test
+  void ignoresFileOfOtherRules() {
+    Module[] modules = TestRules.randomModules(20, 4, 2);
+    KeyPairsMap keyPairsMap = TestRules.chainPairs();
+    Path file = directory.resolve("features.bin");
+    WfcFeaturesCache.loadOrBuild(file, modules, keyPairsMap, false, false);
+
+    assertNull(WfcFeaturesCache.read(file, modules, WfcFeaturesCache.contentHash(modules, keyPairsMap, true, false)));
+  }
+
+  @Test
+  void rebuildsCorruptFile() throws IOException {
+    Module[] modules = TestRules.randomModules(20, 4, 3);
+    KeyPairsMap keyPairsMap = TestRules.chainPairs();
+    Path file = directory.resolve("features.bin");
+    WfcFeaturesCache.loadOrBuild(file, modules, keyPairsMap, false, false);
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+    WfcFeatures wfcFeatures = WfcFeaturesCache.loadOrBuild(file, modules, keyPairsMap, false, false);
+    assertEquals(new WfcFeatures(modules, keyPairsMap).getModuleClassCount(), wfcFeatures.getModuleClassCount());
+    assertEquals(bytes.length, Files.size(file));
+  }
+
+  @Test
+  void buildsWhenFileCantBeWritten() throws IOException {
+    Module[] modules = TestRules.randomModules(20, 4, 4);
+    Path notDirectory = Files.createFile(directory.resolve("not-a-directory"));
+
+    WfcFeatures wfcFeatures = WfcFeaturesCache.loadOrBuild(notDirectory.resolve("features.bin"), modules,
+        TestRules.chainPairs(), false, false);
+    assertNotNull(wfcFeatures);
+  }
+}
@@ -0,0 +1,106 @@
+package nl.basmens.wfc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class WfcRunTest {
+  private static boolean hasOpenTile(int[] modules) {
+    for (int module : modules) {
+      if (module < 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  void steppedRunGivesTheGridOfRun() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 13, false);
+    for (PropagationEngine engine : PropagationEngine.values()) {
+      for (int seed = 0; seed < 3; seed++) {
+        Wfc whole = new Wfc(16, 16, wfcFeatures, seed);
+        whole.setPropagationEngine(engine);
+        whole.run();
+
+        Wfc stepped = new Wfc(16, 16, wfcFeatures, seed);
+        stepped.setPropagationEngine(engine);
+        RunStatus status;
+        int steps = 0;
+        do {
+          status = stepped.step(1);
+          steps++;
+        } while (status == RunStatus.RUNNING);
+        assertEquals(RunStatus.FINISHED, status);
+        assertTrue(steps > 1);
+        assertArrayEquals(TestRules.modulesOf(whole.getGrid()), TestRules.modulesOf(stepped.getGrid()),
+            engine + " seed " + seed);
+      }
+    }
+  }
+
+  @Test
+  void cancelStopsTheRunBetweenSteps() {
+    Wfc wfc = new Wfc(16, 16, TestRules.randomFeatures(20, 13, false), 1);
+    assertEquals(RunStatus.RUNNING, wfc.step(5));
+    wfc.cancel();
+    assertEquals(RunStatus.CANCELLED, wfc.step(5));
+    assertFalse(wfc.isRunning());
+    assertEquals(5, wfc.getMetrics().collapses());
+    assertTrue(hasOpenTile(TestRules.modulesOf(wfc.getGrid())));
+  }
+
+  @Test
+  void cancelBeforeARunStopsTheNextOne() {
+    Wfc wfc = new Wfc(16, 16, TestRules.randomFeatures(20, 13, false), 1);
+    wfc.cancel();
+    assertEquals(RunStatus.CANCELLED, wfc.step(5));
+    assertFalse(wfc.isRunning());
+
+    // Only that one
+    wfc.run();
+    assertFalse(hasOpenTile(TestRules.modulesOf(wfc.getGrid())));
+  }
+
+  @Test
+  void runForNoTimeOnlyBeginsTheRun() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 13, false);
+    Wfc wfc = new Wfc(16, 16, wfcFeatures, 2);
+    assertEquals(RunStatus.RUNNING, wfc.runFor(Duration.ZERO));
+    assertTrue(wfc.isRunning());
+    assertEquals(0, wfc.getMetrics().collapses());
+
+    wfc.run();
+    assertArrayEquals(TestRules.run(16, 16, wfcFeatures, 2), TestRules.modulesOf(wfc.getGrid()));
+  }
+
+  @Test
+  void runForCarriesOnUntilTheRunIsOver() {
+    WfcFeatures wfcFeatures = TestRules.randomFeatures(20, 13, false);
+    Wfc wfc = new Wfc(16, 16, wfcFeatures, 3);
+    RunStatus status;
+    do {
+      status = wfc.runFor(Duration.ofMillis(1));
+    } while (status == RunStatus.RUNNING);
+    assertEquals(RunStatus.FINISHED, status);
+    assertArrayEquals(TestRules.run(16, 16, wfcFeatures, 3), TestRules.modulesOf(wfc.getGrid()));
+  }
+
+  @Test
+  void timeLimitStopsTheRun() {
+    Wfc wfc = new Wfc(32, 32, TestRules.randomFeatures(20, 13, false), 4);
+    wfc.setTimeLimit(Duration.ofNanos(1));
+    assertEquals(RunStatus.TIMED_OUT, wfc.step(Integer.MAX_VALUE));
+    assertFalse(wfc.isRunning());
+    assertTrue(hasOpenTile(TestRules.modulesOf(wfc.getGrid())));
+
+    wfc.setTimeLimit(null);
+    wfc.run();
+    assertFalse(hasOpenTile(TestRules.modulesOf(wfc.getGrid())));
+  }
+}